@@ -0,0 +1,88 @@
+package org.ru.ot;
+
+import java.util.Random;
+
+/**
+ * Compares sequential and parallel augmenting path searches (see {@link Mapping#setSearchParallelism(int)}) on random
+ * pairs of point clouds of growing size. Like {@link RelaxKernelBenchmark}, it follows the JMH recipe by hand: warmup
+ * solves to get everything compiled, then the best of several timed solves. It lives next to that benchmark, outside
+ * of src, but needs no incubator module itself. Run with
+ *
+ *   java -cp out org.ru.ot.ParallelSearchBenchmark [threads] [delta] [sizes...]
+ */
+public class ParallelSearchBenchmark {
+    private static final int WARMUP_SOLVES = 2;
+    private static final int MEASURED_SOLVES = 3;
+
+    public static void main(String[] args) {
+        int threads = args.length > 0 ? Integer.parseInt(args[0]) : Runtime.getRuntime().availableProcessors();
+        double delta = args.length > 1 ? Double.parseDouble(args[1]) : 0.1;
+        int[] sizes = {200, 500, 1000, 2000};
+        if (args.length > 2) {
+            sizes = new int[args.length - 2];
+            for (int k = 2; k < args.length; k++) {
+                sizes[k - 2] = Integer.parseInt(args[k]);
+            }
+        }
+        System.out.printf("threads = %d, delta = %s, processors = %d%n", threads, delta,
+                Runtime.getRuntime().availableProcessors());
+
+        Random rng = new Random(1);
+        for (int n : sizes) {
+            // Two overlapping clouds on a 28 x 28 grid, like a pair of digits.
+            double[][] C = new double[n][n];
+            double[] supplyX = new double[n];
+            double[] supplyY = new double[n];
+            for (int j = 0; j < n; j++) {
+                supplyX[j] = 28 * rng.nextDouble();
+                supplyY[j] = 28 * rng.nextDouble();
+            }
+            for (int i = 0; i < n; i++) {
+                double x = 28 * rng.nextDouble() + 2;
+                double y = 28 * rng.nextDouble();
+                for (int j = 0; j < n; j++) {
+                    C[i][j] = Math.hypot(x - supplyX[j], y - supplyY[j]);
+                }
+            }
+            double[] supplies = randomDistribution(rng, n);
+            double[] demands = randomDistribution(rng, n);
+
+            Mapping sequential = new Mapping();
+            try (Mapping parallel = new Mapping()) {
+                parallel.setSearchParallelism(threads);
+                double sequentialTime = time(sequential, n, supplies, demands, C, delta);
+                double parallelTime = time(parallel, n, supplies, demands, C, delta);
+                System.out.printf("n = %5d   sequential %9.1f ms (cost %.5f)   parallel %9.1f ms (cost %.5f)   speedup %.2f%n",
+                        n, sequentialTime, sequential.getTotalCost(), parallelTime, parallel.getTotalCost(),
+                        sequentialTime / parallelTime);
+            }
+        }
+    }
+
+    private static double time(Mapping mapping, int n, double[] supplies, double[] demands, double[][] C,
+                               double delta) {
+        double best = Double.MAX_VALUE;
+        for (int solve = 0; solve < WARMUP_SOLVES + MEASURED_SOLVES; solve++) {
+            long start = System.nanoTime();
+            mapping.solveCost(n, n, supplies, demands, C, delta);
+            long end = System.nanoTime();
+            if (solve >= WARMUP_SOLVES) {
+                best = Double.min(best, (end - start) / 1e6);
+            }
+        }
+        return best;
+    }
+
+    private static double[] randomDistribution(Random rng, int n) {
+        double[] masses = new double[n];
+        double total = 0;
+        for (int i = 0; i < n; i++) {
+            masses[i] = rng.nextDouble();
+            total += masses[i];
+        }
+        for (int i = 0; i < n; i++) {
+            masses[i] /= total;
+        }
+        return masses;
+    }
+}
@@ -0,0 +1,79 @@
+package org.ru.ot;
+
+import java.util.Random;
+
+/**
+ * Compares the scalar and Vector API relax kernels on the edge scans of a GTTransport sized for a pair of MNIST
+ * digits. There is no build tool to pull JMH in, so this follows its recipe by hand: a few warmup iterations to get
+ * both kernels compiled, then timed iterations, with every result folded into a checksum so nothing is optimized
+ * away. Run with
+ *
+ *   java --add-modules jdk.incubator.vector -cp out org.ru.ot.RelaxKernelBenchmark [numB] [numA]
+ */
+public class RelaxKernelBenchmark {
+    private static final int WARMUP_ITERATIONS = 5;
+    private static final int MEASURED_ITERATIONS = 10;
+    private static final int SCANS_PER_ITERATION = 20_000;
+
+    public static void main(String[] args) {
+        int numB = args.length > 0 ? Integer.parseInt(args[0]) : 196;
+        int numA = args.length > 1 ? Integer.parseInt(args[1]) : 196;
+        Random rng = new Random(1);
+
+        // A mid-phase snapshot: most forward edges still have capacity, few backward edges carry flow, and the
+        // distances are a mix of reached and unreached vertices.
+        int[] C = new int[numA*numB];
+        int[] capacityAB = new int[numA*numB];
+        int[] capacityBA = new int[numB*numA];
+        for (int i = 0; i < numA*numB; i++) {
+            C[i] = rng.nextInt(10_000);
+            capacityAB[i] = rng.nextInt(20) == 0 ? 1 + rng.nextInt(100) : 0;
+            capacityBA[i] = rng.nextInt(10) == 0 ? 0 : 1 + rng.nextInt(100);
+        }
+        long[] y = new long[numB + numA];
+        long[] lv = new long[numB + numA];
+        for (int v = 0; v < numB + numA; v++) {
+            y[v] = v < numB ? rng.nextInt(5_000) : -rng.nextInt(5_000);
+            lv[v] = rng.nextInt(3) == 0 ? Long.MAX_VALUE : rng.nextInt(20_000);
+        }
+        // Laid out like in GTTransport: one row of C per vertex of B, read down a column by the scans out of A.
+        int[] columnOffsets = new int[numB];
+        for (int b = 0; b < numB; b++) {
+            columnOffsets[b] = b*numA;
+        }
+        int[] improved = new int[Integer.max(numB, numA)];
+        long[] improvedDist = new long[Integer.max(numB, numA)];
+
+        RelaxKernel[] kernels = {new ScalarRelaxKernel(), new VectorRelaxKernel()};
+        System.out.printf("numB = %d, numA = %d, kernel picked by RelaxKernel.create: %s%n",
+                numB, numA, RelaxKernel.create().getClass().getSimpleName());
+        for (RelaxKernel kernel : kernels) {
+            long checksum = 0;
+            double bestFromB = Double.MAX_VALUE;
+            double bestFromA = Double.MAX_VALUE;
+            for (int iteration = 0; iteration < WARMUP_ITERATIONS + MEASURED_ITERATIONS; iteration++) {
+                long start = System.nanoTime();
+                for (int s = 0; s < SCANS_PER_ITERATION; s++) {
+                    int b = s % numB;
+                    long base = lv[b] == Long.MAX_VALUE ? 0 : lv[b] + 1 - y[b];
+                    checksum += kernel.relaxFromB(base, b*numA, capacityBA, C, b*numA, y, lv, numB, numA,
+                            improved, improvedDist);
+                }
+                long middle = System.nanoTime();
+                for (int s = 0; s < SCANS_PER_ITERATION; s++) {
+                    int a = s % numA;
+                    long base = y[numB + a] + (s & 1023);
+                    checksum += kernel.relaxFromA(base, a*numB, capacityAB, C, a, columnOffsets, y, lv, numB,
+                            improved, improvedDist);
+                }
+                long end = System.nanoTime();
+                if (iteration >= WARMUP_ITERATIONS) {
+                    bestFromB = Double.min(bestFromB, (middle - start) / (double) SCANS_PER_ITERATION);
+                    bestFromA = Double.min(bestFromA, (end - middle) / (double) SCANS_PER_ITERATION);
+                }
+            }
+            System.out.printf("%-20s relaxFromB %8.1f ns/op   relaxFromA %8.1f ns/op   (checksum %d)%n",
+                    kernel.getClass().getSimpleName(), bestFromB, bestFromA, checksum);
+        }
+    }
+}
@@ -0,0 +1,189 @@
+package org.ru.ot;
+
+import jdk.incubator.foreign.MemoryAccess;
+import jdk.incubator.foreign.MemorySegment;
+import jdk.incubator.foreign.ResourceScope;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * {@link MatrixMemory} off the heap, on the incubating Foreign Memory API. Compiling and running it needs
+ * `--add-modules jdk.incubator.foreign`, which is why it lives outside of src; MatrixMemory.offHeap loads it by name.
+ *
+ * Every matrix gets a segment in a scope of its own, so that it can be freed on its own when its owner changes shape.
+ * The scopes are shared: GTTransport reads and writes its capacities from the threads of its search.
+ */
+class SegmentMatrixMemory implements MatrixMemory {
+    private final List<ResourceScope> scopes = new ArrayList<>();
+
+    @Override
+    public synchronized IntMatrix allocateInts(int rows, int columns) {
+        return new SegmentIntMatrix(allocate((long) rows * columns * Integer.BYTES));
+    }
+
+    @Override
+    public synchronized LongMatrix allocateLongs(int rows, int columns) {
+        return new SegmentLongMatrix(allocate((long) rows * columns * Long.BYTES));
+    }
+
+    @Override
+    public synchronized DoubleMatrix allocateDoubles(int rows, int columns) {
+        return new SegmentDoubleMatrix(allocate((long) rows * columns * Double.BYTES), rows, columns);
+    }
+
+    @Override
+    public synchronized void close() {
+        for (ResourceScope scope : scopes) {
+            if (scope.isAlive()) {
+                scope.close();
+            }
+        }
+        scopes.clear();
+    }
+
+    /**
+     * @return a zeroed segment of the given size, in a new scope. Native segments cannot be empty, so an empty matrix
+     * gets a byte it never reads.
+     */
+    private MemorySegment allocate(long bytes) {
+        ResourceScope scope = ResourceScope.newSharedScope();
+        scopes.add(scope);
+        return MemorySegment.allocateNative(Math.max(bytes, 1), scope);
+    }
+
+    private synchronized void free(MemorySegment segment) {
+        ResourceScope scope = segment.scope();
+        if (scopes.remove(scope) && scope.isAlive()) {
+            scope.close();
+        }
+    }
+
+    private final class SegmentIntMatrix implements IntMatrix {
+        private final MemorySegment segment;
+
+        SegmentIntMatrix(MemorySegment segment) {
+            this.segment = segment;
+        }
+
+        @Override
+        public int get(int index) {
+            return MemoryAccess.getIntAtIndex(segment, index);
+        }
+
+        @Override
+        public void set(int index, int value) {
+            MemoryAccess.setIntAtIndex(segment, index, value);
+        }
+
+        @Override
+        public void fill(int value) {
+            if (value == 0) {
+                segment.fill((byte) 0);
+                return;
+            }
+            for (long i = 0, n = segment.byteSize() / Integer.BYTES; i < n; i++) {
+                MemoryAccess.setIntAtIndex(segment, i, value);
+            }
+        }
+
+        @Override
+        public void copyTo(int from, int[] destination, int length) {
+            MemorySegment.ofArray(destination).asSlice(0, (long) length * Integer.BYTES)
+                    .copyFrom(segment.asSlice((long) from * Integer.BYTES, (long) length * Integer.BYTES));
+        }
+
+        @Override
+        public int[] array() {
+            return null;
+        }
+
+        @Override
+        public void free() {
+            SegmentMatrixMemory.this.free(segment);
+        }
+    }
+
+    private final class SegmentLongMatrix implements LongMatrix {
+        private final MemorySegment segment;
+
+        SegmentLongMatrix(MemorySegment segment) {
+            this.segment = segment;
+        }
+
+        @Override
+        public long get(int index) {
+            return MemoryAccess.getLongAtIndex(segment, index);
+        }
+
+        @Override
+        public void set(int index, long value) {
+            MemoryAccess.setLongAtIndex(segment, index, value);
+        }
+
+        @Override
+        public void copyTo(int from, long[] destination, int length) {
+            MemorySegment.ofArray(destination).asSlice(0, (long) length * Long.BYTES)
+                    .copyFrom(segment.asSlice((long) from * Long.BYTES, (long) length * Long.BYTES));
+        }
+
+        @Override
+        public long[] array() {
+            return null;
+        }
+
+        @Override
+        public void free() {
+            SegmentMatrixMemory.this.free(segment);
+        }
+    }
+
+    private final class SegmentDoubleMatrix implements DoubleMatrix {
+        private final MemorySegment segment;
+        private final int rows;
+        private final int columns;
+
+        SegmentDoubleMatrix(MemorySegment segment, int rows, int columns) {
+            this.segment = segment;
+            this.rows = rows;
+            this.columns = columns;
+        }
+
+        @Override
+        public int rows() {
+            return rows;
+        }
+
+        @Override
+        public int columns() {
+            return columns;
+        }
+
+        @Override
+        public double get(int row, int column) {
+            return MemoryAccess.getDoubleAtIndex(segment, (long) row * columns + column);
+        }
+
+        @Override
+        public void copyRow(int row, double[] destination) {
+            long rowBytes = (long) columns * Double.BYTES;
+            MemorySegment.ofArray(destination).asSlice(0, rowBytes).copyFrom(segment.asSlice(row * rowBytes, rowBytes));
+        }
+
+        @Override
+        public void setRow(int row, double[] values) {
+            long rowBytes = (long) columns * Double.BYTES;
+            segment.asSlice(row * rowBytes, rowBytes).copyFrom(MemorySegment.ofArray(values).asSlice(0, rowBytes));
+        }
+
+        @Override
+        public double[][] array() {
+            return null;
+        }
+
+        @Override
+        public void free() {
+            SegmentMatrixMemory.this.free(segment);
+        }
+    }
+}
@@ -0,0 +1,206 @@
+package org.ru.ot;
+
+import jdk.incubator.vector.IntVector;
+import jdk.incubator.vector.LongVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorShape;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * {@link RelaxKernel} on the incubating Vector API. Compiling and running it needs
+ * `--add-modules jdk.incubator.vector`, which is why it lives outside of src; RelaxKernel.create loads it by name when
+ * asked to.
+ *
+ * Each step loads a full vector of capacities, costs, duals and distances, computes every tentative distance at once
+ * and compares the whole vector against the current distances. Duals and distances are longs, so a step covers as
+ * many edges as a long vector has lanes, and the capacities and int costs are loaded at half that width and widened.
+ * The costs out of a vertex of A run down a column of the cost matrix, and there only the capacities are compared a
+ * vector at a time. Most blocks have no edge with capacity or improve no distance at all and are skipped after one
+ * comparison; the few that do are written out lane by lane, checking the capacity of each edge again. Combining the
+ * two comparisons into one mask would need a cast from int to long lanes, which the JDK 17 compiler does not
+ * intrinsify.
+ */
+class VectorRelaxKernel implements RelaxKernel {
+    private static final VectorSpecies<Long> SPECIES = LongVector.SPECIES_PREFERRED;
+    private static final VectorSpecies<Integer> INT_SPECIES =
+            VectorSpecies.of(int.class, VectorShape.forBitSize(SPECIES.vectorBitSize() / 2));
+
+    @Override
+    public int relaxFromB(long base, int bRow, int[] capacityBA, int[] costs, int costRow, long[] y, long[] lv,
+                          int numB, int numA, int[] improved, long[] improvedDist) {
+        LongVector baseVector = LongVector.broadcast(SPECIES, base);
+        int count = 0;
+        int a = 0;
+        for (int bound = SPECIES.loopBound(numA); a < bound; a += SPECIES.length()) {
+            if (!anyOpen(capacityBA, bRow + a)) {
+                continue;
+            }
+            LongVector cost = widen(costs, costRow + a);
+            LongVector newDist = baseVector.add(cost).sub(LongVector.fromArray(SPECIES, y, numB + a));
+            if (!newDist.compare(VectorOperators.LT, LongVector.fromArray(SPECIES, lv, numB + a)).anyTrue()) {
+                continue;
+            }
+            count = collect(newDist, capacityBA, bRow + a, lv, numB + a, improved, improvedDist, count);
+        }
+        for (; a < numA; a++) {
+            if (capacityBA[bRow + a] > 0) {
+                int aIndex = a + numB;
+                long newDist = base + costs[costRow + a] - y[aIndex];
+                if (newDist < lv[aIndex]) {
+                    improved[count] = aIndex;
+                    improvedDist[count] = newDist;
+                    count++;
+                }
+            }
+        }
+        return count;
+    }
+
+    @Override
+    public int relaxFromB(long base, int bRow, int[] capacityBA, long[] costs, int costRow, long[] y, long[] lv,
+                          int numB, int numA, int[] improved, long[] improvedDist) {
+        LongVector baseVector = LongVector.broadcast(SPECIES, base);
+        int count = 0;
+        int a = 0;
+        for (int bound = SPECIES.loopBound(numA); a < bound; a += SPECIES.length()) {
+            if (!anyOpen(capacityBA, bRow + a)) {
+                continue;
+            }
+            LongVector cost = LongVector.fromArray(SPECIES, costs, costRow + a);
+            LongVector newDist = baseVector.add(cost).sub(LongVector.fromArray(SPECIES, y, numB + a));
+            if (!newDist.compare(VectorOperators.LT, LongVector.fromArray(SPECIES, lv, numB + a)).anyTrue()) {
+                continue;
+            }
+            count = collect(newDist, capacityBA, bRow + a, lv, numB + a, improved, improvedDist, count);
+        }
+        for (; a < numA; a++) {
+            if (capacityBA[bRow + a] > 0) {
+                int aIndex = a + numB;
+                long newDist = base + costs[costRow + a] - y[aIndex];
+                if (newDist < lv[aIndex]) {
+                    improved[count] = aIndex;
+                    improvedDist[count] = newDist;
+                    count++;
+                }
+            }
+        }
+        return count;
+    }
+
+    @Override
+    public int relaxFromA(long base, int aRow, int[] capacityAB, int[] costs, int costRow, int[] costOffsets,
+                          long[] y, long[] lv, int numB, int[] improved, long[] improvedDist) {
+        LongVector baseVector = LongVector.broadcast(SPECIES, base);
+        int count = 0;
+        int b = 0;
+        for (int bound = SPECIES.loopBound(numB); b < bound; b += SPECIES.length()) {
+            if (!anyOpen(capacityAB, aRow + b)) {
+                continue;
+            }
+            // Down a column of the cost matrix the costs would need a gather, which crashes the JDK 17 compiler in
+            // this loop. Only edges that carry flow are open, and there are few, so those are read one at a time.
+            if (costOffsets != null) {
+                count = scanFromA(b, b + SPECIES.length(), base, aRow, capacityAB, costs, costRow, costOffsets, y, lv,
+                        improved, improvedDist, count);
+                continue;
+            }
+            LongVector newDist = baseVector.add(LongVector.fromArray(SPECIES, y, b)).sub(widen(costs, costRow + b));
+            if (!newDist.compare(VectorOperators.LT, LongVector.fromArray(SPECIES, lv, b)).anyTrue()) {
+                continue;
+            }
+            count = collect(newDist, capacityAB, aRow + b, lv, b, improved, improvedDist, count);
+        }
+        return scanFromA(b, numB, base, aRow, capacityAB, costs, costRow, costOffsets, y, lv, improved, improvedDist,
+                count);
+    }
+
+    @Override
+    public int relaxFromA(long base, int aRow, int[] capacityAB, long[] costs, int costRow, int[] costOffsets,
+                          long[] y, long[] lv, int numB, int[] improved, long[] improvedDist) {
+        LongVector baseVector = LongVector.broadcast(SPECIES, base);
+        int count = 0;
+        int b = 0;
+        for (int bound = SPECIES.loopBound(numB); b < bound; b += SPECIES.length()) {
+            if (!anyOpen(capacityAB, aRow + b)) {
+                continue;
+            }
+            if (costOffsets != null) {
+                count = scanFromA(b, b + SPECIES.length(), base, aRow, capacityAB, costs, costRow, costOffsets, y, lv,
+                        improved, improvedDist, count);
+                continue;
+            }
+            LongVector newDist = baseVector.add(LongVector.fromArray(SPECIES, y, b))
+                    .sub(LongVector.fromArray(SPECIES, costs, costRow + b));
+            if (!newDist.compare(VectorOperators.LT, LongVector.fromArray(SPECIES, lv, b)).anyTrue()) {
+                continue;
+            }
+            count = collect(newDist, capacityAB, aRow + b, lv, b, improved, improvedDist, count);
+        }
+        return scanFromA(b, numB, base, aRow, capacityAB, costs, costRow, costOffsets, y, lv, improved, improvedDist,
+                count);
+    }
+
+    //Whether any edge of the block of capacities starting at offset has residual capacity.
+    private static boolean anyOpen(int[] capacities, int offset) {
+        return IntVector.fromArray(INT_SPECIES, capacities, offset).compare(VectorOperators.GT, 0).anyTrue();
+    }
+
+    //The block of int costs starting at offset, widened to longs.
+    private static LongVector widen(int[] costs, int offset) {
+        return (LongVector) IntVector.fromArray(INT_SPECIES, costs, offset).convertShape(VectorOperators.I2L, SPECIES, 0);
+    }
+
+    //Appends the lanes of a block whose edge is open and whose new distance improves on lv, where the block starts at
+    //capacityOffset in the capacities and at vertex in lv.
+    private static int collect(LongVector newDist, int[] capacities, int capacityOffset, long[] lv, int vertex,
+                               int[] improved, long[] improvedDist, int count) {
+        // The new distances are spilled to where the output goes and compacted in place: the kth improved
+        // lane is at least lane k, so nothing is overwritten before it is read.
+        int start = count;
+        newDist.intoArray(improvedDist, start);
+        for (int lane = 0; lane < SPECIES.length(); lane++) {
+            long dist = improvedDist[start + lane];
+            if (capacities[capacityOffset + lane] > 0 && dist < lv[vertex + lane]) {
+                improved[count] = vertex + lane;
+                improvedDist[count] = dist;
+                count++;
+            }
+        }
+        return count;
+    }
+
+    //The scalar loop of relaxFromA over the vertices from .. to - 1 of B, appending to the count improved so far.
+    private static int scanFromA(int from, int to, long base, int aRow, int[] capacityAB, int[] costs, int costRow,
+                                 int[] costOffsets, long[] y, long[] lv, int[] improved, long[] improvedDist,
+                                 int count) {
+        for (int b = from; b < to; b++) {
+            if (capacityAB[aRow + b] > 0) {
+                int cost = costOffsets == null ? costs[costRow + b] : costs[costRow + costOffsets[b]];
+                long newDist = base + y[b] - cost;
+                if (newDist < lv[b]) {
+                    improved[count] = b;
+                    improvedDist[count] = newDist;
+                    count++;
+                }
+            }
+        }
+        return count;
+    }
+
+    private static int scanFromA(int from, int to, long base, int aRow, int[] capacityAB, long[] costs, int costRow,
+                                 int[] costOffsets, long[] y, long[] lv, int[] improved, long[] improvedDist,
+                                 int count) {
+        for (int b = from; b < to; b++) {
+            if (capacityAB[aRow + b] > 0) {
+                long cost = costOffsets == null ? costs[costRow + b] : costs[costRow + costOffsets[b]];
+                long newDist = base + y[b] - cost;
+                if (newDist < lv[b]) {
+                    improved[count] = b;
+                    improvedDist[count] = newDist;
+                    count++;
+                }
+            }
+        }
+        return count;
+    }
+}
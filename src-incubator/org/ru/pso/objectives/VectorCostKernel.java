@@ -0,0 +1,50 @@
+package org.ru.pso.objectives;
+
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * {@link CostKernel} on the incubating Vector API. Compiling and running it needs
+ * `--add-modules jdk.incubator.vector`, which is why it lives outside of src; CostKernel.create loads it by name.
+ *
+ * Each step computes the costs to a full vector of reference pixels. Lanewise subtraction, multiplication, addition
+ * and square root are all correctly rounded, and no multiply is fused into an add, so the costs are the same bits as
+ * those of the scalar kernel.
+ */
+class VectorCostKernel implements CostKernel {
+    private static final VectorSpecies<Double> SPECIES = DoubleVector.SPECIES_PREFERRED;
+
+    @Override
+    public void euclideanRow(double x, double y, double[] refX, double[] refY, int n, double[] row) {
+        DoubleVector xVector = DoubleVector.broadcast(SPECIES, x);
+        DoubleVector yVector = DoubleVector.broadcast(SPECIES, y);
+        int i = 0;
+        for (int bound = SPECIES.loopBound(n); i < bound; i += SPECIES.length()) {
+            DoubleVector dx = xVector.sub(DoubleVector.fromArray(SPECIES, refX, i));
+            DoubleVector dy = yVector.sub(DoubleVector.fromArray(SPECIES, refY, i));
+            dx.mul(dx).add(dy.mul(dy)).sqrt().intoArray(row, i);
+        }
+        for (; i < n; i++) {
+            double dx = x - refX[i];
+            double dy = y - refY[i];
+            row[i] = Math.sqrt(dx*dx + dy*dy);
+        }
+    }
+
+    @Override
+    public void squaredEuclideanRow(double x, double y, double[] refX, double[] refY, int n, double[] row) {
+        DoubleVector xVector = DoubleVector.broadcast(SPECIES, x);
+        DoubleVector yVector = DoubleVector.broadcast(SPECIES, y);
+        int i = 0;
+        for (int bound = SPECIES.loopBound(n); i < bound; i += SPECIES.length()) {
+            DoubleVector dx = xVector.sub(DoubleVector.fromArray(SPECIES, refX, i));
+            DoubleVector dy = yVector.sub(DoubleVector.fromArray(SPECIES, refY, i));
+            dx.mul(dx).add(dy.mul(dy)).intoArray(row, i);
+        }
+        for (; i < n; i++) {
+            double dx = x - refX[i];
+            double dy = y - refY[i];
+            row[i] = dx*dx + dy*dy;
+        }
+    }
+}
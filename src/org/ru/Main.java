@@ -5,6 +5,8 @@ import org.ru.concurrent.ThreadableImageClassification;
 import org.ru.drawing.PointCloud;
 import org.ru.img.AbstractPixel;
 import org.ru.img.ImgReader;
+import org.ru.img.PixelCloud;
+import org.ru.img.ReferenceModel;
 import org.ru.pso.*;
 import org.ru.pso.objectives.ImageTRS;
 import org.ru.pso.strategies.Placement;
@@ -47,16 +49,22 @@ public class Main {
         OutputWriter comparisons = new OutputWriter("temp/comparisons.csv");
         OutputWriter classifications = new OutputWriter("temp/classifications.csv");
         ExecutorService pool = Executors.newFixedThreadPool(10);
+        // Totals over every comparison, both stay 0 unless ThreadableImageClassification caches evaluations.
+        long cacheHits = 0;
+        long cacheMisses = 0;
+        // Transport problems solved less accurately than asked for, summed over every comparison.
+        long inexactSolves = 0;
 
         try {
             comparisons.writeLine("ref_label,cand_label,cand_img_id,fitness,x_shift,y_shift,rotation,x_scale,y_scale,iterations");
             classifications.writeLine("cand_label,cand_img_id,classified_as,0-fitness,1-fitness,2-fitness,3-fitness,4-fitness,5-fitness,6-fitness,7-fitness,8-fitness,9-fitness,i_xShift,i_yShift,i_theta,i_xScale,i_yScale");
 
-            // 1: Load the heatmap reference images
+            // 1: Load the heatmap reference images, and prepare each one once for all the candidates to come
             ImgReader referenceImages = new ImgReader("img/heatmaps");
-            ArrayList<BufferedImage> heatmaps = new ArrayList<>();
+            ArrayList<ReferenceModel> heatmaps = new ArrayList<>();
             for (int i = 0; i < 10; i++) {
-                heatmaps.add(referenceImages.getImage(String.format("digit-%d-heatmap.bmp", i)));
+                BufferedImage heatmap = referenceImages.getImage(String.format("digit-%d-heatmap.bmp", i));
+                heatmaps.add(ThreadableImageClassification.buildReferenceModel(heatmap));
             }
 
             // Each folder corresponds to a set of digits, all of which are the same type.
@@ -76,7 +84,7 @@ public class Main {
                     // Before we do the classification, we randomly shift the candidate to show that we're transformation invariant.
                     // MAKE SURE the threshold here matches the one set in ThreadableImageClassification
                     // This is a bit of a hack NGL
-                    List<AbstractPixel> candidatePixels = ImgReader.convertToAbstractPixelsViaKernel(candidateImage, 0.1);
+                    PixelCloud candidatePixels = ImgReader.convertToPixelCloudViaKernel(candidateImage, 0.1);
                     Vec5D randomTransformBounds = new Vec5D(new double[]{
                             5,
                             5,
@@ -84,7 +92,7 @@ public class Main {
                             0.1,
                             0.1
                     });
-                    List<AbstractPixel> randomlyShiftedPixels = RandomTransformer.randomTRS(randomTransformBounds, candidatePixels);
+                    PixelCloud randomlyShiftedPixels = RandomTransformer.randomTRS(randomTransformBounds, candidatePixels);
                     double[] randomShift = RandomTransformer.lastShift;
 
                     // This is the multithreaded part so there should be no issue making lastShift static.
@@ -118,6 +126,9 @@ public class Main {
                             classifiedAs = res.referenceDigit();
                         }
                         allScores[i] = res.result().fitnessScore();
+                        cacheHits += res.cacheHits();
+                        cacheMisses += res.cacheMisses();
+                        inexactSolves += res.inexactSolves();
                     }
 
                     // 5: Record the classification of this digit.
@@ -144,6 +155,14 @@ public class Main {
                     ));
                 }
             }
+
+            if (cacheHits + cacheMisses > 0) {
+                System.out.printf("Evaluation cache answered %.1f%% of %d evaluations.%n",
+                        100.0 * cacheHits / (cacheHits + cacheMisses), cacheHits + cacheMisses);
+            }
+            if (inexactSolves > 0) {
+                System.out.printf("%d transport problems could not be solved within delta.%n", inexactSolves);
+            }
         } finally {
             // No matter what happens, clean up your file handles!
             comparisons.close();
@@ -162,7 +181,7 @@ public class Main {
         BufferedImage cand = candidateReader.getImage(String.format("%s.bmp", candidateName));
         BufferedImage ref = refReader.getImage(String.format("%s.bmp", referenceName));
       
-        List<AbstractPixel> candidatePixels = ImgReader.convertToAbstractPixels(cand, 0.10);
+        PixelCloud candidatePixels = ImgReader.convertToPixelCloud(cand, 0.10);
         Vec5D randomTransformBounds = new Vec5D(new double[]{
                 5,
                 5,
@@ -170,7 +189,7 @@ public class Main {
                 0.1,
                 0.1
         });
-        List<AbstractPixel> randomlyShiftedPixels = RandomTransformer.randomTRS(randomTransformBounds, candidatePixels);
+        PixelCloud randomlyShiftedPixels = RandomTransformer.randomTRS(randomTransformBounds, candidatePixels);
 
         ImageTRS objectiveFunction = new ImageTRS(ref, randomlyShiftedPixels, 0.10, false);
 
@@ -185,7 +204,7 @@ public class Main {
                 new Vec5D(new double[]{10.0, 10.0, 3.0, 1.0, 1.0})
         );
 
-        PSO<Vec5D> pso = new PSO<>(config, objectiveFunction::compute, Vec5D::new);
+        PSO<Vec5D> pso = new PSO<>(config, objectiveFunction::computeWithCeiling, Vec5D::new);
         Solution<Vec5D> foundMinimum = pso.run();
         System.out.printf("Fitness Score was: %.05f%n", foundMinimum.fitnessScore());
         System.out.println(foundMinimum.solution());
@@ -203,8 +222,8 @@ public class Main {
 
     public static ArrayList<ImageClassificationResult<Vec5D>> classifyThisCandidate(
             int candidateLabel,
-            List<AbstractPixel> candidateImage,
-            ArrayList<BufferedImage> references,
+            PixelCloud candidateImage,
+            ArrayList<ReferenceModel> references,
             ExecutorService pool
     ) throws InterruptedException, ExecutionException {
         /*
@@ -223,7 +242,7 @@ public class Main {
         ArrayList<ThreadableImageClassification> comparisons = new ArrayList<>();
 
         for (int i = 0; i < 10; i++) {
-            BufferedImage ref = references.get(i);
+            ReferenceModel ref = references.get(i);
 
             ThreadableImageClassification comparison = new ThreadableImageClassification(i, ref, candidateLabel, candidateImage);
             comparisons.add(comparison);
@@ -4,5 +4,12 @@ import org.ru.pso.Solution;
 import org.ru.vec.FixedVector;
 
 
-public record ImageClassificationResult<V extends FixedVector>(int referenceDigit, int candidateDigit, Solution<V> result, int iterations) {
+/**
+ * @param cacheHits evaluations answered by the evaluation cache, 0 when it is off
+ * @param cacheMisses evaluations the cache passed on to the objective, 0 when it is off
+ * @param inexactSolves transport problems the objective solved less accurately than it asked for, see
+ *                      ImageComparisonBase.getInexactSolves
+ */
+public record ImageClassificationResult<V extends FixedVector>(int referenceDigit, int candidateDigit, Solution<V> result, int iterations,
+                                                               long cacheHits, long cacheMisses, long inexactSolves) {
 }
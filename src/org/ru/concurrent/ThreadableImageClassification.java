@@ -1,46 +1,91 @@
 package org.ru.concurrent;
 
-import org.ru.img.AbstractPixel;
 import org.ru.img.ImgReader;
+import org.ru.img.PixelCloud;
+import org.ru.img.ReferenceModel;
+import org.ru.ot.TransportBackend;
+import org.ru.pso.BoundedObjective;
+import org.ru.pso.EvaluationCache;
 import org.ru.pso.PSO;
 import org.ru.pso.PSOConfig;
 import org.ru.pso.Solution;
 import org.ru.pso.objectives.ImageTRS;
+import org.ru.pso.objectives.SlicedImageTRS;
 import org.ru.pso.strategies.Placement;
 import org.ru.pso.strategies.Topology;
 import org.ru.vec.Vec5D;
 
 import java.awt.image.BufferedImage;
-import java.util.List;
 import java.util.concurrent.Callable;
 
 public class ThreadableImageClassification implements Callable<ImageClassificationResult<Vec5D>> {
-    private final BufferedImage reference;
-    private final List<AbstractPixel> candidate;
+    private final ReferenceModel reference;
+    private final PixelCloud candidate;
     private final int referenceId;
     private final int candidateId;
 
     private static final double GRAYSCALE_THRESHOLD = 0.10;
+    // SINKHORN trades some accuracy for much cheaper evaluations, see SinkhornTransport.
+    private static final TransportBackend TRANSPORT_BACKEND = TransportBackend.GABOW_TARJAN;
+    // Start each OT solve from the previous one. Every solve of a classification compares the same image pair, but
+    // consecutive solves come from different particles, so the previous duals are usually far off. Leave it off until
+    // it is shown to pay off for classification.
+    private static final boolean WARM_START_TRANSPORT = false;
+    // Nearest neighbors per pixel for the sparse OT graph, 0 keeps the dense cost matrix. Worth turning on once images
+    // are too large for an n x n matrix per thread.
+    private static final int SPARSE_TRANSPORT_NEIGHBORS = 0;
+    // Side in pixels of the cells the sparse OT solve first pools both images into, 0 starts from nearest neighbors.
+    // Only used with sparse transport, and only pays off on images with around a thousand pixels or more.
+    private static final double MULTISCALE_CELL_SIZE = 0;
+    // Compute OT edge costs from the pixel coordinates instead of building a cost matrix per call. Saves memory
+    // rather than time, and needs the Gabow-Tarjan backend.
+    private static final boolean LAZY_TRANSPORT_COSTS = false;
+    // Keep the dense cost matrix and the matrices of the OT solver off the heap. Spares the garbage collector on large
+    // images at some cost in speed; needs the Gabow-Tarjan backend and `--add-modules jdk.incubator.foreign`.
+    private static final boolean OFF_HEAP_TRANSPORT_MATRICES = false;
+    // Directions for the sliced Wasserstein objective, 0 solves full OT. Sliced is much faster but only approximates
+    // the OT cost, see SlicedImageTRS.
+    private static final int SLICED_DIRECTIONS = 0;
+    // Evaluations to remember per classification, 0 evaluates every position. Positions in the same cell of the grid
+    // below (x and y shift in pixels, rotation in radians, x and y scale) get the cost of the first one evaluated.
+    private static final int EVALUATION_CACHE_CAPACITY = 0;
+    private static final double[] EVALUATION_CACHE_CELL_SIZES = {0.01, 0.01, 0.001, 0.001, 0.001};
 
-    public ThreadableImageClassification(int referenceId, BufferedImage referenceImage, int candidateId, List<AbstractPixel> candidateImage) {
-        this.reference = referenceImage;
+    /**
+     * Reads a reference image the way classifications compare against it. Build the model once per reference and
+     * hand it to every classification against that reference.
+     */
+    public static ReferenceModel buildReferenceModel(BufferedImage referenceImage) {
+        return new ReferenceModel(referenceImage, GRAYSCALE_THRESHOLD);
+    }
+
+    public ThreadableImageClassification(int referenceId, ReferenceModel reference, int candidateId, PixelCloud candidateImage) {
+        this.reference = reference;
         this.candidate = candidateImage;
 
         this.referenceId = referenceId;
         this.candidateId = candidateId;
     }
 
-    public ThreadableImageClassification(int referenceId, BufferedImage referenceImage, int candidateId, BufferedImage candidateImage) {
-        this.reference = referenceImage;
-        this.candidate = ImgReader.convertToAbstractPixelsViaKernel(candidateImage, GRAYSCALE_THRESHOLD);
+    public ThreadableImageClassification(int referenceId, BufferedImage referenceImage, int candidateId, PixelCloud candidateImage) {
+        this(referenceId, buildReferenceModel(referenceImage), candidateId, candidateImage);
+    }
 
-        this.referenceId = referenceId;
-        this.candidateId = candidateId;
+    public ThreadableImageClassification(int referenceId, BufferedImage referenceImage, int candidateId, BufferedImage candidateImage) {
+        this(referenceId, buildReferenceModel(referenceImage), candidateId,
+                ImgReader.convertToPixelCloudViaKernel(candidateImage, GRAYSCALE_THRESHOLD));
     }
 
     @Override
     public ImageClassificationResult<Vec5D> call() throws Exception {
-        ImageTRS objectiveFunction = new ImageTRS(this.reference, this.candidate, GRAYSCALE_THRESHOLD, false);
+        ImageTRS objectiveFunction = SLICED_DIRECTIONS > 0
+                ? new SlicedImageTRS(this.reference, this.candidate, false, SLICED_DIRECTIONS)
+                : new ImageTRS(this.reference, this.candidate, false, TRANSPORT_BACKEND);
+        objectiveFunction.setWarmStart(WARM_START_TRANSPORT);
+        objectiveFunction.setSparseTransport(SPARSE_TRANSPORT_NEIGHBORS);
+        objectiveFunction.setMultiscaleTransport(MULTISCALE_CELL_SIZE);
+        objectiveFunction.setLazyCosts(LAZY_TRANSPORT_COSTS);
+        objectiveFunction.setOffHeapMatrices(OFF_HEAP_TRANSPORT_MATRICES);
 
         PSOConfig<Vec5D> config = new PSOConfig<>(
                 15,
@@ -53,8 +98,22 @@ public class ThreadableImageClassification implements Callable<ImageClassificati
                 new Vec5D(new double[]{10.0, 10.0, 3.0, 1.0, 1.0})
         );
 
-        PSO<Vec5D> pso = new PSO<>(config, objectiveFunction::compute, Vec5D::new);
-        Solution<Vec5D> foundMinimum = pso.run();
-        return new ImageClassificationResult<>(this.referenceId, this.candidateId, foundMinimum, pso.getLastSolutionIterations());
+        BoundedObjective<Vec5D> cost = objectiveFunction::computeWithCeiling;
+        EvaluationCache<Vec5D> cache = null;
+        if (EVALUATION_CACHE_CAPACITY > 0) {
+            cache = new EvaluationCache<>(EVALUATION_CACHE_CAPACITY, EVALUATION_CACHE_CELL_SIZES);
+            cost = cache.wrap(cost);
+        }
+
+        PSO<Vec5D> pso = new PSO<>(config, cost, Vec5D::new);
+        Solution<Vec5D> foundMinimum;
+        try {
+            foundMinimum = pso.run();
+        } finally {
+            objectiveFunction.close();
+        }
+        return new ImageClassificationResult<>(this.referenceId, this.candidateId, foundMinimum, pso.getLastSolutionIterations(),
+                cache != null ? cache.getHits() : 0, cache != null ? cache.getMisses() : 0,
+                objectiveFunction.getInexactSolves());
     }
 }
@@ -6,10 +6,10 @@ package org.ru.img;
  * The `grayscaleValue` is how dark the pixel is. 0 being pure white
  * and 1 being pure black
  *
- * `isDud` denotes if this pixel exists only for balancing purposes. Since the
- * number of nodes on each side of the bipartite graph (used in OT) must be the
- * same. If this pixel is a dud, it is ignored when computing the cost matrix.
- * That is, any edge attached to this pixel has a cost of 0
+ * `isDud` denotes a placeholder pixel with no ink. The OT objectives used to pad
+ * the smaller image with duds so that both sides of the bipartite graph had the
+ * same number of nodes. They solve unbalanced (n x m) instances now and never
+ * create duds, but code that draws or transforms pixels still skips them.
  */
 public record AbstractPixel(double x, double y, double grayscaleValue, boolean isDud) {
     public AbstractPixel {
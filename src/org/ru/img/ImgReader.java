@@ -7,7 +7,6 @@ import java.io.File;
 import java.io.IOException;
 import java.nio.file.Paths;
 import java.nio.file.Path;
-import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 
@@ -112,17 +111,28 @@ public class ImgReader {
      * pixels are at least `threshold` percent black.
      */
     public static List<AbstractPixel> convertToAbstractPixels(BufferedImage img, double threshold) {
-        // Pre-allocate some space in the array, use (# pixels) / 3 as a wild guess
+        return convertToPixelCloud(img, threshold).toPixels();
+    }
+
+    /**
+     * Converts a BufferedImage into a {@link PixelCloud}, with the same pixels in the same order as
+     * {@link ImgReader#convertToAbstractPixels(BufferedImage img, double threshold)}.
+     */
+    public static PixelCloud convertToPixelCloud(BufferedImage img, double threshold) {
         int w = img.getWidth();
         int h = img.getHeight();
         Raster raster = img.getData();
-        int guessNumberOfPixels = (int) Math.floor(w * h / 3.0);
 
-        ArrayList<AbstractPixel> pixels = new ArrayList<>(guessNumberOfPixels);
+        // At most every pixel makes it in, the arrays are trimmed to the real count at the end.
+        double[] xs = new double[w * h];
+        double[] ys = new double[w * h];
+        double[] weights = new double[w * h];
+        int count = 0;
+        int[] pixelData = null;
         for (int r = 0; r < w; r++) {
             for (int c = 0; c < h; c++) {
                 // See comment in convertToPixelGrid about R,C vs X,Y
-                int[] pixelData = raster.getPixels(c, r, 1, 1, (int[]) null);
+                pixelData = raster.getPixels(c, r, 1, 1, pixelData);
                 // Make the potentially unsafe assumption that the RGB values are all the same
                 // No fast way I can think of to check the image is gr
                 int grayscaleByte = pixelData[0];
@@ -130,11 +140,14 @@ public class ImgReader {
                 // TODO: Do a fuzzy check against threshold - floating point issues...
                 if (greyscaleValue >= threshold) {
                     // I suppose I also want AbstractPixels to be X,Y based
-                    pixels.add(new AbstractPixel(c, r, greyscaleValue));
+                    xs[count] = c;
+                    ys[count] = r;
+                    weights[count] = greyscaleValue;
+                    count++;
                 }
             }
         }
-        return pixels;
+        return new PixelCloud(Arrays.copyOf(xs, count), Arrays.copyOf(ys, count), Arrays.copyOf(weights, count));
     }
 
     /**
@@ -149,21 +162,34 @@ public class ImgReader {
      * @return The abstract pixels that result from the conversion via a 2x2 kernel.
      */
     public static List<AbstractPixel> convertToAbstractPixelsViaKernel(BufferedImage img, double threshold) {
+        return convertToPixelCloudViaKernel(img, threshold).toPixels();
+    }
+
+    /**
+     * Converts a BufferedImage into a {@link PixelCloud}, with the same pixels in the same order as
+     * {@link ImgReader#convertToAbstractPixelsViaKernel(BufferedImage img, double threshold)}.
+     */
+    public static PixelCloud convertToPixelCloudViaKernel(BufferedImage img, double threshold) {
         int w = img.getWidth();
         int h = img.getHeight();
         Raster raster = img.getData();
-        int guessNumberOfPixels = (int) Math.floor(w * h / 3.0);
 
-        ArrayList<AbstractPixel> pixels = new ArrayList<>(guessNumberOfPixels);
         assert w % 2 == 0 : "Cannot convert via 2x2 kernel: expected width of image to be even!";
         assert h % 2 == 0 : "Cannot convert via 2x2 kernel: expected height of image to be even!";
+        // At most every 2x2 sample makes it in, the arrays are trimmed to the real count at the end.
+        int maxPixels = ((w + 1) / 2) * ((h + 1) / 2);
+        double[] xs = new double[maxPixels];
+        double[] ys = new double[maxPixels];
+        double[] weights = new double[maxPixels];
+        int count = 0;
+        int[] kernel = null;
 
         // Visit every other row, and every other column in each row.
         for (int r = 0; r < w; r+=2) {
             for (int c = 0; c < h; c+=2) {
                 // r and c here represent the top left corner of a 2x2 sample.
 
-                int[] kernel = raster.getPixels(c, r, 2, 2, (int[]) null);
+                kernel = raster.getPixels(c, r, 2, 2, kernel);
                 assert kernel.length == 4 : "Cannot convert via 2x2 kernel: expected 4 total bytes of data in sample";
                 double averageDarkness = (kernel[0] + kernel[1] + kernel[2] + kernel[3]) / 4.0;
                 double averageGrayscale = 1.0 - (averageDarkness / 255.0);
@@ -171,10 +197,13 @@ public class ImgReader {
                 if (averageGrayscale >= threshold) {
                     double averageColumn = (c + c+1) / 2.0;
                     double averageRow = (r + r+1) / 2.0;
-                    pixels.add(new AbstractPixel(averageColumn, averageRow, averageGrayscale));
+                    xs[count] = averageColumn;
+                    ys[count] = averageRow;
+                    weights[count] = averageGrayscale;
+                    count++;
                 }
             }
         }
-        return pixels;
+        return new PixelCloud(Arrays.copyOf(xs, count), Arrays.copyOf(ys, count), Arrays.copyOf(weights, count));
     }
 }
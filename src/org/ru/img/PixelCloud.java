@@ -0,0 +1,121 @@
+package org.ru.img;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The pixels of an image as three parallel primitive arrays instead of a list of {@link AbstractPixel}s: the ith pixel
+ * is at (xs()[i], ys()[i]) and has weight (grayscale value) weights()[i]. Transforming a cloud is a loop over a few
+ * arrays, and the arrays can be handed to the OT solvers as they are, with no record allocated per pixel.
+ *
+ * The arrays are exactly size() entries long, which is what the OT solvers expect. The coordinates and weights can be
+ * written, but the number of pixels is fixed. Code that transforms a cloud writes into a cloud of the same size that
+ * it keeps around, and never writes to its input, so a cloud that is only read can be shared between threads.
+ */
+public final class PixelCloud {
+    private final double[] xs;
+    private final double[] ys;
+    private final double[] weights;
+    private final int size;
+
+    /**
+     * Creates a cloud of `size` pixels, all at the origin and without weight, to be written into.
+     */
+    public PixelCloud(int size) {
+        this.xs = new double[size];
+        this.ys = new double[size];
+        this.weights = new double[size];
+        this.size = size;
+    }
+
+    /**
+     * Creates a cloud around the given arrays, which are not copied. All three must have the same length.
+     */
+    public PixelCloud(double[] xs, double[] ys, double[] weights) {
+        if (xs.length != ys.length || xs.length != weights.length) {
+            throw new IllegalArgumentException("Coordinates and weights must have the same length, got "
+                    + xs.length + ", " + ys.length + " and " + weights.length);
+        }
+        this.xs = xs;
+        this.ys = ys;
+        this.weights = weights;
+        this.size = xs.length;
+    }
+
+    /**
+     * Converts a list of pixels, leaving out duds.
+     */
+    public static PixelCloud of(List<AbstractPixel> pixels) {
+        int count = 0;
+        for (AbstractPixel p : pixels) {
+            if (!p.isDud()) {
+                count++;
+            }
+        }
+        PixelCloud cloud = new PixelCloud(count);
+        int i = 0;
+        for (AbstractPixel p : pixels) {
+            if (!p.isDud()) {
+                cloud.xs[i] = p.x();
+                cloud.ys[i] = p.y();
+                cloud.weights[i] = p.grayscaleValue();
+                i++;
+            }
+        }
+        return cloud;
+    }
+
+    /**
+     * @return the pixels as a list of AbstractPixels, for the code that draws them
+     */
+    public List<AbstractPixel> toPixels() {
+        List<AbstractPixel> pixels = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            pixels.add(new AbstractPixel(xs[i], ys[i], weights[i]));
+        }
+        return pixels;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public double[] xs() {
+        return xs;
+    }
+
+    public double[] ys() {
+        return ys;
+    }
+
+    public double[] weights() {
+        return weights;
+    }
+
+    /**
+     * @return a copy of this cloud that shares no array with it
+     */
+    public PixelCloud copy() {
+        return new PixelCloud(xs.clone(), ys.clone(), weights.clone());
+    }
+
+    /**
+     * @return a copy of this cloud whose weights are scaled to sum to 1
+     */
+    public PixelCloud normalized() {
+        double totalWeight = this.totalWeight();
+        PixelCloud normalized = this.copy();
+        for (int i = 0; i < size; i++) {
+            normalized.weights[i] /= totalWeight;
+        }
+        return normalized;
+    }
+
+    public double totalWeight() {
+        double total = 0;
+        for (int i = 0; i < size; i++) {
+            total += weights[i];
+        }
+        return total;
+    }
+}
@@ -0,0 +1,44 @@
+package org.ru.img;
+
+import java.awt.image.BufferedImage;
+
+/**
+ * Everything about a reference image that the objectives need and that does not depend on the candidate: its pixels
+ * with weights normalized to sum to 1, which are the supplies of every OT instance. A classification compares every
+ * candidate to the same few references, so each one is read and prepared once and the model is shared by every
+ * objective, on every thread, that compares against it.
+ *
+ * Immutable as long as nobody writes to the arrays of cloud(), and nothing does: objectives only read the reference.
+ */
+public final class ReferenceModel {
+    private final PixelCloud cloud;
+
+    /**
+     * Reads the reference through the 2x2 kernel, like the objectives read candidates.
+     * @see ImgReader#convertToPixelCloudViaKernel(BufferedImage, double)
+     */
+    public ReferenceModel(BufferedImage referenceImage, double threshold) {
+        this(ImgReader.convertToPixelCloudViaKernel(referenceImage, threshold));
+    }
+
+    /**
+     * @param pixels the pixels of the reference, copied and normalized
+     */
+    public ReferenceModel(PixelCloud pixels) {
+        this.cloud = pixels.normalized();
+    }
+
+    /**
+     * @return the normalized pixels of the reference, which must not be written to
+     */
+    public PixelCloud cloud() {
+        return cloud;
+    }
+
+    /**
+     * @return the weights of cloud(), the supplies of an OT instance against the reference
+     */
+    public double[] supplies() {
+        return cloud.weights();
+    }
+}
@@ -0,0 +1,422 @@
+package org.ru.ot;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.function.IntConsumer;
+import java.util.stream.IntStream;
+
+/**
+ * Bertsekas' auction algorithm with epsilon scaling, for the transportation problem, with the bidding spread over
+ * several threads. Unlike {@link Mapping}, a single large solve can keep every core busy.
+ *
+ * Masses are scaled to integer units exactly like Mapping does. Every supply vertex is a bidder with some units that
+ * are not yet placed, every demand vertex is an object with room for a fixed number of units and a price. Rounds
+ * alternate between two phases, and each of them runs in parallel:
+ * - Bidding: each bidder with units left looks for the object with the best value -C[a][b] - price[a] and bids all of
+ *   its units on it, at the price that would make that object exactly epsilon better than the runner up.
+ *   Bidders only read the prices, so they are independent of each other.
+ * - Assignment: each object that received bids keeps the highest priced units that fit and hands the rest back to
+ *   their bidders. Once it is full its price rises to the lowest price it holds. Objects are independent of each other
+ *   too; only handing units back touches shared state, which is an atomic add.
+ * When no bidder has units left, every unit sits at an object within epsilon of its best value, which puts the plan
+ * within epsilon (per unit of mass) of the optimum. Each scaling stage divides epsilon and starts over from the prices
+ * of the last one, which keeps the number of rounds at the small final epsilon low.
+ *
+ * The final epsilon is delta / 4. Together with the mass lost to rounding, which is repaired afterwards like Mapping
+ * does, and the excess room of the objects, the cost lands within delta of the optimum.
+ *
+ * An AuctionTransport keeps its scratch space between solves and is not thread safe, keep one per thread. By default
+ * all of them bid on the common fork/join pool, so creating one per objective does not add threads. One created with
+ * its own parallelism owns a pool of that size, which {@link AuctionTransport#close()} shuts down.
+ */
+public class AuctionTransport implements TransportSolver, AutoCloseable {
+    // Epsilon is divided by this between stages.
+    private static final double EPSILON_SCALING = 5;
+    // Below this many bidders or objects a phase runs on the calling thread, where it is cheaper than forking.
+    private static final int PARALLEL_THRESHOLD = 64;
+    // Safety net so a badly conditioned instance cannot spin forever, see reachedRoundLimit.
+    private static final int MAX_ROUNDS = 1_000_000;
+
+    private final ForkJoinPool pool;
+    // Whether pool was created by this solver, and so is shut down by close.
+    private final boolean ownsPool;
+
+    private int numSupplies = -1;
+    private int numDemands = -1;
+    // The cost matrix transposed to numSupplies rows of numDemands, so that a bidder scans its costs in order.
+    private double[] costByBidder;
+    private int[] supplyUnits;
+    private AtomicIntegerArray unplaced;
+    private int[] capacity;
+    private double[] price;
+    private double epsilon;
+
+    // The bids of the current round, one per bidder with units left.
+    private int[] bidders;
+    private int numBidders;
+    private int[] bidTarget;
+    private double[] bidPrice;
+    private int[] bidUnits;
+    // The bids grouped by object: the bids on object a are bidOrder[bidStart[a]] .. bidOrder[bidStart[a + 1] - 1].
+    private int[] bidStart;
+    private int[] bidOrder;
+    private int[] biddedObjects;
+    private int numBiddedObjects;
+
+    // The units each object holds, as a min-heap on price: holdBidder[a][k] has holdUnits[a][k] units at object a,
+    // bought at holdPrice[a][k].
+    private int[][] holdBidder;
+    private int[][] holdUnits;
+    private double[][] holdPrice;
+    private int[] holdCount;
+    private int[] heldUnits;
+
+    private double[] residualSupply;
+    private double[] residualDemand;
+    private double[][] flow;
+
+    private final IntConsumer bidTask = this::bid;
+    private final IntConsumer assignTask = k -> this.assign(biddedObjects[k]);
+
+    private double totalCost;
+    private double marginalError;
+    private double timeTaken;
+    private int iterations;
+    private boolean reachedScaleLimit;
+    private boolean reachedRoundLimit;
+
+    /**
+     * Creates a solver that bids on the common fork/join pool, which every solver created this way shares.
+     */
+    public AuctionTransport() {
+        this.pool = ForkJoinPool.getCommonPoolParallelism() > 1 ? ForkJoinPool.commonPool() : null;
+        this.ownsPool = false;
+    }
+
+    /**
+     * Creates a solver with a pool of its own, to be shut down with {@link AuctionTransport#close()}.
+     * @param parallelism how many threads to bid and assign on, 1 runs everything on the calling thread
+     */
+    public AuctionTransport(int parallelism) {
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("An auction needs at least one thread, got " + parallelism);
+        }
+        this.pool = parallelism > 1 ? new ForkJoinPool(parallelism) : null;
+        this.ownsPool = true;
+    }
+
+    @Override
+    public double solve(int numSupplies, int numDemands, double[] supplies, double[] demands, double[][] C,
+                        double delta) {
+        long startTime = System.currentTimeMillis();
+        this.ensureSize(numSupplies, numDemands);
+        int n = Integer.max(numSupplies, numDemands);
+
+        double maxCost = 0;
+        for (int i = 0; i < numDemands; i++) {
+            for (int j = 0; j < numSupplies; j++) {
+                maxCost = Double.max(maxCost, C[i][j]);
+                costByBidder[j*numDemands + i] = C[i][j];
+            }
+        }
+
+        // The same integer instance as Mapping: supplies round down and demands round up, so there is room for every
+        // unit of supply. Costs stay doubles, so only the masses limit the scale.
+        double alpha = Double.min(4.*maxCost / delta, Mapping.maxSafeMassScale(n, numDemands, demands));
+        this.reachedScaleLimit = alpha < 4.*maxCost / delta;
+        for (int j = 0; j < numSupplies; j++) {
+            supplyUnits[j] = (int)(supplies[j] * alpha * n);
+        }
+        for (int i = 0; i < numDemands; i++) {
+            capacity[i] = (int)(Math.ceil(demands[i] * alpha * n));
+            // Objects without room would only ever turn bids down.
+            price[i] = capacity[i] > 0 ? 0 : Double.POSITIVE_INFINITY;
+        }
+
+        double targetEpsilon = delta / 4.;
+        double epsilon = Double.max(maxCost / 4., targetEpsilon);
+        this.iterations = 0;
+        this.reachedRoundLimit = false;
+        while (true) {
+            this.runStage(epsilon);
+            if (epsilon == targetEpsilon || this.reachedRoundLimit) {
+                break;
+            }
+            epsilon = Double.max(epsilon / EPSILON_SCALING, targetEpsilon);
+        }
+
+        for (int i = 0; i < numDemands; i++) {
+            Arrays.fill(flow[i], 0.0);
+            for (int k = 0; k < holdCount[i]; k++) {
+                flow[i][holdBidder[i][k]] += holdUnits[i][k] / (n * alpha);
+            }
+        }
+        this.marginalError = Mapping.repairFlow(numSupplies, numDemands, supplies, demands, flow, residualSupply,
+                residualDemand);
+
+        this.totalCost = 0;
+        for (int i = 0; i < numDemands; i++) {
+            for (int j = 0; j < numSupplies; j++) {
+                totalCost += flow[i][j] * C[i][j];
+            }
+        }
+
+        this.timeTaken = (System.currentTimeMillis() - startTime) / 1000.;
+        return totalCost;
+    }
+
+    /**
+     * Places every unit of supply, starting from empty objects but keeping the prices of the previous stage.
+     */
+    private void runStage(double epsilon) {
+        Arrays.fill(holdCount, 0);
+        Arrays.fill(heldUnits, 0);
+        for (int j = 0; j < numSupplies; j++) {
+            unplaced.set(j, supplyUnits[j]);
+        }
+        this.epsilon = epsilon;
+
+        while (true) {
+            numBidders = 0;
+            for (int j = 0; j < numSupplies; j++) {
+                if (unplaced.get(j) > 0) {
+                    bidders[numBidders++] = j;
+                }
+            }
+            if (numBidders == 0) {
+                return;
+            }
+            if (this.iterations >= MAX_ROUNDS) {
+                // The units still unplaced are matched arbitrarily by the repair, like those of a capped Mapping.
+                this.reachedRoundLimit = true;
+                return;
+            }
+            this.iterations++;
+
+            this.forEach(numBidders, bidTask);
+
+            // Group the bids by object with a counting sort.
+            Arrays.fill(bidStart, 0);
+            for (int k = 0; k < numBidders; k++) {
+                bidStart[bidTarget[k] + 1]++;
+            }
+            numBiddedObjects = 0;
+            for (int i = 0; i < numDemands; i++) {
+                if (bidStart[i + 1] > 0) {
+                    biddedObjects[numBiddedObjects++] = i;
+                }
+                bidStart[i + 1] += bidStart[i];
+            }
+            for (int k = 0; k < numBidders; k++) {
+                bidOrder[bidStart[bidTarget[k]]++] = k;
+            }
+            for (int i = numDemands; i > 0; i--) {
+                bidStart[i] = bidStart[i - 1];
+            }
+            bidStart[0] = 0;
+
+            this.forEach(numBiddedObjects, assignTask);
+        }
+    }
+
+    //Bidding phase for the kth bidder of this round. Reads the prices, writes only the kth bid.
+    private void bid(int k) {
+        int j = bidders[k];
+        int row = j*numDemands;
+        int best = -1;
+        double bestValue = Double.NEGATIVE_INFINITY;
+        double secondValue = Double.NEGATIVE_INFINITY;
+        for (int i = 0; i < numDemands; i++) {
+            double value = -costByBidder[row + i] - price[i];
+            if (value > bestValue) {
+                secondValue = bestValue;
+                bestValue = value;
+                best = i;
+            } else if (value > secondValue) {
+                secondValue = value;
+            }
+        }
+        // With a single object worth bidding on there is no runner up, and the smallest raise will do.
+        double raise = secondValue == Double.NEGATIVE_INFINITY ? 0 : bestValue - secondValue;
+        bidTarget[k] = best;
+        bidPrice[k] = price[best] + raise + epsilon;
+        bidUnits[k] = unplaced.getAndSet(j, 0);
+    }
+
+    //Assignment phase for object a. Only touches the holdings of a, plus the units it hands back.
+    private void assign(int a) {
+        for (int t = bidStart[a]; t < bidStart[a + 1]; t++) {
+            int k = bidOrder[t];
+            this.hold(a, bidders[k], bidUnits[k], bidPrice[k]);
+        }
+
+        // Hand back the cheapest units until the object fits again.
+        while (heldUnits[a] > capacity[a]) {
+            int excess = heldUnits[a] - capacity[a];
+            int units = holdUnits[a][0];
+            if (units <= excess) {
+                unplaced.addAndGet(holdBidder[a][0], units);
+                heldUnits[a] -= units;
+                this.removeCheapest(a);
+            } else {
+                unplaced.addAndGet(holdBidder[a][0], excess);
+                holdUnits[a][0] -= excess;
+                heldUnits[a] -= excess;
+            }
+        }
+        if (heldUnits[a] == capacity[a]) {
+            price[a] = Double.max(price[a], holdPrice[a][0]);
+        }
+    }
+
+    private void hold(int a, int bidder, int units, double bidPrice) {
+        int count = holdCount[a];
+        if (count == holdBidder[a].length) {
+            int grown = Integer.max(2*count, 4);
+            holdBidder[a] = Arrays.copyOf(holdBidder[a], grown);
+            holdUnits[a] = Arrays.copyOf(holdUnits[a], grown);
+            holdPrice[a] = Arrays.copyOf(holdPrice[a], grown);
+        }
+        int[] bidderHeap = holdBidder[a];
+        int[] unitHeap = holdUnits[a];
+        double[] priceHeap = holdPrice[a];
+        int slot = count;
+        while (slot > 0) {
+            int parent = (slot - 1) >>> 1;
+            if (priceHeap[parent] <= bidPrice) {
+                break;
+            }
+            bidderHeap[slot] = bidderHeap[parent];
+            unitHeap[slot] = unitHeap[parent];
+            priceHeap[slot] = priceHeap[parent];
+            slot = parent;
+        }
+        bidderHeap[slot] = bidder;
+        unitHeap[slot] = units;
+        priceHeap[slot] = bidPrice;
+        holdCount[a] = count + 1;
+        heldUnits[a] += units;
+    }
+
+    private void removeCheapest(int a) {
+        int[] bidderHeap = holdBidder[a];
+        int[] unitHeap = holdUnits[a];
+        double[] priceHeap = holdPrice[a];
+        int count = --holdCount[a];
+        int lastBidder = bidderHeap[count];
+        int lastUnits = unitHeap[count];
+        double lastPrice = priceHeap[count];
+        int slot = 0;
+        while (2*slot + 1 < count) {
+            int child = 2*slot + 1;
+            if (child + 1 < count && priceHeap[child + 1] < priceHeap[child]) {
+                child++;
+            }
+            if (priceHeap[child] >= lastPrice) {
+                break;
+            }
+            bidderHeap[slot] = bidderHeap[child];
+            unitHeap[slot] = unitHeap[child];
+            priceHeap[slot] = priceHeap[child];
+            slot = child;
+        }
+        bidderHeap[slot] = lastBidder;
+        unitHeap[slot] = lastUnits;
+        priceHeap[slot] = lastPrice;
+    }
+
+    private void forEach(int count, IntConsumer task) {
+        if (pool == null || count < PARALLEL_THRESHOLD) {
+            for (int k = 0; k < count; k++) {
+                task.accept(k);
+            }
+            return;
+        }
+        // A parallel stream started from inside a pool runs on that pool rather than on the common one.
+        pool.submit(() -> IntStream.range(0, count).parallel().forEach(task)).join();
+    }
+
+    private void ensureSize(int numSupplies, int numDemands) {
+        if (numSupplies == this.numSupplies && numDemands == this.numDemands) {
+            return;
+        }
+        this.numSupplies = numSupplies;
+        this.numDemands = numDemands;
+        this.costByBidder = new double[numSupplies*numDemands];
+        this.supplyUnits = new int[numSupplies];
+        this.unplaced = new AtomicIntegerArray(numSupplies);
+        this.capacity = new int[numDemands];
+        this.price = new double[numDemands];
+        this.bidders = new int[numSupplies];
+        this.bidTarget = new int[numSupplies];
+        this.bidPrice = new double[numSupplies];
+        this.bidUnits = new int[numSupplies];
+        this.bidStart = new int[numDemands + 1];
+        this.bidOrder = new int[numSupplies];
+        this.biddedObjects = new int[numDemands];
+        this.holdBidder = new int[numDemands][4];
+        this.holdUnits = new int[numDemands][4];
+        this.holdPrice = new double[numDemands][4];
+        this.holdCount = new int[numDemands];
+        this.heldUnits = new int[numDemands];
+        this.residualSupply = new double[numSupplies];
+        this.residualDemand = new double[numDemands];
+        this.flow = new double[numDemands][numSupplies];
+    }
+
+    @Override
+    public double[][] getFlow() {
+        return flow;
+    }
+
+    @Override
+    public double getTotalCost() {
+        return totalCost;
+    }
+
+    /**
+     * @return the number of bidding rounds of the last solve, summed over all epsilon scaling stages
+     */
+    @Override
+    public int getIterations() {
+        return iterations;
+    }
+
+    /**
+     * @return whether the last solve ran out of bidding rounds before every unit was placed at the final epsilon. The
+     * plan is feasible, but the usual delta guarantee does not hold for it, like {@link Mapping#reachedPhaseLimit()}.
+     */
+    public boolean reachedRoundLimit() {
+        return reachedRoundLimit;
+    }
+
+    /**
+     * @return false if the last solve ran out of bidding rounds, or if the masses of the last instance could not be
+     * scaled as finely as delta asks for, like {@link Mapping#reachedScaleLimit()}
+     */
+    @Override
+    public boolean withinDelta() {
+        return !reachedScaleLimit && !reachedRoundLimit;
+    }
+
+    @Override
+    public double getMarginalError() {
+        return marginalError;
+    }
+
+    @Override
+    public double getTimeTaken() {
+        return timeTaken;
+    }
+
+    /**
+     * Shuts down the pool this solver created, if any. The common pool is left alone.
+     */
+    @Override
+    public void close() {
+        if (ownsPool && pool != null) {
+            pool.shutdown();
+        }
+    }
+}
@@ -0,0 +1,42 @@
+package org.ru.ot;
+
+/**
+ * A cost matrix handed out by a {@link MatrixMemory}, laid out like the double[][] cost matrices of
+ * {@link TransportSolver}: get(i, j) is the cost between the ith demand vertex and the jth supply vertex. On the heap it
+ * is a double[][], which solvers that only take arrays can read through {@link DoubleMatrix#array()}.
+ */
+public interface DoubleMatrix {
+    int rows();
+
+    int columns();
+
+    double get(int row, int column);
+
+    /**
+     * Copies the given row into destination[0] .. destination[columns() - 1].
+     */
+    void copyRow(int row, double[] destination);
+
+    /**
+     * Copies values[0] .. values[columns() - 1] into the given row.
+     */
+    void setRow(int row, double[] values);
+
+    /**
+     * @return the rows holding the entries if the matrix is on the heap, null otherwise. Writes to them are writes to
+     * the matrix.
+     */
+    double[][] array();
+
+    /**
+     * See {@link IntMatrix#free()}.
+     */
+    void free();
+
+    /**
+     * @return a matrix on the heap backed by rows, which are not copied
+     */
+    static DoubleMatrix of(double[][] rows) {
+        return new HeapMatrixMemory.HeapDoubleMatrix(rows);
+    }
+}
@@ -1,6 +1,8 @@
 package org.ru.ot;
-import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.stream.IntStream;
 
 /**
  * Sourced from: https://github.com/nathaniellahn/CombinatorialOptimalTransport/blob/master/GabowTarjanJavaCode/GTTransport/src/optimaltransport/GTTransport.java
@@ -11,15 +13,23 @@ import java.util.Arrays;
  */
 
 public class GTTransport {
-    private int[][] CBA;
-    private int[][] CAB;
-
-    private int[] y;
-    private int[][] capacityAB;
-    private int[][] capacityBA;
+    //All matrices are stored as a single contiguous row-major matrix of numA*numB entries. See solve for the layout.
+    private IntMatrix C;
+    //Costs too large for an int are stored as longs instead, in the same layout. At most one of C and wideC is set.
+    private LongMatrix wideC;
+    //When set, the costs are computed from point coordinates whenever they are read, and C is not used.
+    private PointCloudCosts pointCosts;
+
+    //Duals and distances are longs: they are sums of costs, which may take up most of the range of an int themselves.
+    private long[] y;
+    //Allocated from the MatrixMemory passed to the constructor, on the heap unless asked otherwise.
+    private IntMatrix capacityAB;
+    private IntMatrix capacityBA;
     private boolean[] bFree;
     private boolean[] aFree;
-    private int n;
+    //Number of vertices of B (supply) and A (demand). They may differ.
+    private int numB;
+    private int numA;
     private int[] vertexVisited;
 
     private long timeTaken;
@@ -31,17 +41,102 @@ public class GTTransport {
     //Number of calls to findAP
     private int numAPCalls = 0;
 
-    // Preallocated array of size 2*n for findAP function.
-    private ArrayList<Integer> path;
-
-    private int[][] finalCapacity;
+    // Preallocated stack of size numB + numA for findAP function. Only the first entries, as many as findAP
+    // returns, are meaningful.
+    private int[] path;
+
+    //When set, the partial DFS searches of a phase start out split among these workers, see searchInParallel.
+    private ForkJoinPool searchPool;
+    private SearchWorker[] workers;
+    //owner[v] is the id of the worker whose path holds vertex v, or 0 if none does.
+    private AtomicIntegerArray owner;
+    //Below this many free vertices of B the searches of a phase run on the calling thread, where it is cheaper
+    //than forking.
+    private static final int PARALLEL_SEARCH_THRESHOLD = 64;
+
+    //Worklist of the vertices of B that still have unmatched supply, kept in increasing index order.
+    //Only the first numFreeB entries are meaningful.
+    private int[] freeB;
+    private int numFreeB;
+
+    //Dijkstra distances, the priority queue over them, and the list of vertices whose distance was
+    //set this phase. lv is only reset at the touched vertices, so a phase pays for the part of the
+    //graph its search actually reached rather than for all numB + numA vertices.
+    private long[] lv;
+    private IndexedMinHeap queue;
+    private int[] touched;
+    private int numTouched;
+
+    //The edge scan of the Dijkstra search, vectorized when asked for and the JVM supports it. See RelaxKernel.
+    private static final RelaxKernel RELAX = RelaxKernel.create();
+    //columnOffsets[b] = b*numA: the scan out of a vertex a of A gathers its costs C[a + columnOffsets[b]] down
+    //column a of C.
+    private int[] columnOffsets;
+    //The neighbors the last edge scan improved, and their new distances.
+    private int[] improved;
+    private long[] improvedDist;
+    //The kernel and dualLowerBound read Java arrays, so a row of a matrix off the heap is copied into these first.
+    //A column of the costs is only gathered at the edges of the row of capacities that have capacity.
+    private int[] capacityRow;
+    private int[] costRow;
+    private long[] wideCostRow;
+
+    //Whether y and the capacities hold the solution of a previous solve that solveFromPrevious can start from.
+    private boolean hasSolved = false;
+    //Sum over the vertices of A of unmatched demand times -y(a) after the last solve. See solveFromPrevious.
+    private double freeDemandExcess;
+
+    //The supplies and demands of the current instance, kept because solve consumes the arrays it is passed.
+    private int[] supplyMass;
+    private int[] demandMass;
+    //A solve stops early once dualLowerBound() exceeds costCeiling, see setCostCeiling.
+    private double costCeiling = Double.POSITIVE_INFINITY;
+    private boolean exceededCeiling;
+    //A solve stops after maxPhases phases even if some supply is still unmatched, see setMaxPhases.
+    private int maxPhases = Integer.MAX_VALUE;
+    private boolean reachedPhaseLimit;
+    //How many phases run between two evaluations of the lower bound, which costs two passes over all edges.
+    private static final int BOUND_CHECK_INTERVAL = 4;
+    //The feasible dual solution the last call to dualLowerBound derived from y, see getSupplyDuals.
+    private long[] supplyDual;
+    private long[] demandDual;
 
     //Note: Does not actually compute the solution. Rather, returns the
-    //solution that was previously computed by the constructor.
+    //solution that was previously computed by the constructor or the last call to solve,
+    //converted to a (numB + numA) x (numB + numA) matrix. This allocates; use getFlowAB to read the solution in place.
     public int[][] getSolution() {
+        int[][] finalCapacity = new int[numB + numA][numB + numA];
+        for (int a = 0; a < numA; a++) {
+            for (int b = 0; b < numB; b++) {
+                /*
+                The arrays used in this program are numA x numB (or numB x numA). They can encode either the forward
+                edges or the backward edges easily, but not both. But we only want to return one thing! So, we use a
+                square matrix where the first numB vertices of a row/column are in B. And the last numA vertices of a
+                row or column are in A.
+
+                We really get a matrix where only the top right and bottom left corners have real meaning.
+                row < numB must be paired with col >= numB and row >= numB must be paired with col < numB
+                */
+                finalCapacity[a + numB][b] = capacityAB.get(a*numB + b);
+                finalCapacity[b][a + numB] = capacityBA.get(b*numA + a);
+            }
+        }
         return finalCapacity;
     }
 
+    //The residual capacities of the backward edges, which are exactly the flow of the solution:
+    //entry a*numB + b is the amount transported from the bth vertex of B to the ath vertex of A.
+    //The returned array is owned by this solver and is overwritten by the next solve.
+    //It is null if the solver keeps its matrices off the heap; getFlowMatrix reads the flow either way.
+    public int[] getFlowAB() {
+        return capacityAB.array();
+    }
+
+    //The flow of getFlowAB, wherever the matrices of this solver are kept.
+    IntMatrix getFlowMatrix() {
+        return capacityAB;
+    }
+
     public double timeTakenInSeconds() {
         return timeTaken / 1000.;
     }
@@ -54,6 +149,113 @@ public class GTTransport {
         return iterations;
     }
 
+    //Makes every following solve stop as soon as dualLowerBound() proves that the optimal cost of its instance is above
+    //costCeiling, in units of scaled cost times scaled mass. Infinity, the default, never stops a solve.
+    public void setCostCeiling(double costCeiling) {
+        this.costCeiling = costCeiling;
+    }
+
+    //Whether the last solve stopped early because of the cost ceiling. Its flow is then incomplete.
+    public boolean exceededCeiling() {
+        return exceededCeiling;
+    }
+
+    //Makes every following solve stop after at most maxPhases phases, with whatever flow it found by then.
+    //dualLowerBound holds at any point of a solve, so it stays valid. Integer.MAX_VALUE, the default, never stops one.
+    public void setMaxPhases(int maxPhases) {
+        this.maxPhases = maxPhases;
+    }
+
+    //Whether the last solve stopped early because it ran out of phases. Its flow is then incomplete.
+    public boolean reachedPhaseLimit() {
+        return reachedPhaseLimit;
+    }
+
+    //Makes every following solve start the partial DFS searches of each phase on the threads of pool, one worker per
+    //thread, see searchInParallel. The flows differ from those of a sequential search, but they carry the same
+    //guarantee. null, the default, runs the searches on the calling thread.
+    public void setSearchPool(ForkJoinPool pool) {
+        this.searchPool = pool;
+        if (pool == null) {
+            workers = null;
+            owner = null;
+            return;
+        }
+        workers = new SearchWorker[pool.getParallelism()];
+        for (int w = 0; w < workers.length; w++) {
+            workers[w] = new SearchWorker(w + 1);
+        }
+        owner = new AtomicIntegerArray(numB + numA);
+    }
+
+    //A lower bound on the optimal cost of the current instance, in units of scaled cost times scaled mass, read off
+    //the dual weights. The weights themselves are only feasible up to the +1 slack of forward edges, so they are
+    //first turned into a feasible solution to the dual of the transportation problem: every a gets
+    //v(a) = min(0, min_b(c(a, b) - y(b))), and then every b gets u(b) = min_a(c(a, b) - v(a)), which is at least y(b).
+    //Its objective, sum_b s(b) * u(b) + sum_a d(a) * v(a), is at most the optimal cost by weak duality. v(a) <= 0 keeps
+    //this true when the demands add up to more than the supplies, as they do after rounding.
+    //It holds at any point of a solve, and is within about sum(supplies) of the optimal cost once the solve is done.
+    //Both minima are taken over the rows of C, one per vertex of B, so that every pass reads C in order.
+    //The products of masses and duals can pass the range of a long, so the objective is summed as a double.
+    public double dualLowerBound() {
+        double bound = 0;
+        Arrays.fill(demandDual, 0);
+        for (int b = 0; b < numB; b++) {
+            if (C != null) {
+                int[] costs = row(C, b*numA, numA, costRow);
+                int row = costs == costRow ? 0 : b*numA;
+                for (int a = 0; a < numA; a++) {
+                    demandDual[a] = Math.min(demandDual[a], costs[row + a] - y[b]);
+                }
+            } else {
+                long[] costs = wideC != null ? row(wideC, b*numA, numA, wideCostRow) : pointCosts.costsFromB(b);
+                int row = wideC != null && costs != wideCostRow ? b*numA : 0;
+                for (int a = 0; a < numA; a++) {
+                    demandDual[a] = Math.min(demandDual[a], costs[row + a] - y[b]);
+                }
+            }
+        }
+        for (int a = 0; a < numA; a++) {
+            bound += (double)demandMass[a] * demandDual[a];
+        }
+        for (int b = 0; b < numB; b++) {
+            long u = Long.MAX_VALUE;
+            if (C != null) {
+                int[] costs = row(C, b*numA, numA, costRow);
+                int row = costs == costRow ? 0 : b*numA;
+                for (int a = 0; a < numA; a++) {
+                    u = Math.min(u, costs[row + a] - demandDual[a]);
+                }
+            } else {
+                long[] costs = wideC != null ? row(wideC, b*numA, numA, wideCostRow) : pointCosts.costsFromB(b);
+                int row = wideC != null && costs != wideCostRow ? b*numA : 0;
+                for (int a = 0; a < numA; a++) {
+                    u = Math.min(u, costs[row + a] - demandDual[a]);
+                }
+            }
+            supplyDual[b] = u;
+            bound += (double)supplyMass[b] * u;
+        }
+        return bound;
+    }
+
+    //The duals of B and of A behind the last dualLowerBound, in units of scaled cost. They stay a feasible dual
+    //solution for any masses, so a caller can weigh them with the unrounded masses for a tighter bound.
+    //The returned arrays are owned by this solver and are overwritten by the next call to dualLowerBound.
+    public long[] getSupplyDuals() {
+        return supplyDual;
+    }
+
+    public long[] getDemandDuals() {
+        return demandDual;
+    }
+
+    //How much worse than the usual guarantee the last solve may be, in units of scaled cost times scaled mass.
+    //Always 0 after solve; see solveFromPrevious.
+    public double getFreeDemandExcess() {
+        return freeDemandExcess;
+    }
+
     public int getNumAPCalls() {
         return this.numAPCalls;
     }
@@ -73,132 +275,392 @@ public class GTTransport {
     //Other relevant values can be recovered using their respective getter methods.
     //Solving problem in constructor guarantees any input instance is only
     //solved once.
+    public GTTransport(int[] C, int[] supplies, int[] demands, int n) {
+        this(n);
+        solve(C, supplies, demands);
+    }
+
+    //Like GTTransport(int[], int[], int[], int), for the n x n cost matrix of the original interface, where C[a][b] is
+    //the cost between the ath vertex of A and the bth vertex of B. It is copied into the flat layout of solve.
     public GTTransport(int[][] C, int[] supplies, int[] demands, int n) {
-        long startTime = System.currentTimeMillis();
-        this.n = n;
-
-        //Convention: CBA contains costs for edges directed from B to A.
-        //CBA[i][j], 0 <= i,j < n, gives the cost of the edge from the
-        //ith vertex of B to the jth vertex of A.
-        //CAB[j][i] is the cost from the ith vertex of A to the jth vertex of B.
-        //These costs are symmetric, but storing both is useful for efficiency reasons.
-        //We follow this convention also for slacks, etc.
+        this(flatten(C, n), supplies, demands, n);
+    }
+
+    //Allocates a solver for instances with n supply and n demand vertices without solving anything.
+    public GTTransport(int n) {
+        this(n, n);
+    }
+
+    //Allocates a solver for instances with numB supply and numA demand vertices without solving anything.
+    //Every buffer the algorithm needs is allocated here, so repeated calls to solve on the same
+    //instance do not allocate.
+    public GTTransport(int numB, int numA) {
+        this(numB, numA, MatrixMemory.heap());
+    }
+
+    //Like GTTransport(numB, numA), but allocates the capacities from memory. See freeMatrices.
+    public GTTransport(int numB, int numA, MatrixMemory memory) {
+        this.numB = numB;
+        this.numA = numA;
+        int numVertices = numB + numA;
+        bFree = new boolean[numB];
+        aFree = new boolean[numA];
+        freeB = new int[numB];
+        y = new long[numVertices];
+        capacityAB = memory.allocateInts(numA, numB);
+        capacityBA = memory.allocateInts(numB, numA);
+        vertexVisited = new int[numVertices];
+
+        //Preallocate maximum AP length of numB + numA
+        path = new int[numVertices];
+
+        //Dijkstra state is allocated once and reset incrementally between phases.
+        lv = new long[numVertices];
+        Arrays.fill(lv, Long.MAX_VALUE);
+        queue = new IndexedMinHeap(numVertices);
+        touched = new int[numVertices];
+        numTouched = 0;
+        improved = new int[Integer.max(numB, numA)];
+        improvedDist = new long[Integer.max(numB, numA)];
+        capacityRow = new int[Integer.max(numB, numA)];
+        costRow = new int[Integer.max(numB, numA)];
+        wideCostRow = new long[Integer.max(numB, numA)];
+        columnOffsets = new int[numB];
+        for (int b = 0; b < numB; b++) {
+            columnOffsets[b] = b*numA;
+        }
+        supplyMass = new int[numB];
+        demandMass = new int[numA];
+        supplyDual = new long[numB];
+        demandDual = new long[numA];
+    }
+
+    //Gives the capacities back to the MatrixMemory they came from. The solver must not be used afterwards.
+    //Only needed for memory off the heap, and only to free it before the memory itself is closed.
+    public void freeMatrices() {
+        capacityAB.free();
+        capacityBA.free();
+    }
+
+    public int getNumSupplies() {
+        return numB;
+    }
+
+    public int getNumDemands() {
+        return numA;
+    }
+
+    //Solves an instance with numB supply and numA demand vertices, reusing the buffers allocated by the constructor.
+    //supplies and demands are consumed: on return they hold the residual supply and demand.
+    public void solve(int[] C, int[] supplies, int[] demands) {
+        solve(IntMatrix.of(C), supplies, demands);
+    }
+
+    //Solves an instance like solve, reading the costs from a matrix that may be kept off the heap.
+    public void solve(IntMatrix C, int[] supplies, int[] demands) {
+        //Convention: C is a numB x numA row-major matrix with one row per vertex of B.
+        //C[b*numA + a], 0 <= b < numB, 0 <= a < numA, gives the cost of the edge between the ath vertex of A
+        //and the bth vertex of B. Costs are symmetric, so the same entry is read for the edge
+        //directed from B to A and for the edge directed from A to B. Every forward edge has capacity until its
+        //end points are matched, so the Dijkstra scans out of B read nearly every cost of their row, and the rows
+        //are laid out for them. A scan out of A only reads the cost of an edge that carries flow, which few do, and
+        //gathers those down a column.
+        //Capacities follow the direction of their edge: capacityAB[a*numB + b] is the residual
+        //capacity of the edge from a to b, and capacityBA[b*numA + a] that of the edge from b to a.
+        //Keeping each capacity matrix row-major in its source vertex keeps the scans in
+        //Dijkstra and findAP contiguous.
         //Note that this convention is the opposite of that used for the original Matlab implementation of this code.
         //The difference is because of how both languages store arrays (column vs. row order)
-        // Transposing swaps things over the diagonal. So to get the same exact edge you
-        // must switch the order of i and j when you index.
-        // This is done because C is NOT symmetric!
-        CBA = transpose(C);
-        CAB = C;
+        setCosts(C);
+        coldStart(supplies, demands);
+    }
 
-        //Whether all supplies or demands of a vertex have been satisfied.
-        bFree = new boolean[n];
-        aFree = new boolean[n];
+    //Solves an instance like solve, for costs too large for an int. Takes twice the memory of an int[] cost matrix,
+    //so only pass longs when some cost needs them.
+    public void solve(long[] C, int[] supplies, int[] demands) {
+        solve(LongMatrix.of(C), supplies, demands);
+    }
 
-        // Trivially, if the input supply or demand of a vertex is not 0, we can say it's free.
-        for(int i = 0; i < n; i++) {
-            bFree[i] = supplies[i] != 0;
-            aFree[i] = demands[i] != 0;
-        }
+    public void solve(LongMatrix C, int[] supplies, int[] demands) {
+        setCosts(C);
+        coldStart(supplies, demands);
+    }
 
-        //Dual weights for B and A
-        // Java automatically zeros arrays, so the dual weights are already set up at declaration.
-        y = new int[2*n];
+    //Solves an instance like solve, but reads the cost of every edge from costs, which computes it from the
+    //coordinates of its end points, instead of from a cost matrix. No memory beyond the capacities is needed for the
+    //costs. costs must be sized for numB supply and numA demand points.
+    void solve(PointCloudCosts costs, int[] supplies, int[] demands) {
+        this.C = null;
+        this.wideC = null;
+        this.pointCosts = costs;
+        coldStart(supplies, demands);
+    }
+
+    //Solves the current instance from zero flow and zero duals.
+    private void coldStart(int[] supplies, int[] demands) {
+        long startTime = System.currentTimeMillis();
+        iterations = 0;
+        APLengths = 0;
+        numAPCalls = 0;
+        setMasses(supplies, demands);
 
-        //Remaining "unmatched" supply or demand.
-        int[] deficiencyB = supplies;
-        int[] deficiencyA = demands;
-        capacityAB = new int[n][n];
-        capacityBA = new int[n][n];
+        //Dual weights for B and A
+        Arrays.fill(y, 0);
 
-        for(int i = 0; i < n; i++) {
-            for(int j = 0; j < n; j++) {
+        capacityAB.fill(0);
+        for(int i = 0; i < numB; i++) {
+            for(int j = 0; j < numA; j++) {
                 // The residual capacity of a forward edge: (b, a) is the minimum between the remaining supply at b
                 // Or the unsatisfied demand at a. Recall that the edges can transport as much as you can push through
                 // them!
-                capacityBA[i][j] = Math.min(deficiencyB[i], deficiencyA[j]);
+                capacityBA.set(i*numA + j, Math.min(supplies[i], demands[j]));
                 // We don't set the capacity of backwards edges because nothing is matched.
             }
         }
 
-        //Preallocate maximum AP length of 2*n
-        path = new ArrayList<Integer>(2*n);
+        //Nothing is matched yet, so supplies and demands double as the remaining "unmatched" supply and demand.
+        runPhases(supplies, demands);
+        hasSolved = true;
+        //Free vertices of A keep a dual of 0 throughout a cold start.
+        freeDemandExcess = 0;
+
+        timeTaken = System.currentTimeMillis() - startTime;
+    }
+
+    //Solves an instance like solve, but starts from the dual weights and flow the previous solve
+    //ended with instead of from zero. The flow is first multiplied by `flowScale` and the duals by `dualScale`, so a
+    //caller whose scaled masses and costs changed units between the two instances can convert the old solution into
+    //the new units.
+    //
+    //The old solution is repaired into a valid starting point for the new instance: the flow is cut back until
+    //it fits under the new supplies and demands, the duals of B are shifted down as far as they go (slacks only
+    //depend on differences, and this stops the duals from drifting upwards over many warm starts), every dual of
+    //A is set to the largest value its forward edges allow, and flow is cancelled on every backward edge that
+    //still has negative slack. For an instance close to the previous one most of the flow survives and far fewer
+    //phases are needed.
+    //
+    //Unlike a cold start, a vertex of A may be left with unmatched demand and a negative dual. The plan is then
+    //worse than the usual guarantee by at most getFreeDemandExcess(), in units of scaled cost times scaled mass.
+    //Falls back to solve if nothing has been solved yet.
+    public void solveFromPrevious(int[] C, int[] supplies, int[] demands, double flowScale, double dualScale) {
+        solveFromPrevious(IntMatrix.of(C), supplies, demands, flowScale, dualScale);
+    }
+
+    public void solveFromPrevious(IntMatrix C, int[] supplies, int[] demands, double flowScale, double dualScale) {
+        if (!hasSolved) {
+            solve(C, supplies, demands);
+            return;
+        }
+        setCosts(C);
+        warmStart(supplies, demands, flowScale, dualScale);
+    }
+
+    //Like solveFromPrevious, for costs too large for an int.
+    public void solveFromPrevious(long[] C, int[] supplies, int[] demands, double flowScale, double dualScale) {
+        solveFromPrevious(LongMatrix.of(C), supplies, demands, flowScale, dualScale);
+    }
+
+    public void solveFromPrevious(LongMatrix C, int[] supplies, int[] demands, double flowScale, double dualScale) {
+        if (!hasSolved) {
+            solve(C, supplies, demands);
+            return;
+        }
+        setCosts(C);
+        warmStart(supplies, demands, flowScale, dualScale);
+    }
+
+    //Solves the current instance from the repaired solution of the previous one, see solveFromPrevious.
+    private void warmStart(int[] supplies, int[] demands, double flowScale, double dualScale) {
+        long startTime = System.currentTimeMillis();
+        iterations = 0;
+        APLengths = 0;
+        numAPCalls = 0;
+        setMasses(supplies, demands);
+
+        //Cut the flow into each vertex of A down to its demand.
+        for (int a = 0; a < numA; a++) {
+            int row = a*numB;
+            int excess = -demands[a];
+            for (int b = 0; b < numB; b++) {
+                //Casting truncates, so flow is never scaled past what the old marginals allowed.
+                int f = (int)(capacityAB.get(row + b) * flowScale);
+                capacityAB.set(row + b, f);
+                excess += f;
+            }
+            for (int b = 0; excess > 0 && b < numB; b++) {
+                int f = capacityAB.get(row + b);
+                int reduction = Math.min(excess, f);
+                capacityAB.set(row + b, f - reduction);
+                excess -= reduction;
+            }
+        }
+
+        //Then cut the flow out of each vertex of B down to its supply, and set the forward capacities so that
+        //capacityAB + capacityBA == min(supply, demand) on every edge, exactly as augmenting from a cold start keeps it.
+        for (int b = 0; b < numB; b++) {
+            int excess = -supplies[b];
+            for (int a = 0; a < numA; a++) {
+                excess += capacityAB.get(a*numB + b);
+            }
+            for (int a = 0; excess > 0 && a < numA; a++) {
+                int f = capacityAB.get(a*numB + b);
+                int reduction = Math.min(excess, f);
+                capacityAB.set(a*numB + b, f - reduction);
+                excess -= reduction;
+            }
+            int row = b*numA;
+            for (int a = 0; a < numA; a++) {
+                capacityBA.set(row + a, Math.min(supplies[b], demands[a]) - capacityAB.get(a*numB + b));
+            }
+        }
+
+        //Duals of B must stay >= 0. Vertices without supply have no edges, so their duals do not matter.
+        long shift = Long.MAX_VALUE;
+        for (int b = 0; b < numB; b++) {
+            y[b] = supplies[b] > 0 ? (long)(y[b] * dualScale) : 0;
+            if (supplies[b] > 0) {
+                shift = Math.min(shift, y[b]);
+            }
+        }
+        for (int b = 0; b < numB; b++) {
+            y[b] = Math.max(y[b] - shift, 0);
+        }
+
+        //supplies and demands become the deficiencies left over by the surviving flow.
+        for (int a = 0; a < numA; a++) {
+            int row = a*numB;
+            for (int b = 0; b < numB; b++) {
+                int f = capacityAB.get(row + b);
+                supplies[b] -= f;
+                demands[a] -= f;
+            }
+        }
+
+        for (int a = 0; a < numA; a++) {
+            //Forward edges need y(b) + y(a) <= c(a, b) + 1, and duals of A must stay <= 0.
+            long ya = 0;
+            for (int b = 0; b < numB; b++) {
+                if (capacityBA.get(b*numA + a) > 0) {
+                    ya = Math.min(ya, cost(a, b) + 1 - y[b]);
+                }
+            }
+            y[a + numB] = ya;
+
+            //Backward edges need y(b) + y(a) >= c(a, b). Raising y(a) any further would break a forward edge,
+            //so send the flow on a violating edge back instead. The edge becomes a forward edge whose
+            //constraint holds, since its slack was negative as a backward edge.
+            int row = a*numB;
+            for (int b = 0; b < numB; b++) {
+                int f = capacityAB.get(row + b);
+                if (f > 0 && y[b] + ya < cost(a, b)) {
+                    capacityAB.set(row + b, 0);
+                    capacityBA.set(b*numA + a, capacityBA.get(b*numA + a) + f);
+                    supplies[b] += f;
+                    demands[a] += f;
+                }
+            }
+        }
+
+        runPhases(supplies, demands);
+
+        freeDemandExcess = 0;
+        for (int a = 0; a < numA; a++) {
+            freeDemandExcess += (double)demands[a] * -y[a + numB];
+        }
+
+        timeTaken = System.currentTimeMillis() - startTime;
+    }
+
+    //Runs phases until all supply is matched, starting from the current duals and capacities, or until the lower
+    //bound passes the cost ceiling, or until maxPhases phases have run.
+    //deficiencyB and deficiencyA hold the remaining "unmatched" supply and demand of every vertex.
+    private void runPhases(int[] deficiencyB, int[] deficiencyA) {
+        exceededCeiling = false;
+        reachedPhaseLimit = false;
+        //Whether all supplies or demands of a vertex have been satisfied.
+        // Trivially, if the remaining supply or demand of a vertex is not 0, we can say it's free.
+        numFreeB = 0;
+        for(int i = 0; i < numB; i++) {
+            bFree[i] = deficiencyB[i] != 0;
+            if (bFree[i]) {
+                freeB[numFreeB++] = i;
+            }
+        }
+        for(int i = 0; i < numA; i++) {
+            aFree[i] = deficiencyA[i] != 0;
+        }
 
         //Main iteration loop. Continue executing until all supply vertices have no more residual.
-        while (any(bFree)) {
+        while (numFreeB > 0) {
+            if (iterations >= maxPhases) {
+                reachedPhaseLimit = true;
+                return;
+            }
             iterations++;
             //Perform Dijkstra's algorithm
             //To identify the distances lv
             //in slack from the nearest free vertex of B.
-            //First n vertices are type B.
-            //Second set of n vertices are type A.
-            int[] lv = new int[2*n];
+            //First numB vertices are type B.
+            //Next numA vertices are type A.
+            for (int t = 0; t < numTouched; t++) {
+                lv[touched[t]] = Long.MAX_VALUE;
+            }
+            numTouched = 0;
+            queue.clear();
 
             //The minimum distance to any free vertex of A.
-            int distAF = Integer.MAX_VALUE;
-
-            //For each vertex, store whether this vertex has been chosen
-            //As minDist before. All such vertices have already been included
-            //in the Dijkstra shortest path tree, and are final.
-            boolean[] finalDist = new boolean[2*n];
-            Arrays.fill(lv, Integer.MAX_VALUE);
-            for (int i = 0; i < n; i++) {
+            long distAF = Long.MAX_VALUE;
+
+            for (int k = 0; k < numFreeB; k++) {
                 // We connect S to every free vertex of B with a 0 cost edge.
                 // So any free vertex of B trivially has an lv of 0.
-                if (bFree[i]) {
-                    lv[i] = 0;
-                }
+                int b = freeB[k];
+                lv[b] = 0;
+                touched[numTouched++] = b;
+                queue.insertOrDecrease(b, 0);
             }
 
             //Main Dijkstra loop. Each iteration adds one vertex to the shortest
-            //path tree. Total time for all iterations is O(n^2).
+            //path tree. Vertices leave the queue in order of distance, so once a vertex
+            //has been extracted its distance is final and it is never queued again.
             //Will break out early if free vertex of A is reached.
-            for (int i = 0; i < 2*n; i++) {
+            while (!queue.isEmpty()) {
                 //Find the next vertex to add to the shortest path tree
-                // This loop finds the vertex with the cheapest l_v so far. Dijkstra's
+                // The queue hands back the vertex with the cheapest l_v so far. Dijkstra's
                 // explores the cheapest path first so this vertex (represented by minIndex)
                 // is the place we should explore from next.
-                int minDist = Integer.MAX_VALUE;
-                // minIndex is just for tracking the identity of the node we found.
-                int minIndex = -1; //Placeholder
-                for (int v = 0; v < 2*n; v++) {
-                    if (lv[v] < minDist && !finalDist[v]) {
-                        minDist = lv[v];
-                        minIndex = v;
-                    }
-                }
-                // After we've explored from a place, we've fully processed it.
-                finalDist[minIndex] = true;
-
-                //From the for loop condition, the early breaking out upon
-                //reaching a free vertex, and the fact that the total supply is
-                //less than the total demand, there should always be an augmenting
-                //path found, meaning minDist < Inf. The asserts double check this if enabled.
-                assert(minIndex != -1);
-                assert(minDist < Integer.MAX_VALUE);
-
-                // Recall that in lv the first n vertices are in B, the second n vertices are in A
-                // So if minIndex is < n, the cheapest vertex must be in B. Similarly, if it's >= n
+                int minIndex = queue.extractMin();
+
+                // Recall that in lv the first numB vertices are in B, the next numA vertices are in A
+                // So if minIndex is < numB, the cheapest vertex must be in B. Similarly, if it's >= numB
                 // then the closest/"cheapest" vertex must be in A.
-                if (minIndex < n) {
+                if (minIndex < numB) {
                     //Add a vertex of type B to the tree
                     //Update distances to all neighbors in A
-                    for (int a = 0; a < n; a++) {
-                        // If there is no capacity, that means one of the incident
-                        // vertices has no supply/demand. In which case we don't
-                        // bother exploring through this vertex because that will
-                        // make the bottleneck capacity 0.
-                        if (capacityBA[minIndex][a] > 0) {
-                            int aIndex = a + n;
-                            // Recall that the costs of the edges in the residual graph are actually the slacks.
-                            // This is exactly the definition of slack for forward edges.
-                            int newDist = lv[minIndex] + CBA[minIndex][a] + 1 - y[minIndex] - y[aIndex];
-
-                            // Normal Dijkstra's stuff, if we found a cheaper path to this vertex, update it.
-                            if (newDist < lv[aIndex]) {
-                                lv[aIndex] = newDist;
-                            }
-                        }
+                    // Edges without capacity are skipped: one of the incident vertices has no supply/demand left,
+                    // so exploring through them would make the bottleneck capacity 0.
+                    // Recall that the costs of the edges in the residual graph are actually the slacks, so a
+                    // forward edge costs C + 1 - y[b] - y[a]. The kernel collects every neighbor this improves.
+                    long base = lv[minIndex] + 1 - y[minIndex];
+                    int row = minIndex*numA;
+                    int[] capacities = row(capacityBA, row, numA, capacityRow);
+                    int capacityStart = capacities == capacityRow ? 0 : row;
+                    int count;
+                    if (C != null) {
+                        int[] costs = row(C, row, numA, costRow);
+                        count = RELAX.relaxFromB(base, capacityStart, capacities, costs, costs == costRow ? 0 : row, y,
+                                lv, numB, numA, improved, improvedDist);
+                    } else if (wideC != null) {
+                        long[] costs = row(wideC, row, numA, wideCostRow);
+                        count = RELAX.relaxFromB(base, capacityStart, capacities, costs,
+                                costs == wideCostRow ? 0 : row, y, lv, numB, numA, improved, improvedDist);
+                    } else {
+                        count = RELAX.relaxFromB(base, capacityStart, capacities, pointCosts.costsFromB(minIndex), 0,
+                                y, lv, numB, numA, improved, improvedDist);
+                    }
+                    // Normal Dijkstra's stuff, if we found a cheaper path to this vertex, update it.
+                    for (int k = 0; k < count; k++) {
+                        relax(improved[k], improvedDist[k]);
                     }
                 }
                 else {
@@ -208,35 +670,60 @@ public class GTTransport {
                     // lv is a single array containing a and b, but other data structures are kept as two
                     // separate arrays, one for a and one for b. This line "normalizes" the lv index so that
                     // it can be used in an array which only contains vertices of a.
-                    int a = minIndex - n;
+                    int a = minIndex - numB;
                     // If we found a free vertex of A, we found an augmenting path and can end early.
                     if (aFree[a]) {
                         distAF = lv[minIndex];
                         break;
                     }
 
-                    // Otherwise, do the same edge-cost update operation.
-                    for (int b = 0; b < n; b++) {
-                        if (capacityAB[a][b] > 0) {
-                            int newDist = lv[minIndex] + y[a + n] + y[b] - CAB[a][b];
-                            if (newDist < lv[b]) {
-                                lv[b] = newDist;
+                    // Otherwise, do the same edge-cost update operation. Backward edges cost y[a] + y[b] - C.
+                    long base = lv[minIndex] + y[minIndex];
+                    int[] capacities = row(capacityAB, a*numB, numB, capacityRow);
+                    int capacityStart = capacities == capacityRow ? 0 : a*numB;
+                    int count;
+                    if (C != null && C.array() != null) {
+                        count = RELAX.relaxFromA(base, capacityStart, capacities, C.array(), a, columnOffsets, y, lv,
+                                numB, improved, improvedDist);
+                    } else if (wideC != null && wideC.array() != null) {
+                        count = RELAX.relaxFromA(base, capacityStart, capacities, wideC.array(), a, columnOffsets, y,
+                                lv, numB, improved, improvedDist);
+                    } else if (pointCosts == null) {
+                        //Off the heap: gather the column of costs, but only where an edge has capacity.
+                        for (int b = 0; b < numB; b++) {
+                            if (capacities[capacityStart + b] > 0) {
+                                wideCostRow[b] = cost(a, b);
                             }
                         }
+                        count = RELAX.relaxFromA(base, capacityStart, capacities, wideCostRow, 0, null, y, lv, numB,
+                                improved, improvedDist);
+                    } else {
+                        count = RELAX.relaxFromA(base, capacityStart, capacities, pointCosts.costsFromA(a), 0, null, y,
+                                lv, numB, improved, improvedDist);
+                    }
+                    for (int k = 0; k < count; k++) {
+                        relax(improved[k], improvedDist[k]);
                     }
                 }
             }
 
-            //Since there is a free vertex of B left, there is always some AP left
-            assert(distAF < Integer.MAX_VALUE);
+            //From the early breaking out upon reaching a free vertex, and the fact that the
+            //total supply is less than the total demand, there should always be an augmenting
+            //path found, meaning distAF < Inf. The asserts double check this if enabled.
+            assert(distAF < Long.MAX_VALUE);
 
-            assert(distAF > 0); //Ensures that a maximal set of vertex-disjoint shortest augmenting paths was found last phase.
+            //Ensures that a maximal set of vertex-disjoint shortest augmenting paths was found last phase.
+            //A warm started first phase has no last phase, so admissible paths may already exist.
+            assert(distAF > 0 || iterations == 1);
 
             //Now, perform dual adjustments
-            for (int i = 0; i < lv.length; i++) {
+            //Vertices the search never reached have lv = Inf and keep their duals, so only
+            //the touched vertices need to be visited.
+            for (int t = 0; t < numTouched; t++) {
+                int i = touched[t];
                 // distAF - lv[i] === lt - lv on page 6
-                int delta = Math.max(distAF - lv[i], 0);
-                if (i < n) {
+                long delta = Math.max(distAF - lv[i], 0);
+                if (i < numB) {
                     //i is a vertex of B; increase dual
                     // Same as y(v) + (lt - lv)
                     y[i] += delta;
@@ -250,6 +737,13 @@ public class GTTransport {
                 }
             }
 
+            //Computing the lower bound takes a pass over all edges, so it is only checked against the ceiling every few phases.
+            if (costCeiling < Double.POSITIVE_INFINITY && iterations % BOUND_CHECK_INTERVAL == 0
+                    && dualLowerBound() > costCeiling) {
+                exceededCeiling = true;
+                return;
+            }
+
             //Let the admissible graph be the set of 0 slack edges.
             //Now, we iteratively execute partial DFS searches from each free
             //vertex of B to find a maximal set of vertex-disjoint admissible
@@ -257,236 +751,364 @@ public class GTTransport {
 
             //This is used by the DFS procedure to track the
             //largest explored neighbor index of every vertex.
-            //Following our convention, 0:n-1 -> B and n:2n-1 -> A.
+            //Following our convention, 0:numB-1 -> B and numB:numB+numA-1 -> A.
             //These values persist throughout all partial DFS searches this phase
-            vertexVisited = new int[2*n];
-            for (int i = 0; i < n; i++) {
+            for (int i = 0; i < numB; i++) {
                 // This sentinel value is so that in findAP, when the start of the "range" is computed,
                 // it will give vertices in A.
-                vertexVisited[i] = n-1;
+                vertexVisited[i] = numB-1;
             }
-            for (int i = 0; i < n; i++) {
+            for (int i = 0; i < numA; i++) {
                 // This value is there for a similar reason. In findAP when we compute the range of values
                 // to explore we're going to get vertices in B.
-                vertexVisited[i + n] = -1;
+                vertexVisited[i + numB] = -1;
             }
 
-            for (int vertex = 0; vertex < n; vertex++) {
-                if (bFree[vertex]) {
-                    //For each free vertex, repeatedly find admissible APs
-                    //until no more can be found.
-
-                    // Clearly if we've checked every last vertex in the array (the array only has 2*n elements)
-                    // then we've DFS'd everything and can stop. But that assumes we visit vertices in strictly increasing
-                    // order of index. Which findAP ensures.
-                    // We can also stop if there's no more unmatched supply at this vertex.
-                    while (deficiencyB[vertex] > 0 && vertexVisited[vertex] < 2*n - 1) {
-                        ArrayList<Integer> ap = null;
-
-                        ap = findAP(vertex);
-
-                        //Comment this out to make code faster
-                        //Uncomment if time taken by augmentations needs to be measured.
-                        //long startTimeAugment = System.nanoTime();
-                        if (ap.size() == 0) {
-                            //No AP was found. Move to next free vertex.
-                            break;
-                        }
-                        APLengths += ap.size() - 1;
-
-                        //Compute the bottleneck capacity beta: the maximum amount of flow that can be pushed
-                        //without violating some vertex / edge capacity constraint.
-
-                        // These are the first two constrains in computing r_p
-                        int beta = Integer.min(deficiencyB[ap.get(0)], deficiencyA[ap.get(ap.size() - 1) - n]);
-                        // This loop checks for the bottleneck edge set. Checks adjacent pairs of vertices (edges)
-                        for (int j = 0; j < ap.size() - 1; j++) {
-                            int u = ap.get(j);
-                            int v = ap.get(j + 1);
-                            if (u >= n) {
-                                //edge is directed from A to B
-                                beta = Integer.min(beta, capacityAB[u - n][v]);
-                            }
-                            else {
-                                //edge is directed from B to A
-                                beta = Integer.min(beta, capacityBA[u][v - n]);
-                            }
-                        }
+            if (searchPool != null && numFreeB >= PARALLEL_SEARCH_THRESHOLD) {
+                searchInParallel(deficiencyB, deficiencyA);
+            }
 
-                        //Augment along path by value beta
-                        //First, update the edge capacities.
-                        for (int j = 0; j < ap.size() - 1; j++) {
-                            int u = ap.get(j);
-                            int v = ap.get(j + 1);
-                            if (u >= n) {
-                                //edge is directed from A to B
-
-                                // This was a detail I didn't fully grasp. Each undirected edge of the input has a forward
-                                // and backward version in the residual graph. When we augment we remove flow from the forward
-                                // edge and push it to the backward edge. Every reduction/increase in flow is accompanied by the
-                                // inverse operation on the edge that goes between the same vertices, but in the opposite direction.
-
-                                // Here the edge is from A -> B, so we "free up" some flow by redirecting it to the forward edge.
-                                capacityAB[u - n][v] -= beta;
-                                capacityBA[v][u - n] += beta;
-                                if (capacityAB[u - n][v] > 0) {
-                                    //Allow edge to be reused on future augmenting
-                                    //paths this phase:
-                                    vertexVisited[u] = v - 1;
-                                }
-                            }
-                            else {
-                                //edge is directed from B to A
-
-                                // Here, we are taking some "unmatched" flow and committing it to this edge (a,b).
-                                capacityBA[u][v - n] -= beta;
-                                capacityAB[v - n][u] += beta;
-                                if (capacityBA[u][v - n] > 0) {
-                                    //Allow edge to be reused on future augmenting
-                                    //paths this phase:
-                                    vertexVisited[u] = v - 1;
-                                }
-                            }
-                        }
+            //Only the vertex a search starts from can lose its free status during that search,
+            //so the worklist is compacted in place as we go. After a parallel search, this finishes the searches
+            //the workers gave up on; the vertices they finished are skipped right away.
+            int stillFree = 0;
+            for (int k = 0; k < numFreeB; k++) {
+                int vertex = freeB[k];
+                //For each free vertex, repeatedly find admissible APs
+                //until no more can be found.
+
+                // Clearly if we've checked every last vertex in the array (the array only has numB + numA elements)
+                // then we've DFS'd everything and can stop. But that assumes we visit vertices in strictly increasing
+                // order of index. Which findAP ensures.
+                // We can also stop if there's no more unmatched supply at this vertex.
+                while (deficiencyB[vertex] > 0 && vertexVisited[vertex] < numB + numA - 1) {
+                    int apLength = findAP(vertex);
+
+                    //Comment this out to make code faster
+                    //Uncomment if time taken by augmentations needs to be measured.
+                    //long startTimeAugment = System.nanoTime();
+                    if (apLength == 0) {
+                        //No AP was found. Move to next free vertex.
+                        break;
+                    }
+                    APLengths += apLength - 1;
 
-                        /*
-                        * We only have to update the "deficiencies" (residual capacity?) of the endpoints for the
-                        * following reason. Imagine some vertex `v` in the middle of the augmenting path `P`.
-                        * P contains one edge that goes to v, and one edge that leaves from v. Imagine we augment
-                        * by `k` units. It's easy to get tangled up here so I'll keep this general.
-                        *
-                        * There is some edge from B -> A (u,v) in P, and another edge A -> B (v, w) in P. When we augment
-                        * along (u,v), that's an edge from B -> A, so we shift flow from the forward edge to the backward
-                        * edge. This means we satisfy K units of demand at v.
-                        *
-                        * But, when we then augment (v,w), we shift flow from the backward edge to the forward edge.
-                        * This reintroduces those k units of demand. A fundamentally identical argument can be used
-                        * for internal vertices that live in B, just swap "supply" for "demand".
-                        *
-                        * The only vertices that do not have their supply/demand symmetrically changed like this are
-                        * the vertices on the ends. At the end, we end up with less un-transported supply from the
-                        * start vertex B. And less unsatisfied demand at the end vertex A.
-                        *
-                        * */
-
-                        //Next, update the deficiencies of the endpoints of the path
-                        int first = ap.get(0);
-                        deficiencyB[first] -= beta;
-                        if (deficiencyB[first] == 0) {
-                            bFree[first] = false;
-                        }
+                    augment(path, apLength, deficiencyB, deficiencyA);
 
-                        int last = ap.get(ap.size() - 1) - n;
-                        deficiencyA[last] -= beta;
-                        if (deficiencyA[last] == 0) {
-                            aFree[last] = false;
-                        }
+                    //Comment this out to make code faster.
+                    //Uncomment if time taken by augment procedure needs to be measured.
+                    //timeTakenAugment += System.nanoTime() - startTimeAugment;
+                }
 
-                        //Comment this out to make code faster.
-                        //Uncomment if time taken by augment procedure needs to be measured.
-                        //timeTakenAugment += System.nanoTime() - startTimeAugment;
-                    }
+                if (bFree[vertex]) {
+                    freeB[stillFree++] = vertex;
                 }
             }//End of main for loop for DFS'
+            numFreeB = stillFree;
 
 
         }//End of while loop (phase loop)
+    }
 
-        //Finally, convert capacities to a slightly different format used
-        //by the rest of the program (i.e., the Mapping class).
-
-        finalCapacity = new int[2*n][2*n];
-        for (int i = 0; i < n; i++) {
-            for (int j = 0; j < n; j++) {
-                /*
-                The arrays used in this program are NxN. They can encode either the forward edges or the backward
-                edges easily, but not both. But we only want to return one thing! So, we use a 2Nx2N matrix where
-                the first n vertices of a row/column are in B. And the last n vertices of a row or column are in A.
+    //Pushes as much flow as fits along the admissible augmenting path in the first apLength entries of path, and
+    //updates the deficiencies and free status of its end points.
+    private void augment(int[] path, int apLength, int[] deficiencyB, int[] deficiencyA) {
+        //Compute the bottleneck capacity beta: the maximum amount of flow that can be pushed
+        //without violating some vertex / edge capacity constraint.
+
+        // These are the first two constrains in computing r_p
+        int beta = Integer.min(deficiencyB[path[0]], deficiencyA[path[apLength - 1] - numB]);
+        // This loop checks for the bottleneck edge set. Checks adjacent pairs of vertices (edges)
+        for (int j = 0; j < apLength - 1; j++) {
+            int u = path[j];
+            int v = path[j + 1];
+            if (u >= numB) {
+                //edge is directed from A to B
+                beta = Integer.min(beta, capacityAB.get((u - numB)*numB + v));
+            }
+            else {
+                //edge is directed from B to A
+                beta = Integer.min(beta, capacityBA.get(u*numA + v - numB));
+            }
+        }
 
-                We really get a matrix where only the top right and bottom left corners have real meaning.
-                row < n must be paired with col >= n and row >= n must be paired with col < n
-                */
-                finalCapacity[i + n][j] = capacityAB[i][j];
-                finalCapacity[i][j + n] = capacityBA[i][j];
+        //Augment along path by value beta
+        //First, update the edge capacities.
+        for (int j = 0; j < apLength - 1; j++) {
+            int u = path[j];
+            int v = path[j + 1];
+            if (u >= numB) {
+                //edge is directed from A to B
+
+                // This was a detail I didn't fully grasp. Each undirected edge of the input has a forward
+                // and backward version in the residual graph. When we augment we remove flow from the forward
+                // edge and push it to the backward edge. Every reduction/increase in flow is accompanied by the
+                // inverse operation on the edge that goes between the same vertices, but in the opposite direction.
+
+                // Here the edge is from A -> B, so we "free up" some flow by redirecting it to the forward edge.
+                int residual = capacityAB.get((u - numB)*numB + v) - beta;
+                capacityAB.set((u - numB)*numB + v, residual);
+                capacityBA.set(v*numA + u - numB, capacityBA.get(v*numA + u - numB) + beta);
+                if (residual > 0) {
+                    //Allow edge to be reused on future augmenting
+                    //paths this phase:
+                    vertexVisited[u] = v - 1;
+                }
+            }
+            else {
+                //edge is directed from B to A
+
+                // Here, we are taking some "unmatched" flow and committing it to this edge (a,b).
+                int residual = capacityBA.get(u*numA + v - numB) - beta;
+                capacityBA.set(u*numA + v - numB, residual);
+                capacityAB.set((v - numB)*numB + u, capacityAB.get((v - numB)*numB + u) + beta);
+                if (residual > 0) {
+                    //Allow edge to be reused on future augmenting
+                    //paths this phase:
+                    vertexVisited[u] = v - 1;
+                }
             }
         }
 
-        timeTaken = System.currentTimeMillis() - startTime;
+        /*
+        * We only have to update the "deficiencies" (residual capacity?) of the endpoints for the
+        * following reason. Imagine some vertex `v` in the middle of the augmenting path `P`.
+        * P contains one edge that goes to v, and one edge that leaves from v. Imagine we augment
+        * by `k` units. It's easy to get tangled up here so I'll keep this general.
+        *
+        * There is some edge from B -> A (u,v) in P, and another edge A -> B (v, w) in P. When we augment
+        * along (u,v), that's an edge from B -> A, so we shift flow from the forward edge to the backward
+        * edge. This means we satisfy K units of demand at v.
+        *
+        * But, when we then augment (v,w), we shift flow from the backward edge to the forward edge.
+        * This reintroduces those k units of demand. A fundamentally identical argument can be used
+        * for internal vertices that live in B, just swap "supply" for "demand".
+        *
+        * The only vertices that do not have their supply/demand symmetrically changed like this are
+        * the vertices on the ends. At the end, we end up with less un-transported supply from the
+        * start vertex B. And less unsatisfied demand at the end vertex A.
+        *
+        * */
+
+        //Next, update the deficiencies of the endpoints of the path
+        int first = path[0];
+        deficiencyB[first] -= beta;
+        if (deficiencyB[first] == 0) {
+            bFree[first] = false;
+        }
+
+        int last = path[apLength - 1] - numB;
+        deficiencyA[last] -= beta;
+        if (deficiencyA[last] == 0) {
+            aFree[last] = false;
+        }
     }
 
     //Execute a partial DFS from the given vertex.
-    //If an admissible AP is found, return it.
-    //else, return an empty list.
-    public ArrayList<Integer> findAP(int start) {
+    //If an admissible AP is found, it is left in the first k entries of path and k is returned.
+    //else, return 0.
+    public int findAP(int start) {
         numAPCalls++;
-        //Path is a preallocated array of size 2*n
-        path.clear();
-        path.add(start);
-        while (!path.isEmpty()) {
-            int end = path.get(path.size() - 1);
+        return findAP(start, path, 0);
+    }
+
+    //The partial DFS of findAP, building the path in `path`. A positive claimant is the id of a search worker that
+    //owns start: it claims every other vertex in owner before adding it to the path and releases it when it backtracks.
+    //If another worker owns a vertex the search needs, the search is undone, leaving the DFS pointers as if it had
+    //never run, and -1 is returned.
+    private int findAP(int start, int[] path, int claimant) {
+        //Path is a preallocated array of size numB + numA
+        path[0] = start;
+        int pathLength = 1;
+        while (pathLength > 0) {
+            int end = path[pathLength - 1];
             // If the end is a free vertex of A
-            if (end >= n && aFree[end - n]) {
+            if (end >= numB && aFree[end - numB]) {
                 //Found an AP
-                return path;
+                return pathLength;
             }
             //Attempt to expand path
             boolean backtrack = true;
             int rangeStart = vertexVisited[end] + 1;
-            // If the current vertex is in B (< n) we want to explore things in A.
+            // If the current vertex is in B (< numB) we want to explore things in A.
             // Otherwise, we only want to explore things in B.
-            int rangeEnd = end < n ? 2*n : n;
+            int rangeEnd = end < numB ? numB + numA : numB;
 
             // This makes sure we explore things in increasing index order, I think
             for (int i = rangeStart; i < rangeEnd; i++) {
                 // This stops us from visiting this vertex again when we backtrack.
                 vertexVisited[end] = i;
+                boolean admissible;
                 //current vertex is type B
-                if (end < n) {
-                    // CBA is NxN, so we have to "normalize" `i`, which is an index into a 2*n array.
-                    int a = i - n;
+                if (end < numB) {
+                    // C is numA x numB, so we have to "normalize" `i`, which is an index into a numB + numA array.
+                    int a = i - numB;
                     // If the edge is admissible and there is residual capacity (the edge is useful at all)
-                    if (CBA[end][a] + 1 - y[end] - y[a + n] == 0 && capacityBA[end][a] > 0) {
-                        backtrack = false;
-                        //Add vertex to path
-                        path.add(i);
-                        break;
-                    }
+                    admissible = capacityBA.get(end*numA + a) > 0 && cost(a, end) + 1 - y[end] - y[a + numB] == 0;
                 }
                 else {
                     //current vertex is type A
-                    int a = end - n;
+                    int a = end - numB;
                     // Same deal, as B -> A :: Check the edge is admissible and that it has capacity
-                    if (capacityAB[a][i] > 0 && y[a + n] + y[i] == CAB[a][i]) {
-                        backtrack = false;
-                        //Add vertex to path
-                        path.add(i);
-                        break;
+                    admissible = capacityAB.get(a*numB + i) > 0 && y[a + numB] + y[i] == cost(a, i);
+                }
+                if (admissible) {
+                    if (claimant > 0 && !owner.compareAndSet(i, 0, claimant)) {
+                        //The edge is still to be tried, and so is every edge of the path.
+                        vertexVisited[end] = i - 1;
+                        for (int j = pathLength - 1; j > 0; j--) {
+                            vertexVisited[path[j - 1]] = path[j] - 1;
+                            owner.set(path[j], 0);
+                        }
+                        return -1;
                     }
+                    backtrack = false;
+                    //Add vertex to path
+                    path[pathLength++] = i;
+                    break;
                 }
             }
             if (backtrack) {
                 //No more options to explore from this vertex. Remove
                 //last vertex from path.
-                path.remove(path.size() - 1);
+                pathLength--;
+                if (claimant > 0 && pathLength > 0) {
+                    owner.set(end, 0);
+                }
+            }
+
+        }
+        return 0;
+    }
+
+    //Runs the partial DFS searches of a phase on searchPool. The free vertices of B are split into one contiguous
+    //range per worker, and a worker claims every vertex it adds to a path, so no two workers augment through the
+    //same vertex. Everything a worker reads about the edges of a vertex only changes while that vertex is claimed.
+    //A worker that needs a vertex another one holds undoes its search and moves on, leaving that start vertex to
+    //the sequential loop in runPhases. The DFS pointers only ever move past edges that cannot be on an augmenting
+    //path for the rest of the phase, just like in a sequential search, so that loop ends with a maximal set of
+    //paths all the same.
+    private void searchInParallel(int[] deficiencyB, int[] deficiencyA) {
+        int numWorkers = workers.length;
+        int numFree = numFreeB;
+        // A parallel stream started from inside a pool runs on that pool rather than on the common one.
+        searchPool.submit(() -> IntStream.range(0, numWorkers).parallel().forEach(w -> workers[w].search(
+                w*numFree/numWorkers, (w + 1)*numFree/numWorkers, deficiencyB, deficiencyA))).join();
+        for (SearchWorker worker : workers) {
+            APLengths += worker.apLengths;
+            numAPCalls += worker.apCalls;
+        }
+    }
+
+    //The state of one thread of searchInParallel.
+    private final class SearchWorker {
+        private final int id;
+        private final int[] path;
+        private int apLengths;
+        private int apCalls;
+
+        SearchWorker(int id) {
+            this.id = id;
+            this.path = new int[numB + numA];
+        }
+
+        //Searches from the free vertices freeB[from] .. freeB[to - 1] like the sequential loop in runPhases.
+        void search(int from, int to, int[] deficiencyB, int[] deficiencyA) {
+            apLengths = 0;
+            apCalls = 0;
+            for (int k = from; k < to; k++) {
+                int vertex = freeB[k];
+                //The vertex may be on the path of another worker.
+                if (!owner.compareAndSet(vertex, 0, id)) {
+                    continue;
+                }
+                while (deficiencyB[vertex] > 0 && vertexVisited[vertex] < numB + numA - 1) {
+                    apCalls++;
+                    int apLength = findAP(vertex, path, id);
+                    if (apLength <= 0) {
+                        //Either there is no AP, or the search was undone and the sequential loop retries it.
+                        break;
+                    }
+                    apLengths += apLength - 1;
+                    augment(path, apLength, deficiencyB, deficiencyA);
+                    for (int j = 1; j < apLength; j++) {
+                        owner.set(path[j], 0);
+                    }
+                }
+                owner.set(vertex, 0);
             }
+        }
+    }
+
+    //Remembers the masses of a new instance for dualLowerBound.
+    private void setMasses(int[] supplies, int[] demands) {
+        System.arraycopy(supplies, 0, supplyMass, 0, numB);
+        System.arraycopy(demands, 0, demandMass, 0, numA);
+    }
+
+    //Points C at the costs of a new instance.
+    private void setCosts(IntMatrix C) {
+        this.C = C;
+        this.wideC = null;
+        this.pointCosts = null;
+    }
+
+    private void setCosts(LongMatrix C) {
+        this.C = null;
+        this.wideC = C;
+        this.pointCosts = null;
+    }
+
+    //The cost of the edge between the ath vertex of A and the bth vertex of B.
+    private long cost(int a, int b) {
+        return C != null ? C.get(b*numA + a) : wideC != null ? wideC.get(b*numA + a) : pointCosts.cost(a, b);
+    }
+
+    //The entries from .. from + length - 1 of matrix, which start at from in the array of the matrix itself if it is
+    //on the heap, and at 0 in buffer otherwise.
+    private static int[] row(IntMatrix matrix, int from, int length, int[] buffer) {
+        int[] array = matrix.array();
+        if (array != null) {
+            return array;
+        }
+        matrix.copyTo(from, buffer, length);
+        return buffer;
+    }
+
+    private static long[] row(LongMatrix matrix, int from, int length, long[] buffer) {
+        long[] array = matrix.array();
+        if (array != null) {
+            return array;
+        }
+        matrix.copyTo(from, buffer, length);
+        return buffer;
+    }
 
+    //Lowers the tentative distance of vertex v to newDist, queueing it if it has not been
+    //reached yet this phase.
+    private void relax(int v, long newDist) {
+        if (lv[v] == Long.MAX_VALUE) {
+            touched[numTouched++] = v;
         }
-        return path;
+        lv[v] = newDist;
+        queue.insertOrDecrease(v, newDist);
     }
 
-    //Returns true if there is any instance of true in the input array.
-    //Otherwise, returns false.
-    static boolean any(boolean[] free) {
-        for (int i = 0; i < free.length; i++) {
-            if (free[i]) {
-                return true;
+    //The n x n matrix C[a][b] as the flat matrix of solve, with a row per vertex of B.
+    private static int[] flatten(int[][] C, int n) {
+        int[] flat = new int[n*n];
+        for (int a = 0; a < n; a++) {
+            for (int b = 0; b < n; b++) {
+                flat[b*n + a] = C[a][b];
             }
         }
-        return false;
+        return flat;
     }
 
+    //The solver keeps its costs as one flat row-major array and no longer transposes them,
+    //but callers may still use this.
     public static int[][] transpose(int[][] matrix){
-        int[][] t = new int[matrix.length][matrix[0].length];
+        int[][] t = new int[matrix[0].length][matrix.length];
         for(int i = 0; i < matrix.length; i++) {
             for(int j = 0; j < matrix[0].length; j++) {
                 t[j][i] = matrix[i][j];
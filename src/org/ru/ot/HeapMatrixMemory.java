@@ -0,0 +1,139 @@
+package org.ru.ot;
+
+import java.util.Arrays;
+
+/**
+ * Matrices in plain Java arrays, see {@link MatrixMemory#heap()}. Freeing does nothing: the garbage collector takes a
+ * matrix back once nothing refers to it.
+ */
+final class HeapMatrixMemory implements MatrixMemory {
+    static final HeapMatrixMemory INSTANCE = new HeapMatrixMemory();
+
+    private HeapMatrixMemory() {}
+
+    @Override
+    public IntMatrix allocateInts(int rows, int columns) {
+        return new HeapIntMatrix(new int[rows*columns]);
+    }
+
+    @Override
+    public LongMatrix allocateLongs(int rows, int columns) {
+        return new HeapLongMatrix(new long[rows*columns]);
+    }
+
+    @Override
+    public DoubleMatrix allocateDoubles(int rows, int columns) {
+        return new HeapDoubleMatrix(new double[rows][columns]);
+    }
+
+    @Override
+    public void close() {}
+
+    static final class HeapIntMatrix implements IntMatrix {
+        private final int[] entries;
+
+        HeapIntMatrix(int[] entries) {
+            this.entries = entries;
+        }
+
+        @Override
+        public int get(int index) {
+            return entries[index];
+        }
+
+        @Override
+        public void set(int index, int value) {
+            entries[index] = value;
+        }
+
+        @Override
+        public void fill(int value) {
+            Arrays.fill(entries, value);
+        }
+
+        @Override
+        public void copyTo(int from, int[] destination, int length) {
+            System.arraycopy(entries, from, destination, 0, length);
+        }
+
+        @Override
+        public int[] array() {
+            return entries;
+        }
+
+        @Override
+        public void free() {}
+    }
+
+    static final class HeapLongMatrix implements LongMatrix {
+        private final long[] entries;
+
+        HeapLongMatrix(long[] entries) {
+            this.entries = entries;
+        }
+
+        @Override
+        public long get(int index) {
+            return entries[index];
+        }
+
+        @Override
+        public void set(int index, long value) {
+            entries[index] = value;
+        }
+
+        @Override
+        public void copyTo(int from, long[] destination, int length) {
+            System.arraycopy(entries, from, destination, 0, length);
+        }
+
+        @Override
+        public long[] array() {
+            return entries;
+        }
+
+        @Override
+        public void free() {}
+    }
+
+    static final class HeapDoubleMatrix implements DoubleMatrix {
+        private final double[][] rows;
+
+        HeapDoubleMatrix(double[][] rows) {
+            this.rows = rows;
+        }
+
+        @Override
+        public int rows() {
+            return rows.length;
+        }
+
+        @Override
+        public int columns() {
+            return rows.length > 0 ? rows[0].length : 0;
+        }
+
+        @Override
+        public double get(int row, int column) {
+            return rows[row][column];
+        }
+
+        @Override
+        public void copyRow(int row, double[] destination) {
+            System.arraycopy(rows[row], 0, destination, 0, rows[row].length);
+        }
+
+        @Override
+        public void setRow(int row, double[] values) {
+            System.arraycopy(values, 0, rows[row], 0, rows[row].length);
+        }
+
+        @Override
+        public double[][] array() {
+            return rows;
+        }
+
+        @Override
+        public void free() {}
+    }
+}
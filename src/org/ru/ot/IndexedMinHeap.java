@@ -0,0 +1,117 @@
+package org.ru.ot;
+
+import java.util.Arrays;
+
+/**
+ * A binary min-heap over the integers [0, capacity) keyed by long priorities, with O(log n) insert,
+ * decrease-key and extract-min. This is the priority queue used by the Dijkstra search in {@link GTTransport}.
+ *
+ * Ties between equal keys are broken by the smaller index. This matches the order in which the original
+ * linear scan picked vertices, so the heap-based search builds exactly the same shortest path tree.
+ */
+class IndexedMinHeap {
+    // heap[k] is the element stored at heap slot k.
+    private final int[] heap;
+    // position[v] is the heap slot holding v, or -1 if v is not in the heap.
+    private final int[] position;
+    private final long[] key;
+    private int size;
+
+    IndexedMinHeap(int capacity) {
+        this.heap = new int[capacity];
+        this.position = new int[capacity];
+        this.key = new long[capacity];
+        Arrays.fill(this.position, -1);
+    }
+
+    boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * Inserts `v` with priority `k`, or lowers its priority to `k` if it is already queued with a larger key.
+     * Does nothing if `v` is queued with a key that is already less than or equal to `k`.
+     */
+    void insertOrDecrease(int v, long k) {
+        int slot = position[v];
+        if (slot == -1) {
+            slot = size++;
+            heap[slot] = v;
+            position[v] = slot;
+            key[v] = k;
+            siftUp(slot);
+        } else if (k < key[v]) {
+            key[v] = k;
+            siftUp(slot);
+        }
+    }
+
+    /**
+     * Removes and returns the element with the smallest key.
+     * @precondition the heap is not empty
+     */
+    int extractMin() {
+        int min = heap[0];
+        position[min] = -1;
+        size--;
+        if (size > 0) {
+            int last = heap[size];
+            heap[0] = last;
+            position[last] = 0;
+            siftDown(0);
+        }
+        return min;
+    }
+
+    /**
+     * Empties the heap. Costs O(size), not O(capacity), so a mostly-unused heap is cheap to reset.
+     */
+    void clear() {
+        for (int k = 0; k < size; k++) {
+            position[heap[k]] = -1;
+        }
+        size = 0;
+    }
+
+    private boolean less(int u, int v) {
+        return key[u] < key[v] || (key[u] == key[v] && u < v);
+    }
+
+    private void siftUp(int slot) {
+        int v = heap[slot];
+        while (slot > 0) {
+            int parentSlot = (slot - 1) >>> 1;
+            int parent = heap[parentSlot];
+            if (!less(v, parent)) {
+                break;
+            }
+            heap[slot] = parent;
+            position[parent] = slot;
+            slot = parentSlot;
+        }
+        heap[slot] = v;
+        position[v] = slot;
+    }
+
+    private void siftDown(int slot) {
+        int v = heap[slot];
+        int half = size >>> 1;
+        while (slot < half) {
+            int childSlot = 2 * slot + 1;
+            int child = heap[childSlot];
+            int rightSlot = childSlot + 1;
+            if (rightSlot < size && less(heap[rightSlot], child)) {
+                childSlot = rightSlot;
+                child = heap[childSlot];
+            }
+            if (!less(child, v)) {
+                break;
+            }
+            heap[slot] = child;
+            position[child] = slot;
+            slot = childSlot;
+        }
+        heap[slot] = v;
+        position[v] = slot;
+    }
+}
@@ -0,0 +1,38 @@
+package org.ru.ot;
+
+/**
+ * A row-major matrix of ints handed out by a {@link MatrixMemory}, indexed like the flat int[] matrices of
+ * {@link GTTransport}: entry (row, column) is at row * columns + column. It lives on the heap or off it, depending on
+ * the memory that allocated it. Reads and writes from several threads behave like those of an array.
+ */
+public interface IntMatrix {
+    int get(int index);
+
+    void set(int index, int value);
+
+    void fill(int value);
+
+    /**
+     * Copies the entries from .. from + length - 1 into destination[0] .. destination[length - 1].
+     */
+    void copyTo(int from, int[] destination, int length);
+
+    /**
+     * @return the array holding the entries if the matrix is on the heap, null otherwise. Writes to it are writes to
+     * the matrix.
+     */
+    int[] array();
+
+    /**
+     * Gives the memory of the matrix back right away rather than when its MatrixMemory is closed. The matrix must not
+     * be used afterwards. Freeing it twice does nothing.
+     */
+    void free();
+
+    /**
+     * @return a matrix on the heap backed by array, which is not copied
+     */
+    static IntMatrix of(int[] array) {
+        return new HeapMatrixMemory.HeapIntMatrix(array);
+    }
+}
@@ -0,0 +1,32 @@
+package org.ru.ot;
+
+/**
+ * Like {@link IntMatrix}, for entries too large for an int.
+ */
+public interface LongMatrix {
+    long get(int index);
+
+    void set(int index, long value);
+
+    /**
+     * Copies the entries from .. from + length - 1 into destination[0] .. destination[length - 1].
+     */
+    void copyTo(int from, long[] destination, int length);
+
+    /**
+     * @return the array holding the entries if the matrix is on the heap, null otherwise
+     */
+    long[] array();
+
+    /**
+     * See {@link IntMatrix#free()}.
+     */
+    void free();
+
+    /**
+     * @return a matrix on the heap backed by array, which is not copied
+     */
+    static LongMatrix of(long[] array) {
+        return new HeapMatrixMemory.HeapLongMatrix(array);
+    }
+}
@@ -1,5 +1,8 @@
 package org.ru.ot;
 
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+
 /**
  * Sourced from: https://github.com/nathaniellahn/CombinatorialOptimalTransport/blob/master/GabowTarjanJavaCode/GTTransport/src/optimaltransport/Mapping.java
  * with permission from one the authors (Dr. Nathaniel Lahn - https://github.com/nathaniellahn) of the following paper:
@@ -8,9 +11,69 @@ package org.ru.ot;
  * Copyright 2019, Nathaniel Lahn, All rights reserved.
  */
 
-public class Mapping {
+public class Mapping implements TransportSolver, AutoCloseable {
     private long startTime;
 
+    // Scratch space for the scaled instance and the solver itself. These are sized for `numSupplies` supply and
+    // `numDemands` demand vertices and reused by every solve of that size, so a Mapping that is kept around (one per
+    // thread) stops allocating once it has solved its first instance. scaledC, flow and pointCosts are only allocated
+    // by the first solve that needs them, so that a Mapping that only solves point clouds never holds a cost matrix.
+    // scaledC, scaledWideC and the capacities of gt come from matrixMemory, see setMatrixMemory.
+    private int numSupplies = -1;
+    private int numDemands = -1;
+    private MatrixMemory matrixMemory = MatrixMemory.heap();
+    private IntMatrix scaledC;
+    // The scaled costs when some of them do not fit in an int, see MAX_SCALED_COST. Only one of the two is filled.
+    private LongMatrix scaledWideC;
+    // A row of a cost matrix off the heap, copied out to be scaled.
+    private double[] costRow;
+    private boolean wideCosts;
+    private PointCloudCosts pointCosts;
+    private int[] scaledDemands;
+    private int[] scaledSupplies;
+    private double[] residualSupply;
+    private double[] residualDemand;
+    private GTTransport gt;
+    private int[] demandStart;
+
+    // The plan of the last solveCost as a list of (supply index, demand index, mass) triples, like SparseMapping's.
+    private int planSize;
+    private int[] planSupply = new int[0];
+    private int[] planDemand = new int[0];
+    private double[] planMass = new double[0];
+
+    // The factor the costs of the last instance were scaled by. It is alpha unless the costs are normalized.
+    private double costAlpha;
+    // When set, delta is relative to the largest edge cost, see setNormalizeCosts.
+    private boolean normalizeCosts = false;
+
+    // When set, each solve starts the Gabow-Tarjan routine from the duals and flow of the previous solve.
+    // previousAlpha and previousCostAlpha are the scaling factors that solution was computed under, or 0 if there is
+    // none to start from.
+    private boolean warmStart = false;
+    private double previousAlpha = 0;
+    private double previousCostAlpha = 0;
+    static final double WARM_START_REFINEMENT = 1.25;
+
+    // The Gabow-Tarjan routine keeps its duals and distances as longs. It reads the scaled costs as ints while the
+    // largest one fits, and as longs, which take twice the memory, when it does not, as squared costs between far
+    // apart points can need. Scaled costs are kept at most MAX_SCALED_COST, far enough below the range of a long for
+    // the sums of several costs and duals its searches take. The scaled masses are ints and are kept at most
+    // MAX_SCALED_MASS in total. An instance that would need a finer scale than these allow to meet delta is solved at
+    // the finest scale that fits, and reachedScaleLimit() tells the caller; its certified interval, see
+    // getCertifiedError, shows the error that was actually achieved.
+    static final long MAX_SCALED_COST = 1L << 48;
+    static final int MAX_SCALED_MASS = 1 << 30;
+    private boolean reachedScaleLimit;
+    // Phases after which a solve is cut short, see setMaxPhases. Solves are not cut short by default.
+    public static final int DEFAULT_MAX_PHASES = Integer.MAX_VALUE;
+    private int maxPhases = DEFAULT_MAX_PHASES;
+    // Rows of costs kept per side when the costs are computed from point coordinates, see setCachedCostRows.
+    public static final int DEFAULT_CACHED_COST_ROWS = 32;
+    private int cachedCostRows = DEFAULT_CACHED_COST_ROWS;
+    // When set, the augmenting path searches of every phase are spread over this pool, see setSearchParallelism.
+    private ForkJoinPool searchPool = null;
+
     /**
      * Computes an additive approximation of the optimal transport between two discrete probability distributions, A and B,
      * using the Gabow-Tarjan transportation problem algorithm as a subroutine.
@@ -26,82 +89,236 @@ public class Mapping {
      * 'flow' variable, which can be retieved afterwards using the 'getFlow()' method.
      */
     public Mapping(int n, double[] supplies, double[] demands, double[][] C, double delta) {
-        startTime = System.currentTimeMillis();
+        this.solve(n, n, supplies, demands, C, delta);
+    }
 
-        double max = 0;
+    /**
+     * Like {@link Mapping#Mapping(int, double[], double[], double[][], double)}, but for distributions over different
+     * numbers of vertices. C is then a numDemands x numSupplies cost matrix.
+     */
+    public Mapping(int numSupplies, int numDemands, double[] supplies, double[] demands, double[][] C, double delta) {
+        this.solve(numSupplies, numDemands, supplies, demands, C, delta);
+    }
 
-        // IntelliJ tells me this isn't used? Am I missing something?
-        for (int i = 0; i < n; i++) {
-            max = Double.max(max, supplies[i]);
+    /**
+     * Creates a reusable Mapping that has not solved anything yet. Call {@link Mapping#solve} to solve instances.
+     * A Mapping is not thread safe, keep one per thread.
+     */
+    public Mapping() {}
+
+    /**
+     * Solves an instance exactly like {@link Mapping#Mapping(int, double[], double[], double[][], double)}, but reuses
+     * the buffers of this Mapping. The results of the previous solve (including the array returned by 'getFlow()')
+     * are overwritten.
+     * @return the total cost of the computed transport plan
+     */
+    @Override
+    public double solve(int numSupplies, int numDemands, double[] supplies, double[] demands, double[][] C,
+                        double delta) {
+        startTime = System.currentTimeMillis();
+        int n = Integer.max(numSupplies, numDemands);
+        double alpha = this.runGabowTarjan(numSupplies, numDemands, supplies, demands, DoubleMatrix.of(C), delta,
+                Double.POSITIVE_INFINITY);
+        if (flow == null) {
+            flow = new double[numDemands][numSupplies];
         }
 
-        // Find the largest edge cost, which is called `C` in the paper. not to be confused with `C` in the code
-        // which is the cost matrix.
-        double maxCost = 0;
-        for (int i = 0; i < n; i++) {
-            for (int j = 0; j < n; j++) {
-                maxCost = Double.max(maxCost, C[i][j]);
+        //Get the solution for the scaled instance.
+        IntMatrix scaledFlow = gt.getFlowMatrix();
+
+        for (int i = 0; i < numDemands; i++) {
+            for (int j = 0; j < numSupplies; j++) {
+                // GTTransport stores the residual capacity of the backward edge from the ith vertex of A to the
+                // jth vertex of B at capacityAB[i*numSupplies + j].
+                // Thus, flow from i -> j is the capacity (satisfied demand) from A to B (j to i)
+
+                // Lines 58 and 59 scale by alpha * n, now we divide it out.
+                flow[i][j] = scaledFlow.get(i*numSupplies + j) / (n * alpha);
             }
         }
+        this.marginalError = repairFlow(numSupplies, numDemands, supplies, demands, flow, residualSupply, residualDemand);
 
-        //Convert the inputs into an instance of the transportation problem with integer supplies, demands, and costs.
-        int[][] scaledC = new int[n][n];
-        int[] scaledDemands = new int[n];
-        int[] scaledSupplies = new int[n];
-        // In the paper, alpha simplifies to 4nC / delta. `n` is added when the demands/supplies are scaled.
-        // It is not included in the definition of alpha.
-        double alpha = 4.*maxCost / delta;
-        for (int i = 0; i < n; i++) {
-            for (int j = 0; j < n; j++) {
-                // TODO: In the paper the costs are scaled by 4/delta? (page 6) But alpha != 4/delta
-                scaledC[i][j] = (int)(C[i][j] * alpha);
+        this.totalCost = 0;
+        for (int i = 0; i < numDemands; i++) {
+            for (int j = 0; j < numSupplies; j++) {
+                totalCost += flow[i][j] * C[i][j];
             }
-            // Recall from earlier that `n` was not added to the definition of alpha. This is where it's added
-            scaledDemands[i] = (int)(Math.ceil(demands[i] * alpha * n));
-            scaledSupplies[i] = (int)(supplies[i] * alpha * n);
         }
+        this.certifyBounds(numSupplies, numDemands, supplies, demands);
 
-        //Call the main Gabow-Tarjan algorithm routine to solve the scaled instance.
-        //Returns a maximum-size transport plan additive error at most sum(scaledSupplies).
-        GTTransport gt = new GTTransport(scaledC, scaledSupplies, scaledDemands, n);
+        timeTaken = (System.currentTimeMillis() - startTime)/1000.;
+        return totalCost;
+    }
 
-        //Record the efficiency-related results of the main routine
-        this.iterations = gt.getIterations();
-        this.APLengths = gt.APLengths();
-        this.mainRoutineTimeInSeconds = gt.timeTakenInSeconds();
-        this.timeTakenAugment = gt.timeTakenAugmentInSeconds();
+    /**
+     * Solves an instance like {@link Mapping#solve}, but does not build the dense flow matrix. The plan is kept as a
+     * list of (supply index, demand index, mass) triples instead, see {@link Mapping#getPlanSize()}, and the cost is
+     * accumulated over those. Gabow-Tarjan leaves few edges with flow, so the plan has on the order of
+     * numSupplies + numDemands entries, and the solve does no floating point work per entry of the cost matrix beyond
+     * scaling it. 'getFlow()' is left as it was by the last call to solve.
+     * @return the total cost of the computed transport plan
+     */
+    @Override
+    public double solveCost(int numSupplies, int numDemands, double[] supplies, double[] demands, double[][] C,
+                            double delta) {
+        return this.solveCost(numSupplies, numDemands, supplies, demands, C, delta, Double.POSITIVE_INFINITY);
+    }
 
-        //Get the solution for the scaled instance.
-        int[][] scaledFlow = gt.getSolution();
+    /**
+     * Solves an instance like {@link Mapping#solveCost(int, int, double[], double[], double[][], double)}, but gives
+     * up as soon as the dual weights of the Gabow-Tarjan routine prove that the optimal cost, and with it the cost of
+     * any plan, is above `costCeiling`. The lower bound they give is then returned instead of a cost, the plan is
+     * left empty and {@link Mapping#exceededCeiling()} returns true. The bound is checked every few phases, and an
+     * instance whose optimal cost is far above the ceiling usually stops within the first few.
+     * @return the total cost of the computed transport plan, or a lower bound above `costCeiling` on the optimal cost
+     */
+    @Override
+    public double solveCost(int numSupplies, int numDemands, double[] supplies, double[] demands, double[][] C,
+                            double delta, double costCeiling) {
+        return this.solveCostOf(numSupplies, numDemands, supplies, demands, DoubleMatrix.of(C), delta, costCeiling);
+    }
+
+    /**
+     * Solves an instance like {@link Mapping#solveCost(int, int, double[], double[], double[][], double, double)},
+     * reading the costs from a matrix that may be kept off the heap. The costs are scaled into matrices from the
+     * memory given to {@link Mapping#setMatrixMemory(MatrixMemory)}, so with memory off the heap as well, no matrix of
+     * the solve is left on the heap.
+     * @return the total cost of the computed transport plan, or a lower bound above `costCeiling` on the optimal cost
+     */
+    @Override
+    public double solveCost(int numSupplies, int numDemands, double[] supplies, double[] demands, DoubleMatrix C,
+                            double delta, double costCeiling) {
+        return this.solveCostOf(numSupplies, numDemands, supplies, demands, C, delta, costCeiling);
+    }
 
-        flow = new double[n][n];
+    /**
+     * Solves an instance like {@link Mapping#solveCost(int, int, double[], double[], double[][], double, double)}
+     * between two point clouds, where the cost of moving mass from a supply point to a demand point is the Euclidean
+     * distance between them, or its square. No cost matrix is built: the Gabow-Tarjan routine computes the cost of
+     * each edge from the coordinates when it reads it, keeping the last few rows of costs it read, see
+     * {@link Mapping#setCachedCostRows(int)}. That leaves the residual capacities of the routine as the only memory
+     * that grows with the product of the two sizes, a quarter of what a dense solve needs. Warm starting is not used.
+     * @return the total cost of the computed transport plan, or a lower bound above `costCeiling` on the optimal cost
+     */
+    public double solveCost(double[] supplyX, double[] supplyY, double[] supplies,
+                            double[] demandX, double[] demandY, double[] demands,
+                            boolean useSquaredEuclidean, double delta, double costCeiling) {
+        int numSupplies = supplies.length;
+        int numDemands = demands.length;
+        this.ensureSize(numSupplies, numDemands);
+        if (pointCosts == null || pointCosts.getCachedRows() != cachedCostRows) {
+            pointCosts = new PointCloudCosts(numSupplies, numDemands, cachedCostRows);
+        }
+        pointCosts.setPoints(supplyX, supplyY, demandX, demandY, useSquaredEuclidean);
+        return this.solveCostOf(numSupplies, numDemands, supplies, demands, null, delta, costCeiling);
+    }
 
-        //Scale back flows and compute residual (leftover) supplies and demands.
-        double[] residualSupply = new double[n];
-        double[] residualDemand = new double[n];
+    //Solves an instance for solveCost, reading its costs from C, or from pointCosts if C is null.
+    private double solveCostOf(int numSupplies, int numDemands, double[] supplies, double[] demands, DoubleMatrix C,
+                               double delta, double costCeiling) {
+        startTime = System.currentTimeMillis();
+        int n = Integer.max(numSupplies, numDemands);
+        double alpha = this.runGabowTarjan(numSupplies, numDemands, supplies, demands, C, delta, costCeiling);
+        if (gt.exceededCeiling()) {
+            this.lowerBound = this.dualLowerBound(numSupplies, numDemands, supplies, demands);
+            this.upperBound = Double.POSITIVE_INFINITY;
+            //The bound is above the ceiling, but rounding it back to the real units could land it on the ceiling.
+            this.totalCost = Double.max(lowerBound, Math.nextUp(costCeiling));
+            this.planSize = 0;
+            timeTaken = (System.currentTimeMillis() - startTime)/1000.;
+            return totalCost;
+        }
+        this.buildPlan(numSupplies, numDemands, supplies, demands, n * alpha);
 
-        for (int i = 0; i < n; i++) {
-            residualSupply[i] = supplies[i];
-            residualDemand[i] = demands[i];
+        this.totalCost = 0;
+        for (int t = 0; t < planSize; t++) {
+            double cost = C != null ? C.get(planDemand[t], planSupply[t]) : pointCosts.distance(planDemand[t], planSupply[t]);
+            totalCost += planMass[t] * cost;
         }
+        this.certifyBounds(numSupplies, numDemands, supplies, demands);
 
-        for (int i = 0; i < n; i++) {
-            for (int j = 0; j < n; j++) {
-                // Line 93 mirrors the following code from GTTransport:
-                // finalCapacity[i + n][j] = capacityAB[i][j];
-                // Thus, flow from i -> j is the capacity (satisfied demand) from A to B (j to i)
+        timeTaken = (System.currentTimeMillis() - startTime)/1000.;
+        return totalCost;
+    }
 
-                // Lines 58 and 59 scale by alpha * n, now we divide it out.
-                flow[i][j] = scaledFlow[i + n][j] / (n * alpha);
+    //Records the interval the optimal cost of the instance just solved is certified to lie in: the plan is feasible,
+    //so its cost is an upper bound, and the dual weights give the lower bound.
+    private void certifyBounds(int numSupplies, int numDemands, double[] supplies, double[] demands) {
+        this.upperBound = totalCost;
+        //Both are exact in theory, so only floating point rounding could put the lower bound above the upper bound.
+        this.lowerBound = Double.min(this.dualLowerBound(numSupplies, numDemands, supplies, demands), totalCost);
+    }
+
+    //A lower bound on the optimal cost of the instance the last Gabow-Tarjan run solved. GTTransport turns its duals
+    //into a feasible dual solution for the scaled costs, which were rounded down, so dividing by costAlpha gives one
+    //for the real costs. Weighing it with the real masses rather than the rounded ones gives the tighter bound.
+    private double dualLowerBound(int numSupplies, int numDemands, double[] supplies, double[] demands) {
+        if (costAlpha <= 0) {
+            //Every cost is 0.
+            return 0;
+        }
+        gt.dualLowerBound();
+        long[] supplyDuals = gt.getSupplyDuals();
+        long[] demandDuals = gt.getDemandDuals();
+        double bound = 0;
+        for (int j = 0; j < numSupplies; j++) {
+            bound += supplies[j] * supplyDuals[j];
+        }
+        for (int i = 0; i < numDemands; i++) {
+            bound += demands[i] * demandDuals[i];
+        }
+        return bound / costAlpha;
+    }
+
+    //The duals of the supplies in the feasible dual solution behind the lower bound of the last solve, in units of
+    //scaled cost, which are getCostScale() times the real units. For SparseMapping, which carries the duals of a
+    //coarse solve over to a fine one. Meaningless if getCostScale() is 0, which means every cost was 0.
+    long[] getSupplyDuals() {
+        return gt.getSupplyDuals();
+    }
+
+    double getCostScale() {
+        return costAlpha;
+    }
+
+    /**
+     * Repairs a plan whose marginals are slightly off, as left behind by scaling an integer solution back, into one
+     * with exactly the requested marginals: flow into demands that received too much is pushed back, then the supply
+     * that is left is matched arbitrarily.
+     * @param residualSupply scratch space for numSupplies values
+     * @param residualDemand scratch space for numDemands values
+     * @return the L1 distance between the marginals of the plan before the repair and the requested ones
+     */
+    static double repairFlow(int numSupplies, int numDemands, double[] supplies, double[] demands, double[][] flow,
+                             double[] residualSupply, double[] residualDemand) {
+        //Compute residual (leftover) supplies and demands.
+        for (int j = 0; j < numSupplies; j++) {
+            residualSupply[j] = supplies[j];
+        }
+        for (int i = 0; i < numDemands; i++) {
+            residualDemand[i] = demands[i];
+        }
+
+        for (int i = 0; i < numDemands; i++) {
+            for (int j = 0; j < numSupplies; j++) {
                 residualSupply[j] -= flow[i][j];
                 residualDemand[i] -= flow[i][j];
             }
         }
 
+        //How far the plan is from the requested marginals before it is repaired below.
+        double marginalError = 0;
+        for (int j = 0; j < numSupplies; j++) {
+            marginalError += Math.abs(residualSupply[j]);
+        }
+        for (int i = 0; i < numDemands; i++) {
+            marginalError += Math.abs(residualDemand[i]);
+        }
+
         //Push back some flow incoming to demand constraints that are violated.
-        for (int j = 0; j < n; j++) {
+        for (int j = 0; j < numDemands; j++) {
             // We are looking for all vertices of A which are "over-saturated"
-            for (int i = 0; residualDemand[j] < 0 && i < n; i++) {
+            for (int i = 0; residualDemand[j] < 0 && i < numSupplies; i++) {
                 // For this edge, we can either fix all the residual demand, or push back
                 // all the flow on the edge. Whichever is smaller.
                 double reduction = Double.min(-residualDemand[j], flow[j][i]);
@@ -113,41 +330,440 @@ public class Mapping {
         }
 
         //Arbitrarily match the remaining supplies
-        for (int i = 0; i < n; i++) {
-            for (int j = 0; residualSupply[i] > 0 && j < n; j++) {
+        for (int i = 0; i < numSupplies; i++) {
+            for (int j = 0; residualSupply[i] > 0 && j < numDemands; j++) {
                 double increase = Double.min(residualSupply[i], residualDemand[j]);
                 flow[j][i] += increase;
                 residualDemand[j] -= increase;
                 residualSupply[i] -= increase;
             }
         }
+        return marginalError;
+    }
 
-        this.totalCost = 0;
-        for (int i = 0; i < n; i++) {
-            for (int j = 0; j < n; j++) {
-                totalCost += flow[i][j] * C[i][j];
+    //Scales the flow of the last Gabow-Tarjan run back into the plan triples and repairs it into a feasible plan the
+    //same way solve repairs the dense flow.
+    private void buildPlan(int numSupplies, int numDemands, double[] supplies, double[] demands, double massScale) {
+        for (int j = 0; j < numSupplies; j++) {
+            residualSupply[j] = supplies[j];
+        }
+        for (int i = 0; i < numDemands; i++) {
+            residualDemand[i] = demands[i];
+        }
+
+        //Entries are added demand by demand, so the entries of demand i are demandStart[i] .. demandStart[i + 1] - 1.
+        IntMatrix scaledFlow = gt.getFlowMatrix();
+        planSize = 0;
+        for (int i = 0; i < numDemands; i++) {
+            demandStart[i] = planSize;
+            int row = i*numSupplies;
+            for (int j = 0; j < numSupplies; j++) {
+                int f = scaledFlow.get(row + j);
+                if (f > 0) {
+                    double mass = f / massScale;
+                    this.addToPlan(j, i, mass);
+                    residualSupply[j] -= mass;
+                    residualDemand[i] -= mass;
+                }
             }
         }
+        demandStart[numDemands] = planSize;
 
-        timeTaken = (System.currentTimeMillis() - startTime)/1000.;
+        this.marginalError = 0;
+        for (int j = 0; j < numSupplies; j++) {
+            marginalError += Math.abs(residualSupply[j]);
+        }
+        for (int i = 0; i < numDemands; i++) {
+            marginalError += Math.abs(residualDemand[i]);
+        }
+
+        //Push back some flow incoming to demand constraints that are violated.
+        for (int i = 0; i < numDemands; i++) {
+            for (int t = demandStart[i]; residualDemand[i] < 0 && t < demandStart[i + 1]; t++) {
+                double reduction = Double.min(-residualDemand[i], planMass[t]);
+                planMass[t] -= reduction;
+                residualDemand[i] += reduction;
+                residualSupply[planSupply[t]] += reduction;
+            }
+        }
+
+        //Arbitrarily match the remaining supplies. Every demand skipped over has been filled, so one pass suffices.
+        int i = 0;
+        for (int j = 0; j < numSupplies; j++) {
+            while (residualSupply[j] > 0 && i < numDemands) {
+                if (residualDemand[i] <= 0) {
+                    i++;
+                    continue;
+                }
+                double increase = Double.min(residualSupply[j], residualDemand[i]);
+                this.addToPlan(j, i, increase);
+                residualDemand[i] -= increase;
+                residualSupply[j] -= increase;
+            }
+        }
+    }
+
+    private void addToPlan(int supply, int demand, double mass) {
+        if (planSize == planMass.length) {
+            int capacity = Integer.max(2*planSize, 16);
+            planSupply = Arrays.copyOf(planSupply, capacity);
+            planDemand = Arrays.copyOf(planDemand, capacity);
+            planMass = Arrays.copyOf(planMass, capacity);
+        }
+        planSupply[planSize] = supply;
+        planDemand[planSize] = demand;
+        planMass[planSize] = mass;
+        planSize++;
+    }
+
+    //Scales the instance, runs the Gabow-Tarjan routine on it and records its statistics. The routine stops early if
+    //it can prove that the optimal cost is above costCeiling. If C is null, the costs are those of pointCosts.
+    //Returns alpha: the masses were scaled by alpha * max(numSupplies, numDemands). The costs were scaled by costAlpha.
+    private double runGabowTarjan(int numSupplies, int numDemands, double[] supplies, double[] demands, DoubleMatrix C,
+                                  double delta, double costCeiling) {
+        this.ensureSize(numSupplies, numDemands);
+        // The masses are scaled by the size of the larger side, which bounds the mass lost to rounding exactly like
+        // it does for a square instance padded with zero mass vertices up to that size.
+        int n = Integer.max(numSupplies, numDemands);
+
+        double max = 0;
+
+        // IntelliJ tells me this isn't used? Am I missing something?
+        for (int i = 0; i < numSupplies; i++) {
+            max = Double.max(max, supplies[i]);
+        }
+
+        // Find the largest edge cost, which is called `C` in the paper. not to be confused with `C` in the code
+        // which is the cost matrix.
+        double maxCost = 0;
+        if (C == null) {
+            maxCost = pointCosts.maxDistance();
+        } else {
+            for (int i = 0; i < numDemands; i++) {
+                double[] row = this.costRow(C, i);
+                for (int j = 0; j < numSupplies; j++) {
+                    maxCost = Double.max(maxCost, row[j]);
+                }
+            }
+        }
+        if (!Double.isFinite(maxCost)) {
+            throw new IllegalArgumentException("Transport costs must be finite, got " + maxCost);
+        }
+
+        //Convert the inputs into an instance of the transportation problem with integer supplies, demands, and costs.
+        // In the paper, alpha simplifies to 4nC / delta. `n` is added when the demands/supplies are scaled.
+        // It is not included in the definition of alpha.
+        // Normalized costs are solved as if every cost had been divided by maxCost, so C is 1 and delta is relative
+        // to maxCost. The scaled instance, and with it the running time, then only depends on delta and n.
+        double additiveDelta = normalizeCosts ? delta * maxCost : delta;
+        double alpha = normalizeCosts ? 4. / delta : 4.*maxCost / delta;
+        if (warmStart) {
+            // A warm start can end slightly worse than the usual guarantee, see GTTransport.solveFromPrevious. Scaling
+            // finer shrinks the error due to scaling to delta / WARM_START_REFINEMENT, and the rest of delta is the
+            // budget for that excess.
+            alpha *= WARM_START_REFINEMENT;
+        }
+        double costScale = normalizeCosts && maxCost > 0 ? alpha / maxCost : alpha;
+        double massScale = alpha;
+        this.costAlpha = Double.min(costScale, maxSafeCostScale(maxCost));
+        alpha = Double.min(alpha, maxSafeMassScale(n, numDemands, demands));
+        this.reachedScaleLimit = this.costAlpha < costScale || alpha < massScale;
+        this.wideCosts = maxCost * this.costAlpha > Integer.MAX_VALUE;
+        this.scaleInstance(n, numSupplies, numDemands, supplies, demands, C, alpha);
+        gt.setMaxPhases(maxPhases);
+
+        //Scaled costs are rounded down and scaled supplies and demands are rounded down and up, which only lowers the
+        //dual lower bound GTTransport computes. It stays below the optimal cost in the real units times
+        //n * alpha * costAlpha. With every cost 0 that product is NaN for an infinite ceiling, which never stops a solve.
+        double scaledCeiling = Math.floor(costCeiling * n * alpha * this.costAlpha);
+        gt.setCostCeiling(scaledCeiling < Double.POSITIVE_INFINITY ? scaledCeiling : Double.POSITIVE_INFINITY);
+
+        //Call the main Gabow-Tarjan algorithm routine to solve the scaled instance.
+        //Returns a maximum-size transport plan additive error at most sum(scaledSupplies).
+        int discardedIterations = 0;
+        if (C == null) {
+            gt.solve(pointCosts, scaledSupplies, scaledDemands);
+        } else if (warmStart && previousAlpha > 0 && alpha > 0 && previousCostAlpha > 0 && this.costAlpha > 0) {
+            //Scaled flows are measured in units of alpha and scaled duals in units of costAlpha, so the previous
+            //solution is converted into the units of this instance by the ratios of the scaling factors.
+            if (wideCosts) {
+                gt.solveFromPrevious(scaledWideC, scaledSupplies, scaledDemands, alpha / previousAlpha,
+                        this.costAlpha / previousCostAlpha);
+            } else {
+                gt.solveFromPrevious(scaledC, scaledSupplies, scaledDemands, alpha / previousAlpha,
+                        this.costAlpha / previousCostAlpha);
+            }
+
+            //The excess is in units of scaled cost times scaled mass, and those are costAlpha and n * alpha times
+            //the real units. If it does not fit in the budget, throw the warm start away and solve from scratch.
+            double excess = gt.getFreeDemandExcess() / (n * alpha * this.costAlpha);
+            if (!gt.exceededCeiling() && excess > additiveDelta - additiveDelta / WARM_START_REFINEMENT) {
+                discardedIterations = gt.getIterations();
+                this.scaleInstance(n, numSupplies, numDemands, supplies, demands, C, alpha);
+                this.solveScaled();
+            }
+        } else {
+            this.solveScaled();
+        }
+        //A solve on point costs leaves a solution a warm start could use, but not the scaled cost matrix it needs.
+        previousAlpha = C != null ? alpha : 0;
+        previousCostAlpha = C != null ? this.costAlpha : 0;
+
+        //Record the efficiency-related results of the main routine
+        this.iterations = gt.getIterations() + discardedIterations;
+        this.APLengths = gt.APLengths();
+        this.mainRoutineTimeInSeconds = gt.timeTakenInSeconds();
+        this.timeTakenAugment = gt.timeTakenAugmentInSeconds();
+
+        return alpha;
+    }
+
+    //Solves the scaled instance from scratch, reading the scaled costs from whichever of scaledC and scaledWideC holds
+    //them.
+    private void solveScaled() {
+        if (wideCosts) {
+            gt.solve(scaledWideC, scaledSupplies, scaledDemands);
+        } else {
+            gt.solve(scaledC, scaledSupplies, scaledDemands);
+        }
+    }
+
+    //The largest factor that keeps every scaled cost at most MAX_SCALED_COST.
+    private static double maxSafeCostScale(double maxCost) {
+        return maxCost > 0 ? MAX_SCALED_COST / maxCost : Double.POSITIVE_INFINITY;
+    }
+
+    //The largest alpha that keeps the scaled demands, which are rounded up and so are at least the scaled supplies,
+    //at most MAX_SCALED_MASS in total.
+    static double maxSafeMassScale(int n, int numDemands, double[] demands) {
+        double totalDemand = 0;
+        for (int i = 0; i < numDemands; i++) {
+            totalDemand += demands[i];
+        }
+        //Rounding up adds less than 1 per demand vertex.
+        return totalDemand > 0 ? (MAX_SCALED_MASS - numDemands) / (n * totalDemand) : Double.POSITIVE_INFINITY;
+    }
+
+    //The largest alpha that keeps both the scaled costs and the scaled masses in range, for SparseMapping, which scales
+    //an instance to integers like Mapping does, but with a single factor.
+    static double maxSafeAlpha(int n, int numDemands, double[] demands, double maxCost) {
+        return Double.min(maxSafeCostScale(maxCost), maxSafeMassScale(n, numDemands, demands));
+    }
+
+    //Fills scaledC, or scaledWideC if wideCosts is set, with the costs scaled by costAlpha, or has pointCosts scale
+    //them if C is null, and scaledDemands and scaledSupplies with the masses scaled by alpha * n.
+    private void scaleInstance(int n, int numSupplies, int numDemands, double[] supplies, double[] demands,
+                               DoubleMatrix C, double alpha) {
+        if (C == null) {
+            pointCosts.setScale(costAlpha);
+        } else if (wideCosts) {
+            if (scaledWideC == null) {
+                scaledWideC = matrixMemory.allocateLongs(numSupplies, numDemands);
+            }
+            for (int i = 0; i < numDemands; i++) {
+                double[] row = this.costRow(C, i);
+                for (int j = 0; j < numSupplies; j++) {
+                    scaledWideC.set(j*numDemands + i, (long)(row[j] * costAlpha));
+                }
+            }
+        } else {
+            if (scaledC == null) {
+                scaledC = matrixMemory.allocateInts(numSupplies, numDemands);
+            }
+            //GTTransport wants a row per supply vertex, see GTTransport.solve.
+            for (int i = 0; i < numDemands; i++) {
+                double[] row = this.costRow(C, i);
+                for (int j = 0; j < numSupplies; j++) {
+                    // TODO: In the paper the costs are scaled by 4/delta? (page 6) But alpha != 4/delta
+                    scaledC.set(j*numDemands + i, (int)(row[j] * costAlpha));
+                }
+            }
+        }
+        for (int i = 0; i < numDemands; i++) {
+            // Recall from earlier that `n` was not added to the definition of alpha. This is where it's added
+            scaledDemands[i] = (int)(Math.ceil(demands[i] * alpha * n));
+        }
+        for (int j = 0; j < numSupplies; j++) {
+            scaledSupplies[j] = (int)(supplies[j] * alpha * n);
+        }
+    }
+
+    //Row i of C: the row itself if C is on the heap, otherwise a copy in costRow.
+    private double[] costRow(DoubleMatrix C, int i) {
+        double[][] rows = C.array();
+        if (rows != null) {
+            return rows[i];
+        }
+        C.copyRow(i, costRow);
+        return costRow;
+    }
+
+    /**
+     * Turns warm starting on or off. With warm starting on, each solve starts from the dual weights and flow the
+     * previous solve ended with (repaired to fit the new instance) instead of from scratch. The error stays within
+     * delta either way, but when successive instances are close, as when an optimizer probes nearby transformations
+     * of the same image pair, fewer phases are needed. Off by default.
+     */
+    @Override
+    public void setWarmStart(boolean warmStart) {
+        this.warmStart = warmStart;
+    }
+
+    /**
+     * Turns normalized costs on or off. With normalized costs, delta is relative to the largest edge cost: the
+     * instance is solved as if every cost had been divided by the largest one, and the result is in the original
+     * units, within delta times the largest cost of the optimum. The scaled instance then only depends on delta and
+     * the number of vertices, so one delta gives the same relative error and about the same time per solve whatever
+     * the costs are. Off by default, which makes delta an absolute error.
+     */
+    @Override
+    public void setNormalizeCosts(boolean normalizeCosts) {
+        this.normalizeCosts = normalizeCosts;
+    }
+
+    /**
+     * Caps the number of Gabow-Tarjan phases of every following solve. By default, {@link Mapping#DEFAULT_MAX_PHASES},
+     * there is no cap. A solve that runs out of phases still returns a feasible plan: the supply left unmatched is
+     * matched arbitrarily by the same repair that fixes up rounding errors. See {@link Mapping#reachedPhaseLimit()}.
+     */
+    public void setMaxPhases(int maxPhases) {
+        this.maxPhases = maxPhases;
+    }
+
+    /**
+     * Sets how many rows of costs each side keeps when the costs are computed from point coordinates,
+     * {@link Mapping#DEFAULT_CACHED_COST_ROWS} by default. Every phase of the Gabow-Tarjan routine starts its searches
+     * from the vertices with supply left, so keeping their rows saves recomputing them phase after phase. Each row
+     * takes as much memory as a point cloud; 0 recomputes every row.
+     */
+    public void setCachedCostRows(int cachedCostRows) {
+        if (cachedCostRows < 0) {
+            throw new IllegalArgumentException("The number of cached rows must be non-negative, got " + cachedCostRows);
+        }
+        this.cachedCostRows = cachedCostRows;
+    }
+
+    /**
+     * Spreads the augmenting path searches of every Gabow-Tarjan phase over `parallelism` threads. This speeds up a
+     * single large solve; when every thread already runs solves of its own, as in classification, leave it at 1, the
+     * default. The plans differ from those of a sequential search, but stay within delta of the optimum. The threads
+     * belong to this Mapping: {@link Mapping#close()} stops them, as does setting the parallelism back to 1.
+     */
+    public void setSearchParallelism(int parallelism) {
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("A search needs at least one thread, got " + parallelism);
+        }
+        if (searchPool != null) {
+            searchPool.shutdown();
+        }
+        searchPool = parallelism > 1 ? new ForkJoinPool(parallelism) : null;
+        if (gt != null) {
+            gt.setSearchPool(searchPool);
+        }
+    }
+
+    /**
+     * Makes every following solve keep its scaled costs and the capacities of the Gabow-Tarjan routine in matrices
+     * from `matrixMemory`, {@link MatrixMemory#heap()} by default. Matrices off the heap take the largest allocations
+     * of a solve away from the garbage collector, at some cost in speed, see {@link MatrixMemory}. The matrices of the
+     * current memory are freed right away. The caller owns `matrixMemory` and closes it once this Mapping is done
+     * solving; the dense flow of {@link Mapping#solve} stays on the heap either way.
+     */
+    public void setMatrixMemory(MatrixMemory matrixMemory) {
+        this.freeMatrices();
+        this.matrixMemory = matrixMemory;
+        //The next solve allocates everything anew, from the new memory.
+        this.numSupplies = -1;
+        this.numDemands = -1;
+        this.scaledC = null;
+        this.scaledWideC = null;
+        this.gt = null;
+    }
+
+    /**
+     * @return whether the last solve was cut short by the phase cap. The plan is feasible, but the usual delta
+     * guarantee does not hold for it; the certified interval still does.
+     */
+    public boolean reachedPhaseLimit() {
+        return gt != null && gt.reachedPhaseLimit();
+    }
+
+    /**
+     * @return whether meeting delta on the last instance would have needed a finer scale than the Gabow-Tarjan routine
+     * can represent, see MAX_SCALED_COST and MAX_SCALED_MASS. It was solved at the finest scale that fits, so the usual
+     * delta guarantee does not hold for it; the certified interval still does.
+     */
+    public boolean reachedScaleLimit() {
+        return reachedScaleLimit;
+    }
+
+    /**
+     * @return false if the last solve was cut short by the phase cap or solved at a coarser scale than delta asks for
+     */
+    @Override
+    public boolean withinDelta() {
+        return !this.reachedScaleLimit() && !this.reachedPhaseLimit();
+    }
+
+    private void ensureSize(int numSupplies, int numDemands) {
+        if (numSupplies == this.numSupplies && numDemands == this.numDemands) {
+            return;
+        }
+        this.numSupplies = numSupplies;
+        this.numDemands = numDemands;
+        this.previousAlpha = 0;
+        this.previousCostAlpha = 0;
+        this.freeMatrices();
+        this.scaledC = null;
+        this.scaledWideC = null;
+        this.costRow = new double[numSupplies];
+        this.pointCosts = null;
+        this.scaledDemands = new int[numDemands];
+        this.scaledSupplies = new int[numSupplies];
+        this.residualSupply = new double[numSupplies];
+        this.residualDemand = new double[numDemands];
+        this.flow = null;
+        this.gt = new GTTransport(numSupplies, numDemands, matrixMemory);
+        this.gt.setSearchPool(searchPool);
+        this.demandStart = new int[numDemands + 1];
+        int capacity = 2*(numSupplies + numDemands);
+        this.planSupply = new int[capacity];
+        this.planDemand = new int[capacity];
+        this.planMass = new double[capacity];
+    }
+
+    //Gives the matrices of the current size back to matrixMemory before they are replaced.
+    private void freeMatrices() {
+        if (scaledC != null) {
+            scaledC.free();
+        }
+        if (scaledWideC != null) {
+            scaledWideC.free();
+        }
+        if (gt != null) {
+            gt.freeMatrices();
+        }
     }
 
     //A method that can be called to verify the contents of the produced flow to ensure it is feasible.
     public void verifyFlow(double[] supplies, double[] demands, double[][] flow) {
-        int n = supplies.length;
-        for (int i = 0; i < n; i++) {
+        double threshold = 0.00001;
+        for (int i = 0; i < supplies.length; i++) {
             double sumB = 0;//sum for flow outgoing from supply vertex i
-            double sumA = 0;//sum for flow incoming to demand vertex i
-            for (int j = 0; j < n; j++) {
+            for (int j = 0; j < demands.length; j++) {
                 sumB += flow[j][i];
-                sumA += flow[i][j];
             }
             double residualB = supplies[i] - sumB;
-            double residualA = demands[i] - sumA;
-            double threshold = 0.00001;
             if (Math.abs(residualB) > threshold) {
                 System.err.println("Violation B: " + residualB + " at index " + i);
             }
+        }
+        for (int i = 0; i < demands.length; i++) {
+            double sumA = 0;//sum for flow incoming to demand vertex i
+            for (int j = 0; j < supplies.length; j++) {
+                sumA += flow[i][j];
+            }
+            double residualA = demands[i] - sumA;
             if (Math.abs(residualA) > threshold) {
                 System.err.println("Violation A: " + residualA + " at index " + i);
             }
@@ -162,32 +778,109 @@ public class Mapping {
 
     private double[][] flow;
     private double totalCost;
+    private double lowerBound;
+    private double upperBound;
+    private double marginalError;
     private double timeTaken;
     private double timeTakenAugment;
     private int iterations;
     private int APLengths;
 
 
+    /**
+     * Shuts down the threads of {@link Mapping#setSearchParallelism(int)}, if any. Later solves search on the calling
+     * thread. The memory given to {@link Mapping#setMatrixMemory(MatrixMemory)} belongs to the caller and is left open.
+     */
+    @Override
+    public void close() {
+        this.setSearchParallelism(1);
+    }
+
+    @Override
     public double[][] getFlow() {
         return flow;
     }
 
 
+    @Override
     public double getTotalCost() {
         return totalCost;
     }
 
 
+    @Override
     public double getTimeTaken() {
         return timeTaken;
     }
 
 
+    @Override
     public int getIterations() {
         return iterations;
     }
 
 
+    @Override
+    public double getMarginalError() {
+        return marginalError;
+    }
+
+
+    /**
+     * @return a lower bound on the optimal cost of the last instance, certified by the dual weights the Gabow-Tarjan
+     * routine ended with
+     */
+    @Override
+    public double getLowerBound() {
+        return lowerBound;
+    }
+
+
+    /**
+     * @return an upper bound on the optimal cost of the last instance: the cost of the plan, or infinity if the solve
+     * stopped at its cost ceiling
+     */
+    @Override
+    public double getUpperBound() {
+        return upperBound;
+    }
+
+
+    @Override
+    public boolean exceededCeiling() {
+        return gt != null && gt.exceededCeiling();
+    }
+
+
+    /**
+     * @return the number of entries in the plan of the last solveCost. The arrays returned by getPlanSupplies,
+     * getPlanDemands and getPlanMasses are only meaningful up to this index.
+     */
+    public int getPlanSize() {
+        return planSize;
+    }
+
+    /**
+     * @return for each plan entry, the index of the supply vertex the mass is sent from
+     */
+    public int[] getPlanSupplies() {
+        return planSupply;
+    }
+
+    /**
+     * @return for each plan entry, the index of the demand vertex the mass is sent to
+     */
+    public int[] getPlanDemands() {
+        return planDemand;
+    }
+
+    /**
+     * @return for each plan entry, the mass sent
+     */
+    public double[] getPlanMasses() {
+        return planMass;
+    }
+
     public int getAPLengths() {
         return APLengths;
     }
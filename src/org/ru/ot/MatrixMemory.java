@@ -0,0 +1,60 @@
+package org.ru.ot;
+
+/**
+ * Allocates the matrices that take memory quadratic in the number of points: the cost matrix of an objective, the
+ * scaled costs of {@link Mapping} and the capacities of {@link GTTransport}.
+ *
+ * {@link MatrixMemory#heap()} keeps them in plain Java arrays. {@link MatrixMemory#offHeap()} allocates them in native
+ * memory through the incubating Foreign Memory API when the JVM was started with `--add-modules jdk.incubator.foreign`
+ * and the class was compiled (it lives in the separate src-incubator root, like the kernel of GTTransport). Otherwise,
+ * or if anything about loading it fails, it falls back to the heap. Matrices off the heap never reach the garbage
+ * collector, which on large clouds would otherwise copy them straight into the old generation and collect them from
+ * there. Each one is freed as soon as its owner moves on to an instance of another shape, and the rest when the
+ * memory is closed.
+ *
+ * Off the heap the solves themselves are slower: the edge scans of GTTransport read Java arrays, so every row they
+ * scan is copied out of native memory first. The results are exactly the same.
+ */
+public interface MatrixMemory extends AutoCloseable {
+    /**
+     * @return a zeroed rows x columns matrix
+     */
+    IntMatrix allocateInts(int rows, int columns);
+
+    /**
+     * @return a zeroed rows x columns matrix
+     */
+    LongMatrix allocateLongs(int rows, int columns);
+
+    /**
+     * @return a zeroed rows x columns matrix
+     */
+    DoubleMatrix allocateDoubles(int rows, int columns);
+
+    /**
+     * Frees every matrix this memory allocated that has not been freed yet. None of them may be used afterwards.
+     */
+    @Override
+    void close();
+
+    /**
+     * @return the memory of plain Java arrays, shared by everyone since it has nothing to close
+     */
+    static MatrixMemory heap() {
+        return HeapMatrixMemory.INSTANCE;
+    }
+
+    /**
+     * @return a new memory off the heap if the Foreign Memory API can be loaded, the heap otherwise
+     */
+    static MatrixMemory offHeap() {
+        if (ModuleLayer.boot().findModule("jdk.incubator.foreign").isPresent()) {
+            try {
+                return (MatrixMemory) Class.forName("org.ru.ot.SegmentMatrixMemory").getDeclaredConstructor().newInstance();
+            } catch (ReflectiveOperationException | LinkageError e) {
+                // Not compiled in, or compiled against an incompatible version of the module.
+            }
+        }
+        return heap();
+    }
+}
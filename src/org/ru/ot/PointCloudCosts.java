@@ -0,0 +1,164 @@
+package org.ru.ot;
+
+import java.util.Arrays;
+
+/**
+ * The scaled edge costs of a transport instance between two point clouds, computed from the coordinates of the points
+ * whenever {@link GTTransport} reads them instead of being stored as a matrix. The cost of an edge is the Euclidean
+ * distance between its end points, or its square, times the scale, rounded down like {@link Mapping} rounds a cost
+ * matrix. Describing an instance this way takes memory linear in the number of points, where the matrix of costs and
+ * its scaled copy are each quadratic. Every read recomputes a distance, which for large clouds is cheaper than
+ * streaming those matrices through the caches.
+ *
+ * The Dijkstra scans and the dual lower bound read whole rows: every cost out of one vertex. Those are computed into
+ * row buffers, and the most recently computed `cachedRows` rows of each side are kept, so that the vertices every
+ * phase starts its search from do not have their rows recomputed phase after phase. A row stays valid until the next
+ * request for a row of the same side.
+ *
+ * Not thread safe, like the solvers that use it.
+ */
+final class PointCloudCosts {
+    private final int numB;
+    private final int numA;
+    private final int cachedRows;
+
+    private double[] supplyX;
+    private double[] supplyY;
+    private double[] demandX;
+    private double[] demandY;
+    private boolean useSquaredEuclidean;
+    private double scale;
+
+    // Row slot k holds the costs out of vertex rowOfB[k] (or rowOfA[k]), or nothing if that is -1. A vertex can only be
+    // in slot vertex % slots, so a lookup is a single comparison. Rows are longs, since a fine scale can take squared costs past
+    // the range of an int.
+    private final long[][] rowsOfB;
+    private final int[] rowOfB;
+    private final long[][] rowsOfA;
+    private final int[] rowOfA;
+
+    /**
+     * @param numB the number of supply points
+     * @param numA the number of demand points
+     * @param cachedRows how many rows of each side to keep, 0 to recompute every row that is read
+     */
+    PointCloudCosts(int numB, int numA, int cachedRows) {
+        if (cachedRows < 0) {
+            throw new IllegalArgumentException("The number of cached rows must be non-negative, got " + cachedRows);
+        }
+        this.numB = numB;
+        this.numA = numA;
+        this.cachedRows = cachedRows;
+        // Rows that are not cached still need a buffer to be computed into.
+        int slots = Integer.max(cachedRows, 1);
+        this.rowsOfB = new long[Integer.min(slots, numB)][numA];
+        this.rowOfB = new int[rowsOfB.length];
+        this.rowsOfA = new long[Integer.min(slots, numA)][numB];
+        this.rowOfA = new int[rowsOfA.length];
+        Arrays.fill(rowOfB, -1);
+        Arrays.fill(rowOfA, -1);
+    }
+
+    int getCachedRows() {
+        return cachedRows;
+    }
+
+    /**
+     * Points the costs at a new pair of point clouds. The arrays are read, not copied, so they must not change while
+     * the instance is being solved.
+     */
+    void setPoints(double[] supplyX, double[] supplyY, double[] demandX, double[] demandY, boolean useSquaredEuclidean) {
+        this.supplyX = supplyX;
+        this.supplyY = supplyY;
+        this.demandX = demandX;
+        this.demandY = demandY;
+        this.useSquaredEuclidean = useSquaredEuclidean;
+        this.invalidate();
+    }
+
+    /**
+     * Sets the factor every distance is multiplied by before it is rounded down to a scaled cost.
+     */
+    void setScale(double scale) {
+        this.scale = scale;
+        this.invalidate();
+    }
+
+    /**
+     * @return the unscaled cost of the edge between the ath demand point and the bth supply point
+     */
+    double distance(int a, int b) {
+        double dx = demandX[a] - supplyX[b];
+        double dy = demandY[a] - supplyY[b];
+        double squaredDistance = dx*dx + dy*dy;
+        return useSquaredEuclidean ? squaredDistance : Math.sqrt(squaredDistance);
+    }
+
+    /**
+     * @return the largest unscaled cost of any edge, NaN if a coordinate is NaN
+     */
+    double maxDistance() {
+        double max = 0;
+        for (int a = 0; a < numA; a++) {
+            for (int b = 0; b < numB; b++) {
+                double dx = demandX[a] - supplyX[b];
+                double dy = demandY[a] - supplyY[b];
+                max = Math.max(max, dx*dx + dy*dy);
+            }
+        }
+        // The square root is monotone, so the longest edge is the one with the largest squared length.
+        return useSquaredEuclidean ? max : Math.sqrt(max);
+    }
+
+    /**
+     * @return the scaled cost of the edge between the ath demand point and the bth supply point
+     */
+    long cost(int a, int b) {
+        return (long)(this.distance(a, b) * scale);
+    }
+
+    /**
+     * @return the scaled costs of the edges out of the bth supply point, indexed by demand point
+     */
+    long[] costsFromB(int b) {
+        int slot = b % rowsOfB.length;
+        long[] row = rowsOfB[slot];
+        if (rowOfB[slot] != b) {
+            double x = supplyX[b];
+            double y = supplyY[b];
+            for (int a = 0; a < numA; a++) {
+                double dx = demandX[a] - x;
+                double dy = demandY[a] - y;
+                double squaredDistance = dx*dx + dy*dy;
+                row[a] = (long)((useSquaredEuclidean ? squaredDistance : Math.sqrt(squaredDistance)) * scale);
+            }
+            rowOfB[slot] = cachedRows > 0 ? b : -1;
+        }
+        return row;
+    }
+
+    /**
+     * @return the scaled costs of the edges out of the ath demand point, indexed by supply point
+     */
+    long[] costsFromA(int a) {
+        int slot = a % rowsOfA.length;
+        long[] row = rowsOfA[slot];
+        if (rowOfA[slot] != a) {
+            double x = demandX[a];
+            double y = demandY[a];
+            for (int b = 0; b < numB; b++) {
+                double dx = x - supplyX[b];
+                double dy = y - supplyY[b];
+                double squaredDistance = dx*dx + dy*dy;
+                row[b] = (long)((useSquaredEuclidean ? squaredDistance : Math.sqrt(squaredDistance)) * scale);
+            }
+            rowOfA[slot] = cachedRows > 0 ? a : -1;
+        }
+        return row;
+    }
+
+    private void invalidate() {
+        Arrays.fill(rowOfB, -1);
+        Arrays.fill(rowOfA, -1);
+    }
+}
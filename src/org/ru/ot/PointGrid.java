@@ -0,0 +1,181 @@
+package org.ru.ot;
+
+import java.util.Arrays;
+
+/**
+ * A uniform grid over a set of points in the plane, for finding the points near a query point without measuring the
+ * distance to every one of them. Cells are sized to hold about two points each, and a query scans square rings of
+ * cells around the query point until no unscanned cell can hold anything closer than what it already found.
+ *
+ * Queries share scratch space, so a grid is not thread safe.
+ */
+class PointGrid {
+    private final double[] x;
+    private final double[] y;
+    private final double minX;
+    private final double minY;
+    private final double cellSize;
+    private final int columns;
+    private final int rows;
+    // The points of cell c are cellPoints[cellStart[c]] .. cellPoints[cellStart[c + 1] - 1], cells numbered row by row.
+    private final int[] cellStart;
+    private final int[] cellPoints;
+
+    // Max-heap on distance of the nearest points found so far that are outside the query radius.
+    private final int[] nearest;
+    private final double[] nearestDistance;
+    private int numNearest;
+
+    PointGrid(double[] x, double[] y, int count) {
+        this.x = x;
+        this.y = y;
+
+        double minX = Double.MAX_VALUE, minY = Double.MAX_VALUE, maxX = -Double.MAX_VALUE, maxY = -Double.MAX_VALUE;
+        for (int i = 0; i < count; i++) {
+            minX = Double.min(minX, x[i]);
+            minY = Double.min(minY, y[i]);
+            maxX = Double.max(maxX, x[i]);
+            maxY = Double.max(maxY, y[i]);
+        }
+        if (count == 0) {
+            minX = minY = maxX = maxY = 0;
+        }
+        this.minX = minX;
+        this.minY = minY;
+
+        double width = maxX - minX;
+        double height = maxY - minY;
+        double cellSize = Math.sqrt(2. * Double.max(width, 1e-9) * Double.max(height, 1e-9) / Integer.max(count, 1));
+        // A degenerate (collinear) cloud would otherwise get tiny cells along the short side.
+        cellSize = Double.max(cellSize, Double.max(width, height) / Integer.max(count, 1));
+        this.cellSize = cellSize > 0 ? cellSize : 1;
+        this.columns = (int)(width / this.cellSize) + 1;
+        this.rows = (int)(height / this.cellSize) + 1;
+
+        this.cellStart = new int[columns*rows + 1];
+        for (int i = 0; i < count; i++) {
+            cellStart[cellOf(x[i], y[i]) + 1]++;
+        }
+        for (int c = 0; c < columns*rows; c++) {
+            cellStart[c + 1] += cellStart[c];
+        }
+        this.cellPoints = new int[count];
+        int[] fill = Arrays.copyOf(cellStart, columns*rows);
+        for (int i = 0; i < count; i++) {
+            cellPoints[fill[cellOf(x[i], y[i])]++] = i;
+        }
+
+        this.nearest = new int[count];
+        this.nearestDistance = new double[count];
+    }
+
+    /**
+     * Finds every point within `radius` of (px, py), or the `k` points nearest to (px, py) if there are fewer than
+     * `k` within the radius.
+     * @param out receives the indices of the points found, in no particular order. Must fit every point of the grid.
+     * @return how many indices were written to `out`
+     */
+    int query(double px, double py, int k, double radius, int[] out) {
+        int found = 0;
+        numNearest = 0;
+        int cx = clamp((int)((px - minX) / cellSize), columns);
+        int cy = clamp((int)((py - minY) / cellSize), rows);
+        int lastRing = Integer.max(Integer.max(cx, columns - 1 - cx), Integer.max(cy, rows - 1 - cy));
+
+        for (int ring = 0; ring <= lastRing; ring++) {
+            for (int gy = cy - ring; gy <= cy + ring; gy++) {
+                if (gy < 0 || gy >= rows) {
+                    continue;
+                }
+                // Only the border of the ring is new: the whole first and last row, just the ends of the others.
+                int step = (gy == cy - ring || gy == cy + ring) ? 1 : Integer.max(2*ring, 1);
+                for (int gx = cx - ring; gx <= cx + ring; gx += step) {
+                    if (gx < 0 || gx >= columns) {
+                        continue;
+                    }
+                    int cell = gy*columns + gx;
+                    for (int p = cellStart[cell]; p < cellStart[cell + 1]; p++) {
+                        int i = cellPoints[p];
+                        double dx = x[i] - px;
+                        double dy = y[i] - py;
+                        double distance = Math.sqrt(dx*dx + dy*dy);
+                        if (distance <= radius) {
+                            out[found++] = i;
+                        } else {
+                            offer(i, distance, k);
+                        }
+                    }
+                }
+            }
+            // Every cell outside this ring is at least ring * cellSize away from the query point.
+            double reach = ring * cellSize;
+            boolean enoughNearest = found >= k || (found + numNearest >= k && nearestDistance[0] <= reach);
+            if (reach >= radius && enoughNearest) {
+                break;
+            }
+        }
+
+        if (found < k) {
+            // Keep the k - found nearest of the points outside the radius. The heap holds at most k of them.
+            int wanted = Integer.min(k - found, numNearest);
+            while (numNearest > wanted) {
+                removeFarthest();
+            }
+            for (int j = 0; j < numNearest; j++) {
+                out[found++] = nearest[j];
+            }
+        }
+        return found;
+    }
+
+    private int cellOf(double px, double py) {
+        return clamp((int)((py - minY) / cellSize), rows)*columns + clamp((int)((px - minX) / cellSize), columns);
+    }
+
+    private static int clamp(int cell, int cells) {
+        return Integer.min(Integer.max(cell, 0), cells - 1);
+    }
+
+    // Adds point i to the heap of nearest points if it is one of the k nearest seen so far.
+    private void offer(int i, double distance, int k) {
+        if (numNearest == k) {
+            if (k == 0 || distance >= nearestDistance[0]) {
+                return;
+            }
+            removeFarthest();
+        }
+        int slot = numNearest++;
+        while (slot > 0) {
+            int parent = (slot - 1) >>> 1;
+            if (nearestDistance[parent] >= distance) {
+                break;
+            }
+            nearest[slot] = nearest[parent];
+            nearestDistance[slot] = nearestDistance[parent];
+            slot = parent;
+        }
+        nearest[slot] = i;
+        nearestDistance[slot] = distance;
+    }
+
+    private void removeFarthest() {
+        numNearest--;
+        int last = nearest[numNearest];
+        double lastDistance = nearestDistance[numNearest];
+        int slot = 0;
+        while (2*slot + 1 < numNearest) {
+            int child = 2*slot + 1;
+            if (child + 1 < numNearest && nearestDistance[child + 1] > nearestDistance[child]) {
+                child++;
+            }
+            if (nearestDistance[child] <= lastDistance) {
+                break;
+            }
+            nearest[slot] = nearest[child];
+            nearestDistance[slot] = nearestDistance[child];
+            slot = child;
+        }
+        nearest[slot] = last;
+        nearestDistance[slot] = lastDistance;
+    }
+}
@@ -0,0 +1,118 @@
+package org.ru.ot;
+
+import java.util.Arrays;
+
+/**
+ * A weighted point cloud pooled into square cells: every occupied cell becomes a single point at the center of mass of
+ * the points in it, carrying their total mass. The points of each cell, its children, are kept, so that a plan between
+ * two pooled clouds can be refined into edges between their points.
+ *
+ * Only used by {@link SparseMapping}, which keeps one per side and pools into it on every multi-scale solve.
+ */
+final class PooledCloud {
+    private int numCells;
+    private double[] x = new double[0];
+    private double[] y = new double[0];
+    private double[] mass = new double[0];
+    // The children of cell c are children[childStart[c]] .. children[childStart[c + 1] - 1], and point p lies in
+    // cellOf[p].
+    private int[] childStart = new int[1];
+    private int[] children = new int[0];
+    private int[] cellOf = new int[0];
+    private long[] sortKeys = new long[0];
+
+    /**
+     * Pools the first `count` points, where point p is at (pointX[p], pointY[p]) and has mass masses[index[p]].
+     * @param cellSize the side of a cell, in the units of the coordinates
+     */
+    void pool(double[] pointX, double[] pointY, double[] masses, int[] index, int count, double cellSize) {
+        double minX = Double.MAX_VALUE, minY = Double.MAX_VALUE, maxX = -Double.MAX_VALUE, maxY = -Double.MAX_VALUE;
+        for (int p = 0; p < count; p++) {
+            minX = Double.min(minX, pointX[p]);
+            minY = Double.min(minY, pointY[p]);
+            maxX = Double.max(maxX, pointX[p]);
+            maxY = Double.max(maxY, pointY[p]);
+        }
+        long columns = count > 0 ? (long)((maxX - minX) / cellSize) + 1 : 1;
+        long rows = count > 0 ? (long)((maxY - minY) / cellSize) + 1 : 1;
+        if (columns * rows > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Cells of size " + cellSize + " are too small for points spread over "
+                    + (maxX - minX) + " x " + (maxY - minY));
+        }
+
+        // Sorting by cell number, with the point index in the low half of the key, groups the points by cell.
+        if (sortKeys.length < count) {
+            sortKeys = new long[count];
+            cellOf = new int[count];
+            children = new int[count];
+        }
+        for (int p = 0; p < count; p++) {
+            long cell = (long)((pointY[p] - minY) / cellSize) * columns + (long)((pointX[p] - minX) / cellSize);
+            sortKeys[p] = (cell << 32) | p;
+        }
+        Arrays.sort(sortKeys, 0, count);
+
+        // The pooled points are handed to a solver that takes the length of its arrays as the number of points, so
+        // they are sized exactly. Pooled clouds are small, this is cheap.
+        numCells = 0;
+        for (int t = 0; t < count; t++) {
+            if (t == 0 || sortKeys[t] >>> 32 != sortKeys[t - 1] >>> 32) {
+                numCells++;
+            }
+        }
+        x = new double[numCells];
+        y = new double[numCells];
+        mass = new double[numCells];
+        childStart = new int[numCells + 1];
+        int cell = -1;
+        for (int t = 0; t < count; t++) {
+            if (t == 0 || sortKeys[t] >>> 32 != sortKeys[t - 1] >>> 32) {
+                childStart[++cell] = t;
+            }
+            int p = (int)sortKeys[t];
+            children[t] = p;
+            cellOf[p] = cell;
+            double m = masses[index[p]];
+            x[cell] += m * pointX[p];
+            y[cell] += m * pointY[p];
+            mass[cell] += m;
+        }
+        childStart[numCells] = count;
+        for (int c = 0; c < numCells; c++) {
+            x[c] /= mass[c];
+            y[c] /= mass[c];
+        }
+    }
+
+    int getNumCells() {
+        return numCells;
+    }
+
+    double[] getX() {
+        return x;
+    }
+
+    double[] getY() {
+        return y;
+    }
+
+    double[] getMasses() {
+        return mass;
+    }
+
+    int getCellOf(int point) {
+        return cellOf[point];
+    }
+
+    int getChildStart(int cell) {
+        return childStart[cell];
+    }
+
+    int getChildEnd(int cell) {
+        return childStart[cell + 1];
+    }
+
+    int getChild(int t) {
+        return children[t];
+    }
+}
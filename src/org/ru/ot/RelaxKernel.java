@@ -0,0 +1,81 @@
+package org.ru.ot;
+
+/**
+ * The inner loop of the Dijkstra search in {@link GTTransport}: scanning every edge out of the vertex that was just
+ * added to the shortest path tree and finding the neighbors whose tentative distance it improves. The neighbors found
+ * are written to `improved` in increasing order, with their new distances at the same positions of `improvedDist`,
+ * and GTTransport relaxes them in the priority queue afterwards.
+ *
+ * {@link RelaxKernel#create()} uses the scalar implementation unless asked for the SIMD one built on the incubating
+ * Vector API, with `-Dorg.ru.ot.vectorRelax=true`. That one also needs the JVM to be started with
+ * `--add-modules jdk.incubator.vector` and the class to be compiled (it lives in the separate src-incubator root,
+ * since compiling it needs the same flag); if anything about loading it fails, the scalar implementation is used.
+ * Both find exactly the same neighbors. The SIMD kernel is opt-in because on images the size of MNIST digits it
+ * measured slower, both per scan and over whole solves: most of its blocks are skipped or written out lane by lane.
+ */
+interface RelaxKernel {
+    /**
+     * Scans the edges out of a vertex b of B: a is improved if capacityBA[bRow + a] > 0 and
+     * base + costs[costRow + a] - y[numB + a] < lv[numB + a].
+     * @param base lv[b] + 1 - y[b]
+     * @param costs the costs out of b start at costRow: the cost matrix, or a row computed on the fly
+     * @param improved receives the improved vertices of A as indices into lv (that is, with the numB offset)
+     * @return how many vertices were improved
+     */
+    int relaxFromB(long base, int bRow, int[] capacityBA, int[] costs, int costRow, long[] y, long[] lv, int numB,
+                   int numA, int[] improved, long[] improvedDist);
+
+    /**
+     * Like {@link RelaxKernel#relaxFromB(long, int, int[], int[], int, long[], long[], int, int, int[], long[])}, for
+     * costs too large for an int.
+     */
+    int relaxFromB(long base, int bRow, int[] capacityBA, long[] costs, int costRow, long[] y, long[] lv, int numB,
+                   int numA, int[] improved, long[] improvedDist);
+
+    /**
+     * Scans the edges out of a vertex a of A: b is improved if capacityAB[aRow + b] > 0 and
+     * base + y[b] - cost(b) < lv[b], where cost(b) is costs[costRow + costOffsets[b]], or costs[costRow + b] if
+     * costOffsets is null.
+     * @param base lv[numB + a] + y[numB + a]
+     * @param costs the costs out of a: a column of the cost matrix, read through costOffsets, or a row computed on
+     *              the fly
+     * @return how many vertices were improved
+     */
+    int relaxFromA(long base, int aRow, int[] capacityAB, int[] costs, int costRow, int[] costOffsets, long[] y,
+                   long[] lv, int numB, int[] improved, long[] improvedDist);
+
+    /**
+     * Like {@link RelaxKernel#relaxFromA(long, int, int[], int[], int, int[], long[], long[], int, int[], long[])},
+     * for costs too large for an int.
+     */
+    int relaxFromA(long base, int aRow, int[] capacityAB, long[] costs, int costRow, int[] costOffsets, long[] y,
+                   long[] lv, int numB, int[] improved, long[] improvedDist);
+
+    /**
+     * The system property that asks {@link RelaxKernel#create()} for the Vector API kernel.
+     */
+    String VECTOR_PROPERTY = "org.ru.ot.vectorRelax";
+
+    /**
+     * @return the Vector API kernel if {@link RelaxKernel#VECTOR_PROPERTY} is true and it can be loaded, the scalar
+     * kernel otherwise
+     */
+    static RelaxKernel create() {
+        RelaxKernel vector = Boolean.getBoolean(VECTOR_PROPERTY) ? loadVector() : null;
+        return vector != null ? vector : new ScalarRelaxKernel();
+    }
+
+    /**
+     * @return the Vector API kernel, or null if it cannot be loaded
+     */
+    static RelaxKernel loadVector() {
+        if (ModuleLayer.boot().findModule("jdk.incubator.vector").isPresent()) {
+            try {
+                return (RelaxKernel) Class.forName("org.ru.ot.VectorRelaxKernel").getDeclaredConstructor().newInstance();
+            } catch (ReflectiveOperationException | LinkageError e) {
+                // Not compiled in, or compiled against an incompatible version of the module.
+            }
+        }
+        return null;
+    }
+}
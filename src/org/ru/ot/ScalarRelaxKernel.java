@@ -0,0 +1,78 @@
+package org.ru.ot;
+
+/**
+ * The plain loops of {@link RelaxKernel}, for JVMs without the Vector API.
+ */
+class ScalarRelaxKernel implements RelaxKernel {
+    @Override
+    public int relaxFromB(long base, int bRow, int[] capacityBA, int[] costs, int costRow, long[] y, long[] lv,
+                          int numB, int numA, int[] improved, long[] improvedDist) {
+        int count = 0;
+        for (int a = 0; a < numA; a++) {
+            if (capacityBA[bRow + a] > 0) {
+                int aIndex = a + numB;
+                long newDist = base + costs[costRow + a] - y[aIndex];
+                if (newDist < lv[aIndex]) {
+                    improved[count] = aIndex;
+                    improvedDist[count] = newDist;
+                    count++;
+                }
+            }
+        }
+        return count;
+    }
+
+    @Override
+    public int relaxFromB(long base, int bRow, int[] capacityBA, long[] costs, int costRow, long[] y, long[] lv,
+                          int numB, int numA, int[] improved, long[] improvedDist) {
+        int count = 0;
+        for (int a = 0; a < numA; a++) {
+            if (capacityBA[bRow + a] > 0) {
+                int aIndex = a + numB;
+                long newDist = base + costs[costRow + a] - y[aIndex];
+                if (newDist < lv[aIndex]) {
+                    improved[count] = aIndex;
+                    improvedDist[count] = newDist;
+                    count++;
+                }
+            }
+        }
+        return count;
+    }
+
+    @Override
+    public int relaxFromA(long base, int aRow, int[] capacityAB, int[] costs, int costRow, int[] costOffsets,
+                          long[] y, long[] lv, int numB, int[] improved, long[] improvedDist) {
+        int count = 0;
+        for (int b = 0; b < numB; b++) {
+            if (capacityAB[aRow + b] > 0) {
+                int cost = costOffsets == null ? costs[costRow + b] : costs[costRow + costOffsets[b]];
+                long newDist = base + y[b] - cost;
+                if (newDist < lv[b]) {
+                    improved[count] = b;
+                    improvedDist[count] = newDist;
+                    count++;
+                }
+            }
+        }
+        return count;
+    }
+
+    @Override
+    public int relaxFromA(long base, int aRow, int[] capacityAB, long[] costs, int costRow, int[] costOffsets,
+                          long[] y, long[] lv, int numB, int[] improved, long[] improvedDist) {
+        int count = 0;
+        for (int b = 0; b < numB; b++) {
+            if (capacityAB[aRow + b] > 0) {
+                long cost = costOffsets == null ? costs[costRow + b] : costs[costRow + costOffsets[b]];
+                long newDist = base + y[b] - cost;
+                if (newDist < lv[b]) {
+                    improved[count] = b;
+                    improvedDist[count] = newDist;
+                    count++;
+                }
+            }
+        }
+        return count;
+    }
+}
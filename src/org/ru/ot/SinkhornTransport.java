@@ -0,0 +1,371 @@
+package org.ru.ot;
+
+import java.util.Arrays;
+
+/**
+ * Entropy regularized optimal transport, solved with log-domain stabilized Sinkhorn iterations.
+ *
+ * Instead of the exact problem, this solves min <P, C> - eps * H(P) over plans P with the requested marginals. The
+ * optimal plan has the form P[i][j] = exp((f[i] + g[j] - C[i][j]) / eps), and Sinkhorn alternately picks the dual
+ * potentials g and f so that the column sums and then the row sums of P are exactly right.
+ *
+ * The potentials are kept in the log domain and only small corrections u, v to them are iterated with plain dense
+ * matrix-vector products against the kernel exp((f + g - C) / eps). Whenever the corrections grow too large they are
+ * absorbed into the potentials (Schmitzer, https://arxiv.org/abs/1610.06519), so small values of eps do not
+ * overflow or underflow the way a plain u/v scaling does. eps is lowered geometrically ("epsilon scaling") from the
+ * largest cost down to the target, which keeps the number of iterations spent at the small final eps low.
+ *
+ * The final plan is rounded onto the feasible set with Algorithm 2 of Altschuler, Weed and Rigollet
+ * (https://arxiv.org/abs/1705.09634). Their worst case parameters (eps = delta / (4 ln n), marginal error below
+ * delta / (8 max C)) need thousands of iterations on MNIST sized clouds, far more than Gabow-Tarjan takes. This uses
+ * eps = delta / 2 and stops once the marginals are within delta / (max C), which bounds the rounding error by 2 delta.
+ * The entropic bias has no comparably tight bound, in practice the cost lands within delta of the Gabow-Tarjan cost.
+ */
+public class SinkhornTransport implements TransportSolver {
+    // Safety net so a badly conditioned instance cannot spin forever.
+    private static final int MAX_ITERATIONS = 10_000;
+    // The scalings u and v are folded back into the potentials once they leave [1 / bound, bound].
+    private static final double ABSORPTION_BOUND = 1e50;
+
+    // Sized for numDemands rows (the vertices of A) and numSupplies columns (the vertices of B).
+    private int numDemands = -1;
+    private int numSupplies = -1;
+    private double[] f;
+    private double[] g;
+    private double[] u;
+    private double[] v;
+    // Row-major numDemands x numSupplies Gibbs kernel exp((f[i] + g[j] - C[i][j]) / eps).
+    private double[] kernel;
+    private double[] logDemands;
+    private double[] logSupplies;
+    private double[] columnMax;
+    private double[] columnSum;
+    private double[] rowSums;
+    private double[][] flow;
+
+    private double totalCost;
+    private double marginalError;
+    private double timeTaken;
+    private int iterations;
+
+    @Override
+    public double solve(int numSupplies, int numDemands, double[] supplies, double[] demands, double[][] C,
+                        double delta) {
+        long startTime = System.currentTimeMillis();
+        this.ensureSize(numSupplies, numDemands);
+        int m = numDemands;
+        int n = numSupplies;
+
+        double maxCost = 0;
+        for (int i = 0; i < m; i++) {
+            for (int j = 0; j < n; j++) {
+                maxCost = Double.max(maxCost, C[i][j]);
+            }
+        }
+
+        // Zero mass vertices get a potential of -Infinity, which zeroes their row or column of the plan.
+        // Math.exp(-Infinity) == 0, so they drop out of every sum below on their own.
+        for (int i = 0; i < m; i++) {
+            logDemands[i] = Math.log(demands[i]);
+            f[i] = demands[i] > 0 ? 0 : Double.NEGATIVE_INFINITY;
+            u[i] = 1;
+        }
+        for (int j = 0; j < n; j++) {
+            logSupplies[j] = Math.log(supplies[j]);
+            g[j] = supplies[j] > 0 ? 0 : Double.NEGATIVE_INFINITY;
+            v[j] = 1;
+        }
+
+        double targetEps = delta / 2.;
+        double tolerance = maxCost > 0 ? delta / maxCost : Double.MAX_VALUE;
+        double eps = Double.max(maxCost, targetEps);
+
+        this.iterations = 0;
+        while (true) {
+            // At intermediate values of eps only a rough fit is needed before eps is lowered again.
+            double stageTolerance = eps == targetEps ? tolerance : Double.max(tolerance, 0.1);
+            this.marginalError = this.iterate(m, n, C, supplies, demands, eps, stageTolerance);
+            if (eps == targetEps || this.iterations >= MAX_ITERATIONS) {
+                break;
+            }
+            eps = Double.max(eps / 4., targetEps);
+        }
+
+        this.buildFlow(m, n);
+        this.roundToFeasible(m, n, supplies, demands);
+
+        this.totalCost = 0;
+        for (int i = 0; i < m; i++) {
+            for (int j = 0; j < n; j++) {
+                totalCost += flow[i][j] * C[i][j];
+            }
+        }
+
+        this.timeTaken = (System.currentTimeMillis() - startTime) / 1000.;
+        return totalCost;
+    }
+
+    /**
+     * Runs Sinkhorn updates on the m x n instance at a fixed eps until the row marginals are within `tolerance` (the
+     * column marginals are exact after every update of v).
+     *
+     * Between absorptions the plan is P[i][j] = u[i] * K[i][j] * v[j] with K = exp((f[i] + g[j] - C[i][j]) / eps),
+     * so an update is a pair of dense matrix-vector products with no calls to exp or log. Once u or v drift too far
+     * from 1 they are absorbed back into the potentials and K is rebuilt.
+     * @return the L1 marginal error after the last update
+     */
+    private double iterate(int m, int n, double[][] C, double[] supplies, double[] demands, double eps,
+                           double tolerance) {
+        this.absorb(m, n, C, eps);
+        double error = Double.MAX_VALUE;
+        while (this.iterations < MAX_ITERATIONS) {
+            this.iterations++;
+
+            // v[j] = b[j] / sum_i K[i][j] u[i], accumulated row by row so that K is only ever read along its rows.
+            Arrays.fill(columnSum, 0, n, 0.0);
+            for (int i = 0; i < m; i++) {
+                double ui = u[i];
+                if (ui == 0) {
+                    continue;
+                }
+                int row = i*n;
+                for (int j = 0; j < n; j++) {
+                    columnSum[j] += kernel[row + j] * ui;
+                }
+            }
+            boolean degenerate = false;
+            for (int j = 0; j < n; j++) {
+                v[j] = supplies[j] > 0 ? supplies[j] / columnSum[j] : 0;
+                degenerate |= !Double.isFinite(v[j]);
+            }
+
+            // u[i] = a[i] / sum_j K[i][j] v[j]. Before u is overwritten, u[i] times that sum is the current row sum
+            // of the plan, which gives the marginal error for free.
+            error = 0;
+            for (int i = 0; i < m; i++) {
+                if (demands[i] == 0) {
+                    continue;
+                }
+                int row = i*n;
+                double rowSum = 0;
+                for (int j = 0; j < n; j++) {
+                    rowSum += kernel[row + j] * v[j];
+                }
+                error += Math.abs(u[i] * rowSum - demands[i]);
+                u[i] = demands[i] / rowSum;
+                degenerate |= !Double.isFinite(u[i]);
+            }
+
+            if (degenerate) {
+                // Some row or column of K underflowed to 0. Redo this update in the log domain, where nothing can
+                // underflow, and rebuild K around the new potentials.
+                this.logDomainUpdate(m, n, C, eps);
+                this.absorb(m, n, C, eps);
+                error = Double.MAX_VALUE;
+                continue;
+            }
+            if (error <= tolerance) {
+                break;
+            }
+            if (this.needsAbsorption(m, n)) {
+                this.absorb(m, n, C, eps);
+            }
+        }
+        this.absorb(m, n, C, eps);
+        return error;
+    }
+
+    private boolean needsAbsorption(int m, int n) {
+        for (int i = 0; i < m; i++) {
+            if (u[i] > ABSORPTION_BOUND || (u[i] != 0 && u[i] < 1 / ABSORPTION_BOUND)) {
+                return true;
+            }
+        }
+        for (int j = 0; j < n; j++) {
+            if (v[j] > ABSORPTION_BOUND || (v[j] != 0 && v[j] < 1 / ABSORPTION_BOUND)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Folds the scalings u and v into the potentials f and g, resets the scalings to 1 and rebuilds the kernel.
+     */
+    private void absorb(int m, int n, double[][] C, double eps) {
+        for (int i = 0; i < m; i++) {
+            if (u[i] != 1) {
+                f[i] += eps * Math.log(u[i]);
+                u[i] = 1;
+            }
+        }
+        for (int j = 0; j < n; j++) {
+            if (v[j] != 1) {
+                g[j] += eps * Math.log(v[j]);
+                v[j] = 1;
+            }
+        }
+        for (int i = 0; i < m; i++) {
+            double fi = f[i];
+            double[] costRow = C[i];
+            int row = i*n;
+            for (int j = 0; j < n; j++) {
+                kernel[row + j] = Math.exp((fi + g[j] - costRow[j]) / eps);
+            }
+        }
+    }
+
+    /**
+     * One Sinkhorn update carried out directly on the potentials with max-shifted log-sum-exps. Slower than the
+     * scaling update, but it cannot underflow.
+     * @precondition u and v have been absorbed
+     */
+    private void logDomainUpdate(int m, int n, double[][] C, double eps) {
+        // g[j] = eps * log(b[j]) - eps * log(sum_i exp((f[i] - C[i][j]) / eps))
+        Arrays.fill(columnMax, 0, n, Double.NEGATIVE_INFINITY);
+        for (int i = 0; i < m; i++) {
+            double fi = f[i];
+            double[] row = C[i];
+            for (int j = 0; j < n; j++) {
+                columnMax[j] = Double.max(columnMax[j], fi - row[j]);
+            }
+        }
+        Arrays.fill(columnSum, 0, n, 0.0);
+        for (int i = 0; i < m; i++) {
+            double fi = f[i];
+            double[] row = C[i];
+            for (int j = 0; j < n; j++) {
+                columnSum[j] += Math.exp((fi - row[j] - columnMax[j]) / eps);
+            }
+        }
+        for (int j = 0; j < n; j++) {
+            g[j] = eps * logSupplies[j] - columnMax[j] - eps * Math.log(columnSum[j]);
+        }
+
+        // f[i] = eps * log(a[i]) - eps * log(sum_j exp((g[j] - C[i][j]) / eps))
+        for (int i = 0; i < m; i++) {
+            if (f[i] == Double.NEGATIVE_INFINITY) {
+                continue;
+            }
+            double[] row = C[i];
+            double rowMax = Double.NEGATIVE_INFINITY;
+            for (int j = 0; j < n; j++) {
+                rowMax = Double.max(rowMax, g[j] - row[j]);
+            }
+            double rowSum = 0;
+            for (int j = 0; j < n; j++) {
+                rowSum += Math.exp((g[j] - row[j] - rowMax) / eps);
+            }
+            f[i] = eps * logDemands[i] - rowMax - eps * Math.log(rowSum);
+        }
+    }
+
+    private void buildFlow(int m, int n) {
+        // iterate always finishes with an absorption, so the plan is just the kernel.
+        for (int i = 0; i < m; i++) {
+            System.arraycopy(kernel, i*n, flow[i], 0, n);
+        }
+    }
+
+    /**
+     * Algorithm 2 of Altschuler, Weed and Rigollet: scale down the rows and columns that carry too much mass, then
+     * spread the remaining deficit with a rank one update. The result has exactly the requested marginals.
+     */
+    private void roundToFeasible(int m, int n, double[] supplies, double[] demands) {
+        for (int i = 0; i < m; i++) {
+            double rowSum = 0;
+            for (int j = 0; j < n; j++) {
+                rowSum += flow[i][j];
+            }
+            if (rowSum > demands[i]) {
+                double scale = demands[i] / rowSum;
+                for (int j = 0; j < n; j++) {
+                    flow[i][j] *= scale;
+                }
+            }
+        }
+
+        Arrays.fill(columnSum, 0, n, 0.0);
+        for (int i = 0; i < m; i++) {
+            for (int j = 0; j < n; j++) {
+                columnSum[j] += flow[i][j];
+            }
+        }
+        for (int j = 0; j < n; j++) {
+            // columnMax is free at this point, reuse it to hold the column scale factors.
+            columnMax[j] = columnSum[j] > supplies[j] ? supplies[j] / columnSum[j] : 1.0;
+        }
+        Arrays.fill(columnSum, 0, n, 0.0);
+        for (int i = 0; i < m; i++) {
+            double rowSum = 0;
+            for (int j = 0; j < n; j++) {
+                flow[i][j] *= columnMax[j];
+                rowSum += flow[i][j];
+                columnSum[j] += flow[i][j];
+            }
+            rowSums[i] = demands[i] - rowSum;
+        }
+
+        double columnDeficit = 0;
+        for (int j = 0; j < n; j++) {
+            columnSum[j] = supplies[j] - columnSum[j];
+            columnDeficit += columnSum[j];
+        }
+        if (columnDeficit <= 0) {
+            return;
+        }
+        for (int i = 0; i < m; i++) {
+            double rowDeficit = rowSums[i];
+            if (rowDeficit <= 0) {
+                continue;
+            }
+            for (int j = 0; j < n; j++) {
+                flow[i][j] += rowDeficit * columnSum[j] / columnDeficit;
+            }
+        }
+    }
+
+    private void ensureSize(int numSupplies, int numDemands) {
+        if (numSupplies == this.numSupplies && numDemands == this.numDemands) {
+            return;
+        }
+        this.numSupplies = numSupplies;
+        this.numDemands = numDemands;
+        this.f = new double[numDemands];
+        this.g = new double[numSupplies];
+        this.u = new double[numDemands];
+        this.v = new double[numSupplies];
+        this.kernel = new double[numDemands*numSupplies];
+        this.logDemands = new double[numDemands];
+        this.logSupplies = new double[numSupplies];
+        this.columnMax = new double[numSupplies];
+        this.columnSum = new double[numSupplies];
+        this.rowSums = new double[numDemands];
+        this.flow = new double[numDemands][numSupplies];
+    }
+
+    @Override
+    public double[][] getFlow() {
+        return flow;
+    }
+
+    @Override
+    public double getTotalCost() {
+        return totalCost;
+    }
+
+    @Override
+    public int getIterations() {
+        return iterations;
+    }
+
+    @Override
+    public double getMarginalError() {
+        return marginalError;
+    }
+
+    @Override
+    public double getTimeTaken() {
+        return timeTaken;
+    }
+}
@@ -0,0 +1,436 @@
+package org.ru.ot;
+
+import java.util.Arrays;
+import java.util.function.ToDoubleFunction;
+
+/**
+ * The Gabow-Tarjan transportation algorithm of {@link GTTransport}, run on a sparse bipartite graph kept as adjacency
+ * lists instead of on the complete graph. Memory is linear in the number of edges rather than quadratic in the number
+ * of vertices, and the supply side B and the demand side A may have different sizes.
+ *
+ * Only the edges passed to {@link SparseGTTransport#setGraph} can carry flow. The complete graph always has an
+ * augmenting path while supply is left, a sparse one might not; solve then stops and reports it so that the caller can
+ * add edges and try again.
+ *
+ * Like GTTransport, a solve can be capped at a number of phases and stopped at a cost ceiling. The duals of a sparse
+ * graph bound only the cost of plans on that graph, so the lower bound checked against the ceiling is supplied by the
+ * caller, who knows the costs of the edges left out, see {@link SparseGTTransport#setCostCeiling}.
+ *
+ * Vertices follow the convention of GTTransport: B is 0 .. numB - 1 and A is numB .. numB + numA - 1.
+ */
+class SparseGTTransport {
+    private int numB;
+    private int numA;
+
+    // Edges are numbered in the order of the adjacency lists of B: the edges of b are bStart[b] .. bStart[b + 1] - 1,
+    // and edge e runs between b = edgeB[e] and a = edgeA[e] (an index into A, without the numB offset).
+    private int[] bStart;
+    private int[] edgeB;
+    private int[] edgeA;
+    // The adjacency lists of A hold edge numbers: the edges of a are aEdge[aStart[a]] .. aEdge[aStart[a + 1] - 1].
+    private int[] aStart;
+    private int[] aEdge;
+
+    private long[] cost;
+    // Residual capacities of the edge from b to a (forward) and from a to b (backward, which is the flow).
+    private int[] forward;
+    private int[] flow;
+
+    // Duals and distances are longs, like those of GTTransport.
+    private long[] y;
+    private boolean[] bFree;
+    private boolean[] aFree;
+    private int[] freeB;
+    private int numFreeB;
+
+    private long[] lv;
+    private IndexedMinHeap queue;
+    private int[] touched;
+    private int numTouched;
+
+    // Position in its adjacency list of the next edge the DFS tries out of each vertex this phase.
+    private int[] nextEdge;
+    // The current DFS path: path[k] is a vertex, and pathEdge[k] the adjacency position leading from path[k] to
+    // path[k + 1] (an index into the edges of B, or into aEdge).
+    private int[] path;
+    private int[] pathEdge;
+
+    private int iterations;
+    // Sum over the vertices of A of unmatched demand times -y(a) after the last solve. See solve with initial duals.
+    private double freeDemandExcess;
+
+    //A solve stops early once lowerBound, applied to the duals, exceeds costCeiling, see setCostCeiling.
+    private double costCeiling = Double.POSITIVE_INFINITY;
+    private ToDoubleFunction<long[]> lowerBound;
+    private boolean exceededCeiling;
+    //A solve stops after maxPhases phases even if some supply is still unmatched, see setMaxPhases.
+    private int maxPhases = Integer.MAX_VALUE;
+    private boolean reachedPhaseLimit;
+    //The lower bound takes a pass over the complete graph, which costs far more than a phase over the sparse one, so
+    //it is checked less often than GTTransport checks its own.
+    private static final int BOUND_CHECK_INTERVAL = 16;
+
+    /**
+     * Replaces the graph. edgeA[bStart[b]] .. edgeA[bStart[b + 1] - 1] are the vertices of A adjacent to b, in
+     * increasing order. Both arrays are kept, not copied.
+     */
+    void setGraph(int numB, int numA, int[] bStart, int[] edgeA) {
+        int numVertices = numB + numA;
+        int numEdges = bStart[numB];
+        if (y == null || y.length != numVertices) {
+            y = new long[numVertices];
+            lv = new long[numVertices];
+            Arrays.fill(lv, Long.MAX_VALUE);
+            queue = new IndexedMinHeap(numVertices);
+            touched = new int[numVertices];
+            nextEdge = new int[numVertices];
+            path = new int[numVertices];
+            pathEdge = new int[numVertices];
+            numTouched = 0;
+        }
+        if (bFree == null || bFree.length != numB) {
+            bFree = new boolean[numB];
+            freeB = new int[numB];
+        }
+        if (aFree == null || aFree.length != numA) {
+            aFree = new boolean[numA];
+            aStart = new int[numA + 1];
+        }
+        if (edgeB == null || edgeB.length < numEdges) {
+            edgeB = new int[numEdges];
+            aEdge = new int[numEdges];
+            forward = new int[numEdges];
+            flow = new int[numEdges];
+        }
+        this.numB = numB;
+        this.numA = numA;
+        this.bStart = bStart;
+        this.edgeA = edgeA;
+
+        // Build the adjacency lists of A with a counting sort. Edges are visited in order of b, so each list
+        // comes out sorted by b, which keeps the DFS exploring in increasing vertex order like GTTransport.
+        Arrays.fill(aStart, 0);
+        for (int b = 0; b < numB; b++) {
+            for (int e = bStart[b]; e < bStart[b + 1]; e++) {
+                edgeB[e] = b;
+                aStart[edgeA[e] + 1]++;
+            }
+        }
+        for (int a = 0; a < numA; a++) {
+            aStart[a + 1] += aStart[a];
+        }
+        for (int e = 0; e < numEdges; e++) {
+            int a = edgeA[e];
+            aEdge[aStart[a]++] = e;
+        }
+        for (int a = numA; a > 0; a--) {
+            aStart[a] = aStart[a - 1];
+        }
+        aStart[0] = 0;
+    }
+
+    /**
+     * Solves the instance on the current graph. cost[e] is the integer cost of edge e. supplies and demands are
+     * consumed like in {@link GTTransport#solve}.
+     * @return false if some supply could not be matched because the graph has no augmenting path left for it
+     */
+    boolean solve(long[] cost, int[] supplies, int[] demands) {
+        return this.solve(cost, supplies, demands, null);
+    }
+
+    /**
+     * Solves the instance like {@link SparseGTTransport#solve(long[], int[], int[])}, but starts the duals of B from
+     * supplyDuals instead of from 0, like a coarser solve of the same instance would suggest. They must be
+     * non-negative. Every vertex of A starts at the largest dual its edges allow, so the duals are 1-feasible from
+     * the start and the phases pick up from there. Like {@link GTTransport#solveFromPrevious}, a vertex of A can be
+     * left with unmatched demand and a negative dual, and the plan is then worse than the usual guarantee by at most
+     * getFreeDemandExcess(), in units of scaled cost times scaled mass. null starts from 0 like solve.
+     * A solve stopped by the phase cap or the cost ceiling returns true, see reachedPhaseLimit and exceededCeiling.
+     */
+    boolean solve(long[] cost, int[] supplies, int[] demands, long[] supplyDuals) {
+        this.cost = cost;
+        iterations = 0;
+        freeDemandExcess = 0;
+        exceededCeiling = false;
+        reachedPhaseLimit = false;
+        int numEdges = bStart[numB];
+
+        Arrays.fill(y, 0);
+        for (int e = 0; e < numEdges; e++) {
+            forward[e] = Math.min(supplies[edgeB[e]], demands[edgeA[e]]);
+            flow[e] = 0;
+        }
+        if (supplyDuals != null) {
+            //Nothing carries flow yet, so only forward edges constrain the duals: y(b) + y(a) <= c(a, b) + 1.
+            System.arraycopy(supplyDuals, 0, y, 0, numB);
+            for (int a = 0; a < numA; a++) {
+                long ya = 0;
+                for (int k = aStart[a]; k < aStart[a + 1]; k++) {
+                    int e = aEdge[k];
+                    ya = Math.min(ya, cost[e] + 1 - y[edgeB[e]]);
+                }
+                y[numB + a] = ya;
+            }
+        }
+
+        int[] deficiencyB = supplies;
+        int[] deficiencyA = demands;
+        numFreeB = 0;
+        for (int b = 0; b < numB; b++) {
+            bFree[b] = deficiencyB[b] != 0;
+            if (bFree[b]) {
+                freeB[numFreeB++] = b;
+            }
+        }
+        for (int a = 0; a < numA; a++) {
+            aFree[a] = deficiencyA[a] != 0;
+        }
+
+        while (numFreeB > 0) {
+            if (iterations >= maxPhases) {
+                reachedPhaseLimit = true;
+                return true;
+            }
+            iterations++;
+            //Dijkstra from all free vertices of B, exactly as in GTTransport but over adjacency lists.
+            for (int t = 0; t < numTouched; t++) {
+                lv[touched[t]] = Long.MAX_VALUE;
+            }
+            numTouched = 0;
+            queue.clear();
+
+            long distAF = Long.MAX_VALUE;
+            for (int k = 0; k < numFreeB; k++) {
+                int b = freeB[k];
+                lv[b] = 0;
+                touched[numTouched++] = b;
+                queue.insertOrDecrease(b, 0);
+            }
+
+            while (!queue.isEmpty()) {
+                int v = queue.extractMin();
+                if (v < numB) {
+                    for (int e = bStart[v]; e < bStart[v + 1]; e++) {
+                        if (forward[e] > 0) {
+                            int aIndex = edgeA[e] + numB;
+                            long newDist = lv[v] + cost[e] + 1 - y[v] - y[aIndex];
+                            if (newDist < lv[aIndex]) {
+                                relax(aIndex, newDist);
+                            }
+                        }
+                    }
+                }
+                else {
+                    int a = v - numB;
+                    if (aFree[a]) {
+                        distAF = lv[v];
+                        break;
+                    }
+                    for (int k = aStart[a]; k < aStart[a + 1]; k++) {
+                        int e = aEdge[k];
+                        if (flow[e] > 0) {
+                            int b = edgeB[e];
+                            long newDist = lv[v] + y[v] + y[b] - cost[e];
+                            if (newDist < lv[b]) {
+                                relax(b, newDist);
+                            }
+                        }
+                    }
+                }
+            }
+
+            if (distAF == Long.MAX_VALUE) {
+                //The remaining supply cannot reach any remaining demand through the edges of this graph.
+                return false;
+            }
+            //A warm started first phase has no last phase, so admissible paths may already exist.
+            assert(distAF > 0 || iterations == 1);
+
+            for (int t = 0; t < numTouched; t++) {
+                int i = touched[t];
+                long delta = Math.max(distAF - lv[i], 0);
+                if (i < numB) {
+                    y[i] += delta;
+                }
+                else {
+                    y[i] -= delta;
+                }
+            }
+
+            if (costCeiling < Double.POSITIVE_INFINITY && iterations % BOUND_CHECK_INTERVAL == 0
+                    && lowerBound.applyAsDouble(y) > costCeiling) {
+                exceededCeiling = true;
+                return true;
+            }
+
+            //Find a maximal set of vertex-disjoint admissible augmenting paths with partial DFS searches.
+            for (int b = 0; b < numB; b++) {
+                nextEdge[b] = bStart[b];
+            }
+            for (int a = 0; a < numA; a++) {
+                nextEdge[a + numB] = aStart[a];
+            }
+
+            int stillFree = 0;
+            for (int k = 0; k < numFreeB; k++) {
+                int vertex = freeB[k];
+                while (deficiencyB[vertex] > 0 && nextEdge[vertex] < bStart[vertex + 1]) {
+                    int apLength = findAP(vertex);
+                    if (apLength == 0) {
+                        break;
+                    }
+
+                    int beta = Integer.min(deficiencyB[path[0]], deficiencyA[path[apLength - 1] - numB]);
+                    for (int j = 0; j < apLength - 1; j++) {
+                        if (path[j] < numB) {
+                            beta = Integer.min(beta, forward[pathEdge[j]]);
+                        }
+                        else {
+                            beta = Integer.min(beta, flow[aEdge[pathEdge[j]]]);
+                        }
+                    }
+
+                    for (int j = 0; j < apLength - 1; j++) {
+                        int u = path[j];
+                        if (u < numB) {
+                            int e = pathEdge[j];
+                            forward[e] -= beta;
+                            flow[e] += beta;
+                            if (forward[e] > 0) {
+                                //Allow edge to be reused on future augmenting paths this phase
+                                nextEdge[u] = pathEdge[j];
+                            }
+                        }
+                        else {
+                            int e = aEdge[pathEdge[j]];
+                            flow[e] -= beta;
+                            forward[e] += beta;
+                            if (flow[e] > 0) {
+                                nextEdge[u] = pathEdge[j];
+                            }
+                        }
+                    }
+
+                    int first = path[0];
+                    deficiencyB[first] -= beta;
+                    if (deficiencyB[first] == 0) {
+                        bFree[first] = false;
+                    }
+                    int last = path[apLength - 1] - numB;
+                    deficiencyA[last] -= beta;
+                    if (deficiencyA[last] == 0) {
+                        aFree[last] = false;
+                    }
+                }
+
+                if (bFree[vertex]) {
+                    freeB[stillFree++] = vertex;
+                }
+            }
+            numFreeB = stillFree;
+        }
+        for (int a = 0; a < numA; a++) {
+            freeDemandExcess += (double)deficiencyA[a] * -y[numB + a];
+        }
+        return true;
+    }
+
+    /**
+     * Makes every following solve stop once lowerBound, given the duals laid out like getDuals, returns more than
+     * costCeiling. It is called every few phases and must give a lower bound on the optimal cost of the complete
+     * instance, in whatever units costCeiling is in; any duals of B give one, see GTTransport.dualLowerBound. The solve then returns with an
+     * incomplete flow and exceededCeiling() is true. An infinite ceiling, the default, never stops a solve.
+     */
+    void setCostCeiling(double costCeiling, ToDoubleFunction<long[]> lowerBound) {
+        this.costCeiling = costCeiling;
+        this.lowerBound = lowerBound;
+    }
+
+    //Whether the last solve stopped early because of the cost ceiling. Its flow is then incomplete.
+    boolean exceededCeiling() {
+        return exceededCeiling;
+    }
+
+    //Makes every following solve stop after at most maxPhases phases, with whatever flow it found by then.
+    void setMaxPhases(int maxPhases) {
+        this.maxPhases = maxPhases;
+    }
+
+    //Whether the last solve ran out of phases before matching all supply. Its flow is then incomplete.
+    boolean reachedPhaseLimit() {
+        return reachedPhaseLimit;
+    }
+
+    //Partial DFS over admissible edges from the given vertex of B, see GTTransport.findAP.
+    //Returns the length of the augmenting path left in path and pathEdge, or 0 if there is none.
+    private int findAP(int start) {
+        path[0] = start;
+        int pathLength = 1;
+        while (pathLength > 0) {
+            int end = path[pathLength - 1];
+            if (end >= numB && aFree[end - numB]) {
+                return pathLength;
+            }
+            boolean backtrack = true;
+            if (end < numB) {
+                for (int e = nextEdge[end]; e < bStart[end + 1]; e++) {
+                    int aIndex = edgeA[e] + numB;
+                    if (forward[e] > 0 && cost[e] + 1 - y[end] - y[aIndex] == 0) {
+                        nextEdge[end] = e + 1;
+                        pathEdge[pathLength - 1] = e;
+                        path[pathLength++] = aIndex;
+                        backtrack = false;
+                        break;
+                    }
+                }
+            }
+            else {
+                int a = end - numB;
+                for (int k = nextEdge[end]; k < aStart[a + 1]; k++) {
+                    int e = aEdge[k];
+                    if (flow[e] > 0 && y[end] + y[edgeB[e]] == cost[e]) {
+                        nextEdge[end] = k + 1;
+                        pathEdge[pathLength - 1] = k;
+                        path[pathLength++] = edgeB[e];
+                        backtrack = false;
+                        break;
+                    }
+                }
+            }
+            if (backtrack) {
+                //Nothing left to explore out of this vertex this phase.
+                nextEdge[end] = end < numB ? bStart[end + 1] : aStart[end - numB + 1];
+                pathLength--;
+            }
+        }
+        return 0;
+    }
+
+    private void relax(int v, long newDist) {
+        if (lv[v] == Long.MAX_VALUE) {
+            touched[numTouched++] = v;
+        }
+        lv[v] = newDist;
+        queue.insertOrDecrease(v, newDist);
+    }
+
+    //The flow on each edge, numbered like the edges of setGraph. Overwritten by the next solve.
+    int[] getFlow() {
+        return flow;
+    }
+
+    //The dual weights, B first, then A. Overwritten by the next solve.
+    long[] getDuals() {
+        return y;
+    }
+
+    int getIterations() {
+        return iterations;
+    }
+
+    //How much worse than the usual guarantee the last solve may be, in units of scaled cost times scaled mass.
+    //Always 0 unless it started from initial duals.
+    double getFreeDemandExcess() {
+        return freeDemandExcess;
+    }
+}
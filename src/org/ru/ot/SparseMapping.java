@@ -0,0 +1,612 @@
+package org.ru.ot;
+
+import java.util.Arrays;
+
+/**
+ * Computes the same additive approximation of optimal transport as {@link Mapping}, between two weighted point clouds
+ * in the plane, without ever building the n x n cost matrix. Memory grows with the number of points times the number
+ * of neighbors instead of with the number of points squared, which is what makes higher resolution images affordable.
+ *
+ * The Gabow-Tarjan routine runs on a sparse graph holding only the edges from every point to its `neighbors` nearest
+ * points on the other side, plus every edge no longer than `radius`. The neighbors are found with a {@link PointGrid}.
+ * Pruning edges can go wrong in two ways, and both are repaired by adding edges and solving again:
+ * - Some supply cannot reach any unmatched demand through the graph. The number of neighbors is doubled.
+ * - The optimal plan needs an edge that was pruned. After every solve each pruned edge is priced against the final
+ *   dual weights, and edges that are not 1-feasible are added. Once all of them are, the duals certify the plan for
+ *   the complete graph, so the result is as accurate as that of Mapping.
+ * Pricing takes time quadratic in the number of points but no memory, since costs are recomputed from coordinates.
+ * Every round after the first starts from the duals the round before ended with, so it only has to route the mass the
+ * new edges make cheaper. Like a warm started Mapping, it scales a little finer to leave room for what starting from
+ * duals can cost.
+ *
+ * With a coarse cell size set, see {@link SparseMapping#setCoarseCellSize(double)}, the first graph comes from a
+ * coarse-to-fine solve instead of from nearest neighbors. Both clouds are pooled into square cells, the pooled clouds
+ * are solved with Mapping, and the graph holds every edge between a point of a supply cell and a point of a demand
+ * cell the coarse plan moves mass between. The duals of the coarse supply cells are carried over to their points as
+ * the starting duals of the fine solve, so its phases start close to the end. The repairs above still apply, so the
+ * accuracy is the same.
+ *
+ * Like Mapping, a solve can be capped at a number of phases, see {@link SparseMapping#setMaxPhases(int)}, and can stop
+ * at a cost ceiling. The lower bound checked against the ceiling comes from the duals of the supply points, priced
+ * against every demand point, so it holds for the complete graph and not only for the sparse one.
+ *
+ * Points without mass take no part at all, so there is no need to pad the smaller cloud with dud pixels.
+ * A SparseMapping is reusable but not thread safe, keep one per thread.
+ */
+public class SparseMapping {
+    private final int neighbors;
+    private final double radius;
+    private final boolean useSquaredEuclidean;
+
+    // The points with mass, compacted. bIndex[b] and aIndex[a] map them back to the indices given to solve.
+    private int numB;
+    private int numA;
+    private int[] bIndex;
+    private int[] aIndex;
+    private double[] bx;
+    private double[] by;
+    private double[] ax;
+    private double[] ay;
+    private int[] scaledSupplies;
+    private int[] scaledDemands;
+    private double[] residualSupply;
+    private double[] residualDemand;
+    // The duals of the demand points behind the last completeLowerBound, in the real units.
+    private double[] demandDual;
+
+    // Edges of the sparse graph as b * numA + a, unsorted and possibly with repeats until buildGraph cleans them up.
+    private long[] edgeKeys = new long[0];
+    private int numEdgeKeys;
+    private int[] bStart = new int[0];
+    private int[] edgeA = new int[0];
+    private long[] edgeCost = new long[0];
+    private int[] neighborBuffer;
+    private final SparseGTTransport gt = new SparseGTTransport();
+
+    // Multi-scale mode, see setCoarseCellSize. The coarse solver and the pooled clouds are reused between solves.
+    private double coarseCellSize = 0;
+    private Mapping coarse;
+    private final PooledCloud supplyCells = new PooledCloud();
+    private final PooledCloud demandCells = new PooledCloud();
+    private long[] initialDuals = new long[0];
+
+    // The plan as a list of (supply index, demand index, mass) triples. A pair can appear more than once.
+    private int planSize;
+    private int[] planSupply = new int[0];
+    private int[] planDemand = new int[0];
+    private double[] planMass = new double[0];
+
+    private double totalCost;
+    private double timeTaken;
+    private int iterations;
+    private int rounds;
+    private boolean reachedScaleLimit;
+    private int maxPhases = Mapping.DEFAULT_MAX_PHASES;
+    private boolean reachedPhaseLimit;
+    private boolean exceededCeiling;
+
+    /**
+     * @param neighbors how many of its nearest points on the other side each point starts out connected to
+     * @param radius points closer than this are always connected, 0 to rely on `neighbors` alone
+     * @param useSquaredEuclidean whether the cost of an edge is its squared length rather than its length
+     */
+    public SparseMapping(int neighbors, double radius, boolean useSquaredEuclidean) {
+        if (neighbors < 1) {
+            throw new IllegalArgumentException("A sparse graph needs at least one neighbor per point, got " + neighbors);
+        }
+        this.neighbors = neighbors;
+        this.radius = radius;
+        this.useSquaredEuclidean = useSquaredEuclidean;
+    }
+
+    /**
+     * Turns the coarse-to-fine solve on or off. Each solve first solves the clouds pooled into cells of side cellSize,
+     * in the units of the coordinates, and starts the full solve from its plan and duals, see the class comment. Cells
+     * a few points wide work best: the coarse solve is then cheap, and the graph it gives has about as many edges per
+     * point as a cell has points. 0, the default, starts from nearest neighbors.
+     */
+    public void setCoarseCellSize(double cellSize) {
+        if (!(cellSize >= 0) || Double.isInfinite(cellSize)) {
+            throw new IllegalArgumentException("The coarse cell size must be finite and non-negative, got " + cellSize);
+        }
+        this.coarseCellSize = cellSize;
+    }
+
+    /**
+     * Computes a transport plan between the supply points (supplyX[j], supplyY[j]) with masses supplies[j] and the
+     * demand points (demandX[i], demandY[i]) with masses demands[i]. Both mass arrays must sum to 1, but need not have
+     * the same length.
+     * @param delta the additive error the caller is willing to accept, as for Mapping
+     * @return the total cost of the computed transport plan
+     */
+    public double solve(double[] supplyX, double[] supplyY, double[] supplies,
+                        double[] demandX, double[] demandY, double[] demands, double delta) {
+        return this.solve(supplyX, supplyY, supplies, demandX, demandY, demands, delta, Double.POSITIVE_INFINITY);
+    }
+
+    /**
+     * Like {@link SparseMapping#solve(double[], double[], double[], double[], double[], double[], double)}, but stops
+     * early once a lower bound on the optimal cost is above `costCeiling`, like
+     * {@link Mapping#solveCost(int, int, double[], double[], double[][], double, double)}. The bound is then returned
+     * instead of a cost, the plan is left empty and {@link SparseMapping#exceededCeiling()} returns true.
+     * @return the total cost of the computed transport plan, or a lower bound above `costCeiling` on the optimal cost
+     */
+    public double solve(double[] supplyX, double[] supplyY, double[] supplies,
+                        double[] demandX, double[] demandY, double[] demands, double delta, double costCeiling) {
+        long startTime = System.currentTimeMillis();
+        this.compact(supplyX, supplyY, supplies, demandX, demandY, demands);
+        int n = Integer.max(numB, numA);
+
+        double maxCost = 0;
+        for (int b = 0; b < numB; b++) {
+            for (int a = 0; a < numA; a++) {
+                maxCost = Double.max(maxCost, this.cost(b, a));
+            }
+        }
+        boolean multiscale = coarseCellSize > 0;
+        // A warm start can end slightly worse than the usual guarantee. Scaling finer leaves some of delta as the
+        // budget for that, like Mapping does for its warm starts.
+        double refinement = Mapping.WARM_START_REFINEMENT;
+        double alpha = Double.min(refinement * 4.*maxCost / delta,
+                Mapping.maxSafeAlpha(n, demands.length, demands, maxCost));
+        this.reachedScaleLimit = alpha < refinement * 4.*maxCost / delta;
+        this.reachedPhaseLimit = false;
+        this.exceededCeiling = false;
+        gt.setCostCeiling(costCeiling, y -> this.completeLowerBound(y, supplies, demands, alpha));
+
+        numEdgeKeys = 0;
+        int k = neighbors;
+        long[] startDuals = null;
+        if (multiscale) {
+            startDuals = this.addCoarseEdges(supplies, demands, delta, alpha);
+        } else {
+            this.addNearestNeighbors(k);
+        }
+
+        this.iterations = 0;
+        this.rounds = 0;
+        while (true) {
+            rounds++;
+            this.buildGraph();
+            int numEdges = bStart[numB];
+            for (int e = 0, b = 0; e < numEdges; e++) {
+                while (e >= bStart[b + 1]) {
+                    b++;
+                }
+                edgeCost[e] = (long)(this.cost(b, edgeA[e]) * alpha);
+            }
+            for (int b = 0; b < numB; b++) {
+                scaledSupplies[b] = (int)(supplies[bIndex[b]] * alpha * n);
+            }
+            for (int a = 0; a < numA; a++) {
+                scaledDemands[a] = (int)(Math.ceil(demands[aIndex[a]] * alpha * n));
+            }
+
+            // The phase cap holds for the solve as a whole, so each round only gets the phases the earlier ones left.
+            gt.setMaxPhases(maxPhases - iterations);
+            boolean matched = gt.solve(edgeCost, scaledSupplies, scaledDemands, startDuals);
+            this.iterations += gt.getIterations();
+            if (gt.exceededCeiling() || gt.reachedPhaseLimit()) {
+                break;
+            }
+            if (startDuals != null) {
+                // A warm start that cost more than the budget set aside for it is thrown away, and the same graph is
+                // solved again from scratch.
+                startDuals = null;
+                double excess = gt.getFreeDemandExcess() / (n * alpha * alpha);
+                if (matched && excess > delta - delta / refinement) {
+                    continue;
+                }
+            }
+            if (!matched) {
+                k = Integer.min(2*k, Integer.max(numA, numB));
+                this.addNearestNeighbors(k);
+                continue;
+            }
+            if (!this.addViolatedEdges(alpha)) {
+                break;
+            }
+            // The graph only grew, so the duals of this round are a good start for the next one.
+            startDuals = this.shiftedSupplyDuals(gt.getDuals());
+        }
+
+        if (gt.exceededCeiling()) {
+            this.exceededCeiling = true;
+            //The bound is above the ceiling, but rounding could land it on the ceiling, see Mapping.solveCostOf.
+            this.totalCost = Double.max(this.completeLowerBound(gt.getDuals(), supplies, demands, alpha),
+                    Math.nextUp(costCeiling));
+            this.planSize = 0;
+            this.timeTaken = (System.currentTimeMillis() - startTime) / 1000.;
+            return totalCost;
+        }
+        // A solve out of phases leaves supply unmatched, which buildPlan matches arbitrarily like Mapping does.
+        this.reachedPhaseLimit = gt.reachedPhaseLimit();
+        this.buildPlan(supplies, demands, n * alpha);
+
+        this.totalCost = 0;
+        for (int t = 0; t < planSize; t++) {
+            totalCost += planMass[t] * this.cost(planSupply[t], planDemand[t]);
+        }
+        // The plan refers to the caller's indices from here on.
+        for (int t = 0; t < planSize; t++) {
+            planSupply[t] = bIndex[planSupply[t]];
+            planDemand[t] = aIndex[planDemand[t]];
+        }
+
+        this.timeTaken = (System.currentTimeMillis() - startTime) / 1000.;
+        return totalCost;
+    }
+
+    //Solves the clouds pooled into cells of coarseCellSize, connects the points of every pair of cells the coarse
+    //plan moves mass between, and returns the coarse duals of the supply cells carried over to their points in units
+    //of the fine scaled costs, shifted so that the smallest is 0. Returns null if there are no duals to carry over.
+    private long[] addCoarseEdges(double[] supplies, double[] demands, double delta, double alpha) {
+        supplyCells.pool(bx, by, supplies, bIndex, numB, coarseCellSize);
+        demandCells.pool(ax, ay, demands, aIndex, numA, coarseCellSize);
+        if (coarse == null) {
+            coarse = new Mapping();
+        }
+        coarse.solveCost(supplyCells.getX(), supplyCells.getY(), supplyCells.getMasses(),
+                demandCells.getX(), demandCells.getY(), demandCells.getMasses(),
+                useSquaredEuclidean, delta, Double.POSITIVE_INFINITY);
+
+        int[] cellSupply = coarse.getPlanSupplies();
+        int[] cellDemand = coarse.getPlanDemands();
+        double[] cellMass = coarse.getPlanMasses();
+        for (int t = 0; t < coarse.getPlanSize(); t++) {
+            if (cellMass[t] <= 0) {
+                continue;
+            }
+            for (int s = supplyCells.getChildStart(cellSupply[t]); s < supplyCells.getChildEnd(cellSupply[t]); s++) {
+                int b = supplyCells.getChild(s);
+                for (int d = demandCells.getChildStart(cellDemand[t]); d < demandCells.getChildEnd(cellDemand[t]); d++) {
+                    this.addEdge(b, demandCells.getChild(d));
+                }
+            }
+        }
+
+        if (coarse.getCostScale() <= 0) {
+            return null;
+        }
+        long[] cellDuals = coarse.getSupplyDuals();
+        long minDual = Long.MAX_VALUE;
+        for (int c = 0; c < supplyCells.getNumCells(); c++) {
+            minDual = Math.min(minDual, cellDuals[c]);
+        }
+        // The coarse duals are in units of the coarse scaled costs, the fine solve scales costs by alpha.
+        double toFine = alpha / coarse.getCostScale();
+        long[] fineDuals = this.initialDuals(numB);
+        for (int b = 0; b < numB; b++) {
+            fineDuals[b] = (long)((cellDuals[supplyCells.getCellOf(b)] - minDual) * toFine);
+        }
+        return fineDuals;
+    }
+
+    //The duals of B from the last solve, shifted so that the smallest is 0 as solve with initial duals requires.
+    private long[] shiftedSupplyDuals(long[] y) {
+        long minDual = Long.MAX_VALUE;
+        for (int b = 0; b < numB; b++) {
+            minDual = Long.min(minDual, y[b]);
+        }
+        long[] shifted = this.initialDuals(numB);
+        for (int b = 0; b < numB; b++) {
+            shifted[b] = y[b] - minDual;
+        }
+        return shifted;
+    }
+
+    private long[] initialDuals(int length) {
+        if (initialDuals.length < length) {
+            initialDuals = new long[length];
+        }
+        return initialDuals;
+    }
+
+    private void compact(double[] supplyX, double[] supplyY, double[] supplies,
+                         double[] demandX, double[] demandY, double[] demands) {
+        if (bIndex == null || bIndex.length < supplies.length) {
+            bIndex = new int[supplies.length];
+            bx = new double[supplies.length];
+            by = new double[supplies.length];
+            scaledSupplies = new int[supplies.length];
+            residualSupply = new double[supplies.length];
+        }
+        if (aIndex == null || aIndex.length < demands.length) {
+            aIndex = new int[demands.length];
+            ax = new double[demands.length];
+            ay = new double[demands.length];
+            scaledDemands = new int[demands.length];
+            residualDemand = new double[demands.length];
+            demandDual = new double[demands.length];
+        }
+        if (neighborBuffer == null || neighborBuffer.length < Integer.max(supplies.length, demands.length)) {
+            neighborBuffer = new int[Integer.max(supplies.length, demands.length)];
+        }
+
+        numB = 0;
+        for (int j = 0; j < supplies.length; j++) {
+            if (supplies[j] > 0) {
+                bIndex[numB] = j;
+                bx[numB] = supplyX[j];
+                by[numB] = supplyY[j];
+                numB++;
+            }
+        }
+        numA = 0;
+        for (int i = 0; i < demands.length; i++) {
+            if (demands[i] > 0) {
+                aIndex[numA] = i;
+                ax[numA] = demandX[i];
+                ay[numA] = demandY[i];
+                numA++;
+            }
+        }
+    }
+
+    private double cost(int b, int a) {
+        double dx = bx[b] - ax[a];
+        double dy = by[b] - ay[a];
+        double squaredDistance = dx*dx + dy*dy;
+        return useSquaredEuclidean ? squaredDistance : Math.sqrt(squaredDistance);
+    }
+
+    //A lower bound on the optimal cost of the complete instance, built from the duals of B of a sparse solve like
+    //GTTransport.dualLowerBound builds one from its own, but over every pair of points and in the real units: every a
+    //gets v(a) = min(0, min_b(c(a, b) - y(b) / alpha)), and every b gets u(b) = min_a(c(a, b) - v(a)). This is a
+    //feasible dual solution for the complete graph whatever y is, so its objective is at most the optimal cost.
+    private double completeLowerBound(long[] y, double[] supplies, double[] demands, double alpha) {
+        Arrays.fill(demandDual, 0, numA, 0);
+        for (int b = 0; b < numB; b++) {
+            double yb = y[b] / alpha;
+            for (int a = 0; a < numA; a++) {
+                demandDual[a] = Double.min(demandDual[a], this.cost(b, a) - yb);
+            }
+        }
+        double bound = 0;
+        for (int a = 0; a < numA; a++) {
+            bound += demands[aIndex[a]] * demandDual[a];
+        }
+        for (int b = 0; b < numB; b++) {
+            double u = Double.POSITIVE_INFINITY;
+            for (int a = 0; a < numA; a++) {
+                u = Double.min(u, this.cost(b, a) - demandDual[a]);
+            }
+            bound += supplies[bIndex[b]] * u;
+        }
+        return bound;
+    }
+
+    // Connects every point to its k nearest points on the other side, and to all of them within the radius.
+    private void addNearestNeighbors(int k) {
+        PointGrid demandGrid = new PointGrid(ax, ay, numA);
+        for (int b = 0; b < numB; b++) {
+            int found = demandGrid.query(bx[b], by[b], k, radius, neighborBuffer);
+            for (int t = 0; t < found; t++) {
+                this.addEdge(b, neighborBuffer[t]);
+            }
+        }
+        PointGrid supplyGrid = new PointGrid(bx, by, numB);
+        for (int a = 0; a < numA; a++) {
+            int found = supplyGrid.query(ax[a], ay[a], k, radius, neighborBuffer);
+            for (int t = 0; t < found; t++) {
+                this.addEdge(neighborBuffer[t], a);
+            }
+        }
+    }
+
+    private void addEdge(int b, int a) {
+        if (numEdgeKeys == edgeKeys.length) {
+            edgeKeys = Arrays.copyOf(edgeKeys, Integer.max(16, 2*edgeKeys.length));
+        }
+        edgeKeys[numEdgeKeys++] = (long)b * numA + a;
+    }
+
+    // Sorts and deduplicates the edge keys, then turns them into adjacency lists for the Gabow-Tarjan routine.
+    private void buildGraph() {
+        Arrays.sort(edgeKeys, 0, numEdgeKeys);
+        int unique = 0;
+        for (int t = 0; t < numEdgeKeys; t++) {
+            if (unique == 0 || edgeKeys[t] != edgeKeys[unique - 1]) {
+                edgeKeys[unique++] = edgeKeys[t];
+            }
+        }
+        numEdgeKeys = unique;
+
+        if (bStart.length != numB + 1) {
+            bStart = new int[numB + 1];
+        }
+        if (edgeA.length < unique) {
+            edgeA = new int[edgeKeys.length];
+            edgeCost = new long[edgeKeys.length];
+        }
+        Arrays.fill(bStart, 0);
+        for (int t = 0; t < unique; t++) {
+            int b = (int)(edgeKeys[t] / numA);
+            edgeA[t] = (int)(edgeKeys[t] % numA);
+            bStart[b + 1]++;
+        }
+        for (int b = 0; b < numB; b++) {
+            bStart[b + 1] += bStart[b];
+        }
+        gt.setGraph(numB, numA, bStart, edgeA);
+    }
+
+    /**
+     * Prices every pruned edge against the duals of the last solve, and adds the ones that violate 1-feasibility,
+     * y(b) + y(a) <= c(a, b) + 1. At most `neighbors` edges are added per vertex of B each round, so a poor first
+     * graph cannot blow up memory in one go.
+     * @return whether any edge was added
+     */
+    private boolean addViolatedEdges(double alpha) {
+        long[] y = gt.getDuals();
+        boolean added = false;
+        for (int b = 0; b < numB; b++) {
+            int next = bStart[b];
+            int addedHere = 0;
+            for (int a = 0; a < numA && addedHere < neighbors; a++) {
+                // The edges of b are sorted by a, so walking both in step finds the pruned ones.
+                if (next < bStart[b + 1] && edgeA[next] == a) {
+                    next++;
+                    continue;
+                }
+                if (y[b] + y[numB + a] > (long)(this.cost(b, a) * alpha) + 1) {
+                    this.addEdge(b, a);
+                    addedHere++;
+                    added = true;
+                }
+            }
+        }
+        return added;
+    }
+
+    //Scales the flow of the last solve back and repairs it into a feasible plan, exactly like Mapping does.
+    private void buildPlan(double[] supplies, double[] demands, double massScale) {
+        int numEdges = bStart[numB];
+        int capacity = numEdges + numB + numA;
+        if (planMass.length < capacity) {
+            planSupply = new int[capacity];
+            planDemand = new int[capacity];
+            planMass = new double[capacity];
+        }
+
+        for (int b = 0; b < numB; b++) {
+            residualSupply[b] = supplies[bIndex[b]];
+        }
+        for (int a = 0; a < numA; a++) {
+            residualDemand[a] = demands[aIndex[a]];
+        }
+
+        int[] flow = gt.getFlow();
+        planSize = 0;
+        for (int b = 0; b < numB; b++) {
+            for (int e = bStart[b]; e < bStart[b + 1]; e++) {
+                if (flow[e] > 0) {
+                    double mass = flow[e] / massScale;
+                    planSupply[planSize] = b;
+                    planDemand[planSize] = edgeA[e];
+                    planMass[planSize] = mass;
+                    planSize++;
+                    residualSupply[b] -= mass;
+                    residualDemand[edgeA[e]] -= mass;
+                }
+            }
+        }
+
+        //Push back some flow incoming to demand constraints that are violated.
+        for (int t = 0; t < planSize; t++) {
+            int a = planDemand[t];
+            if (residualDemand[a] < 0) {
+                double reduction = Double.min(-residualDemand[a], planMass[t]);
+                planMass[t] -= reduction;
+                residualDemand[a] += reduction;
+                residualSupply[planSupply[t]] += reduction;
+            }
+        }
+
+        //Arbitrarily match the remaining supplies
+        int a = 0;
+        for (int b = 0; b < numB; b++) {
+            while (residualSupply[b] > 0 && a < numA) {
+                if (residualDemand[a] <= 0) {
+                    a++;
+                    continue;
+                }
+                double increase = Double.min(residualSupply[b], residualDemand[a]);
+                planSupply[planSize] = b;
+                planDemand[planSize] = a;
+                planMass[planSize] = increase;
+                planSize++;
+                residualDemand[a] -= increase;
+                residualSupply[b] -= increase;
+            }
+        }
+    }
+
+    public double getTotalCost() {
+        return totalCost;
+    }
+
+    public double getTimeTaken() {
+        return timeTaken;
+    }
+
+    /**
+     * @return the number of Gabow-Tarjan phases of the last solve, summed over all rounds
+     */
+    public int getIterations() {
+        return iterations;
+    }
+
+    /**
+     * @return how many times the last solve had to run the Gabow-Tarjan routine before no more edges were needed
+     */
+    public int getRounds() {
+        return rounds;
+    }
+
+    /**
+     * Caps the number of Gabow-Tarjan phases of every following solve, summed over all rounds, like
+     * {@link Mapping#setMaxPhases(int)}. By default, {@link Mapping#DEFAULT_MAX_PHASES}, there is no cap. A solve that
+     * runs out of phases stops adding edges and returns the plan it has, with the supply left unmatched matched
+     * arbitrarily.
+     */
+    public void setMaxPhases(int maxPhases) {
+        this.maxPhases = maxPhases;
+    }
+
+    /**
+     * @return whether the last solve was cut short by the phase cap, see {@link Mapping#reachedPhaseLimit()}
+     */
+    public boolean reachedPhaseLimit() {
+        return reachedPhaseLimit;
+    }
+
+    /**
+     * @return whether the last solve stopped early because its cost was known to be above the ceiling it was given
+     */
+    public boolean exceededCeiling() {
+        return exceededCeiling;
+    }
+
+    /**
+     * @return false if the last solve was cut short by the phase cap, or if meeting delta on it would have needed a
+     * finer scale than the Gabow-Tarjan routine can represent, like {@link Mapping#reachedScaleLimit()}, in which case
+     * it was solved at the finest that fits
+     */
+    public boolean withinDelta() {
+        return !reachedScaleLimit && !reachedPhaseLimit;
+    }
+
+    public int getNumEdges() {
+        return bStart[numB];
+    }
+
+    /**
+     * @return the number of entries in the plan of the last solve. The arrays returned by getPlanSupplies,
+     * getPlanDemands and getPlanMasses are only meaningful up to this index.
+     */
+    public int getPlanSize() {
+        return planSize;
+    }
+
+    /**
+     * @return for each plan entry, the index of the supply point the mass is sent from
+     */
+    public int[] getPlanSupplies() {
+        return planSupply;
+    }
+
+    /**
+     * @return for each plan entry, the index of the demand point the mass is sent to
+     */
+    public int[] getPlanDemands() {
+        return planDemand;
+    }
+
+    /**
+     * @return for each plan entry, the mass sent
+     */
+    public double[] getPlanMasses() {
+        return planMass;
+    }
+}
@@ -0,0 +1,32 @@
+package org.ru.ot;
+
+/**
+ * The optimal transport solvers an objective can be configured to use.
+ */
+public enum TransportBackend {
+    /**
+     * The combinatorial Gabow-Tarjan routine, see {@link Mapping}.
+     */
+    GABOW_TARJAN,
+    /**
+     * Entropy regularized transport, see {@link SinkhornTransport}. Cheaper per solve at the accuracies PSO needs
+     * for screening, but only approximates the unregularized cost.
+     */
+    SINKHORN,
+    /**
+     * The epsilon scaling auction algorithm, see {@link AuctionTransport}. Bids on every core, so it pays off when one
+     * large solve, rather than many small ones, has the machine to itself.
+     */
+    AUCTION;
+
+    /**
+     * @return a new, reusable solver of this kind
+     */
+    public TransportSolver create() {
+        return switch (this) {
+            case GABOW_TARJAN -> new Mapping();
+            case SINKHORN -> new SinkhornTransport();
+            case AUCTION -> new AuctionTransport();
+        };
+    }
+}
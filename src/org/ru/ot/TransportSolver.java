@@ -0,0 +1,155 @@
+package org.ru.ot;
+
+/**
+ * A reusable solver for the discrete optimal transport problem between two probability distributions.
+ *
+ * Follows the conventions of {@link Mapping}: B holds the 'supply' vertices and A holds the 'demand' vertices,
+ * and C[i][j] is the cost of transporting 1 unit of mass between the ith demand vertex and the jth supply vertex.
+ *
+ * Implementations keep their scratch space between solves and are not thread safe, so keep one per thread.
+ */
+public interface TransportSolver {
+    /**
+     * Computes a transport plan whose cost is within (roughly) `delta` of the optimal cost.
+     * The results of the previous solve, including the array returned by {@link TransportSolver#getFlow()}, are
+     * overwritten.
+     * @param numSupplies the number of supply vertices
+     * @param numDemands the number of demand vertices
+     * @param supplies the probability distribution over the supply vertices
+     * @param demands the probability distribution over the demand vertices
+     * @param C a numDemands x numSupplies cost matrix, C[i][j] is the cost between the ith demand vertex and the jth
+     * supply vertex
+     * @param delta the additive error the caller is willing to accept
+     * @return the total cost of the computed transport plan
+     */
+    double solve(int numSupplies, int numDemands, double[] supplies, double[] demands, double[][] C, double delta);
+
+    /**
+     * Solves an instance like {@link TransportSolver#solve(int, int, double[], double[], double[][], double)} for
+     * callers that only need the cost. Solvers that can compute the cost without materializing the dense plan
+     * override this, in which case {@link TransportSolver#getFlow()} is not updated.
+     * @return the total cost of the computed transport plan
+     */
+    default double solveCost(int numSupplies, int numDemands, double[] supplies, double[] demands, double[][] C,
+                             double delta) {
+        return this.solve(numSupplies, numDemands, supplies, demands, C, delta);
+    }
+
+    /**
+     * Solves an instance like {@link TransportSolver#solveCost(int, int, double[], double[], double[][], double)} for
+     * callers that have no use for the cost once it is known to be above `costCeiling`, like an optimizer that only
+     * needs to know whether a candidate beats the best one so far. Solvers that can bound the cost from below while
+     * they run override this to stop early: they then return a value above the ceiling that is at most the optimal
+     * cost, and {@link TransportSolver#exceededCeiling()} returns true. Others solve the instance in full.
+     * @return the total cost of the computed transport plan, or a lower bound above `costCeiling` on the optimal cost
+     */
+    default double solveCost(int numSupplies, int numDemands, double[] supplies, double[] demands, double[][] C,
+                             double delta, double costCeiling) {
+        return this.solveCost(numSupplies, numDemands, supplies, demands, C, delta);
+    }
+
+    /**
+     * Solves an instance like
+     * {@link TransportSolver#solveCost(int, int, double[], double[], double[][], double, double)}, reading the costs
+     * from a matrix that may be kept off the heap, see {@link MatrixMemory}. Solvers that only read arrays solve a
+     * matrix on the heap through its rows and throw UnsupportedOperationException for one off it.
+     * @return the total cost of the computed transport plan, or a lower bound above `costCeiling` on the optimal cost
+     */
+    default double solveCost(int numSupplies, int numDemands, double[] supplies, double[] demands, DoubleMatrix C,
+                             double delta, double costCeiling) {
+        double[][] rows = C.array();
+        if (rows == null) {
+            throw new UnsupportedOperationException(this.getClass().getSimpleName() + " reads its costs from the heap");
+        }
+        return this.solveCost(numSupplies, numDemands, supplies, demands, rows, delta, costCeiling);
+    }
+
+    /**
+     * @return whether the last solve stopped early because its cost was known to be above the ceiling it was given
+     */
+    default boolean exceededCeiling() {
+        return false;
+    }
+
+    /**
+     * @return whether the last solve kept the accuracy it was asked for. Solvers that can only approximate delta on
+     * some instances, because a finer scale would not fit their arithmetic or because they gave up after a fixed
+     * number of iterations, return false for those, and the cost they returned may be further from the optimum.
+     * A solve stopped at its cost ceiling still counts as within delta, since its lower bound holds either way.
+     */
+    default boolean withinDelta() {
+        return true;
+    }
+
+    /**
+     * Solves an instance with as many supply vertices as demand vertices, see
+     * {@link TransportSolver#solve(int, int, double[], double[], double[][], double)}.
+     */
+    default double solve(int n, double[] supplies, double[] demands, double[][] C, double delta) {
+        return this.solve(n, n, supplies, demands, C, delta);
+    }
+
+    /**
+     * Asks the solver to start each solve from the state its previous solve ended in rather than from scratch, which
+     * pays off when successive instances are close to each other. Does not change the accuracy guarantee of solve.
+     * Solvers that cannot warm start ignore this.
+     */
+    default void setWarmStart(boolean warmStart) {}
+
+    /**
+     * Asks the solver to treat delta as relative to the largest edge cost of each instance rather than as an absolute
+     * error. Solvers that cannot normalize their costs ignore this.
+     */
+    default void setNormalizeCosts(boolean normalizeCosts) {}
+
+    /**
+     * @return the last computed plan, a numDemands x numSupplies matrix where flow[i][j] is the mass sent from the jth
+     * supply vertex to the ith demand vertex
+     */
+    double[][] getFlow();
+
+    double getTotalCost();
+
+    /**
+     * @return how many iterations of its main loop the solver needed for the last solve. What an iteration is depends
+     * on the solver (a Gabow-Tarjan phase, a Sinkhorn row+column update, ...), so only compare counts of one solver.
+     */
+    int getIterations();
+
+    /**
+     * @return the L1 distance between the marginals of the plan the solver's main loop converged to and the requested
+     * supplies and demands. Both solvers repair their plan into an exactly feasible one afterwards, this reports how
+     * far off the plan was before that repair.
+     */
+    double getMarginalError();
+
+    /**
+     * @return a lower bound on the optimal cost of the last instance that the solver can prove. Solvers without a
+     * certificate report negative infinity.
+     */
+    default double getLowerBound() {
+        return Double.NEGATIVE_INFINITY;
+    }
+
+    /**
+     * @return an upper bound on the optimal cost of the last instance, which is the cost of any feasible plan, so the
+     * total cost unless the solve stopped at its cost ceiling
+     */
+    default double getUpperBound() {
+        return this.exceededCeiling() ? Double.POSITIVE_INFINITY : this.getTotalCost();
+    }
+
+    /**
+     * @return how far the cost of the last plan is proven to be from the optimal cost at most. Unlike delta, which
+     * bounds it from above in advance, this is the error the solve actually achieved, and is usually smaller.
+     * Two instances whose [lower, upper] intervals do not overlap are ordered for certain, whatever their delta.
+     */
+    default double getCertifiedError() {
+        return this.getUpperBound() - this.getLowerBound();
+    }
+
+    /**
+     * @return the wall clock time of the last solve, in seconds
+     */
+    double getTimeTaken();
+}
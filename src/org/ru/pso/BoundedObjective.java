@@ -0,0 +1,13 @@
+package org.ru.pso;
+
+import org.ru.vec.FixedVector;
+
+/**
+ * A cost function that is told the cost above which its result no longer matters. PSO passes each particle's personal
+ * best, since an evaluation that comes out worse than that changes neither the particle's best nor the global best.
+ * Once the cost is known to be above `ceiling`, the function may stop and return any value above `ceiling`.
+ */
+@FunctionalInterface
+public interface BoundedObjective<V extends FixedVector> {
+    double compute(V position, double ceiling);
+}
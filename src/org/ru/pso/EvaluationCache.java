@@ -0,0 +1,214 @@
+package org.ru.pso;
+
+import org.ru.vec.FixedVector;
+
+import java.util.Arrays;
+import java.util.function.Function;
+
+/**
+ * A bounded memo of objective evaluations, for when particles keep landing on nearly the same positions late in a run.
+ * Positions are quantized to a grid, and a position whose cell already has a cached cost gets that cost instead of a
+ * new evaluation. So the cache trades some accuracy for evaluations: every position in a cell costs the same as the
+ * first one evaluated there, and the cell sizes should be well below the precision the search needs.
+ *
+ * The table is a fixed number of slots in primitive arrays with open addressing. A cell may only be stored in the few
+ * slots after its hash, and when all of them are taken one is evicted with a second chance scan of those slots. The
+ * scan starts at the hash every time, there is no hand kept between evictions as in CLOCK: a slot read since a scan
+ * last passed it survives once, and slots nearer the hash are evicted first among the ones that were not read.
+ *
+ * One cache can be shared by several threads, each of which wraps its own objective with {@link #wrap}, as long as
+ * the objectives all compute the same function. The table is locked only to look up and store costs, never while the
+ * objective runs, so two threads may evaluate the same cell at once, and the later result wins.
+ */
+public class EvaluationCache<V extends FixedVector> {
+    // Slots a cell can be stored in, starting at its hash.
+    private static final int PROBE_LENGTH = 8;
+
+    private static final byte OCCUPIED = 1;
+    private static final byte REFERENCED = 2;
+    // Set when the cost is exact, unset when it is only a lower bound, see wrap(BoundedObjective).
+    private static final byte EXACT = 4;
+
+    private final double[] cellSizes;
+    private final int dimensions;
+    private final int mask;
+    // Slot s holds the cell cells[s * dimensions] .. cells[(s + 1) * dimensions - 1] and its cost costs[s].
+    private final long[] cells;
+    private final double[] costs;
+    private final byte[] flags;
+
+    private long hits = 0;
+    private long misses = 0;
+
+    /**
+     * @param capacity the most costs to keep, rounded up to a power of two
+     * @param cellSizes the side of a grid cell along each component of the position
+     */
+    public EvaluationCache(int capacity, double[] cellSizes) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("Capacity must be positive, got " + capacity);
+        }
+        for (double cellSize : cellSizes) {
+            if (!(cellSize > 0)) {
+                throw new IllegalArgumentException("Cell sizes must be positive, got " + cellSize);
+            }
+        }
+        int slots = Integer.highestOneBit(Math.max(capacity, PROBE_LENGTH) - 1) << 1;
+        this.cellSizes = cellSizes.clone();
+        this.dimensions = cellSizes.length;
+        this.mask = slots - 1;
+        this.cells = new long[slots * this.dimensions];
+        this.costs = new double[slots];
+        this.flags = new byte[slots];
+    }
+
+    /**
+     * A cache with the same cell size along every component.
+     */
+    public EvaluationCache(int capacity, int dimensions, double cellSize) {
+        this(capacity, filled(dimensions, cellSize));
+    }
+
+    private static double[] filled(int dimensions, double value) {
+        double[] values = new double[dimensions];
+        Arrays.fill(values, value);
+        return values;
+    }
+
+    /**
+     * @return `objective`, evaluated only for positions whose cell is not in the cache
+     */
+    public Function<V, Double> wrap(Function<V, Double> objective) {
+        return position -> {
+            long[] cell = this.cellOf(position);
+            synchronized (this) {
+                int slot = this.find(cell);
+                if (slot >= 0) {
+                    this.hits++;
+                    return this.costs[slot];
+                }
+                this.misses++;
+            }
+            double cost = objective.apply(position);
+            synchronized (this) {
+                this.store(cell, cost, true);
+            }
+            return cost;
+        };
+    }
+
+    /**
+     * Like {@link #wrap(Function)}, for an objective that may return a lower bound above the ceiling instead of the
+     * cost. Such a bound is cached as well, and is reused for calls whose ceiling is below it, for which it is just as
+     * good an answer. A call with a higher ceiling evaluates the position again.
+     */
+    public BoundedObjective<V> wrap(BoundedObjective<V> objective) {
+        return (position, ceiling) -> {
+            long[] cell = this.cellOf(position);
+            synchronized (this) {
+                int slot = this.find(cell);
+                if (slot >= 0 && ((this.flags[slot] & EXACT) != 0 || this.costs[slot] > ceiling)) {
+                    this.hits++;
+                    return this.costs[slot];
+                }
+                this.misses++;
+            }
+            double cost = objective.compute(position, ceiling);
+            synchronized (this) {
+                this.store(cell, cost, cost <= ceiling);
+            }
+            return cost;
+        };
+    }
+
+    public synchronized long getHits() {
+        return this.hits;
+    }
+
+    public synchronized long getMisses() {
+        return this.misses;
+    }
+
+    /**
+     * @return the fraction of lookups answered from the cache, 0 before the first one
+     */
+    public synchronized double getHitRate() {
+        long lookups = this.hits + this.misses;
+        return lookups == 0 ? 0 : (double) this.hits / lookups;
+    }
+
+    private long[] cellOf(V position) {
+        double[] components = position.components();
+        if (components.length != this.dimensions) {
+            throw new IllegalArgumentException(String.format(
+                    "Cache has %d dimensions, got a position with %d", this.dimensions, components.length));
+        }
+        long[] cell = new long[this.dimensions];
+        for (int d = 0; d < this.dimensions; d++) {
+            cell[d] = (long) Math.floor(components[d] / this.cellSizes[d]);
+        }
+        return cell;
+    }
+
+    private int home(long[] cell) {
+        long h = 0;
+        for (long c : cell) {
+            h = (h + c) * 0x9E3779B97F4A7C15L;
+        }
+        return (int) (h ^ (h >>> 32)) & this.mask;
+    }
+
+    private boolean holds(int slot, long[] cell) {
+        int offset = slot * this.dimensions;
+        for (int d = 0; d < this.dimensions; d++) {
+            if (this.cells[offset + d] != cell[d]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return the slot holding `cell`, marked as read, or -1
+     */
+    private int find(long[] cell) {
+        int home = this.home(cell);
+        for (int probe = 0; probe < PROBE_LENGTH; probe++) {
+            int slot = (home + probe) & this.mask;
+            // Slots are overwritten but never emptied, so the cell is not stored past the first empty slot.
+            if (this.flags[slot] == 0) {
+                return -1;
+            }
+            if (this.holds(slot, cell)) {
+                this.flags[slot] |= REFERENCED;
+                return slot;
+            }
+        }
+        return -1;
+    }
+
+    private void store(long[] cell, double cost, boolean exact) {
+        int home = this.home(cell);
+        int slot = -1;
+        // Overwrite the cell if another thread stored it meanwhile, else take the first empty slot.
+        for (int probe = 0; probe < PROBE_LENGTH && slot < 0; probe++) {
+            int s = (home + probe) & this.mask;
+            if (this.flags[s] == 0 || this.holds(s, cell)) {
+                slot = s;
+            }
+        }
+        // All full: evict the first slot from the home slot on not read since a scan last passed it, clearing the
+        // ones this scan passes. After one round every mark is cleared, so the second round stops at the home slot.
+        for (int probe = 0; slot < 0; probe = (probe + 1) % PROBE_LENGTH) {
+            int s = (home + probe) & this.mask;
+            if ((this.flags[s] & REFERENCED) == 0) {
+                slot = s;
+            } else {
+                this.flags[s] &= ~REFERENCED;
+            }
+        }
+        System.arraycopy(cell, 0, this.cells, slot * this.dimensions, this.dimensions);
+        this.costs[slot] = cost;
+        this.flags[slot] = exact ? (byte) (OCCUPIED | EXACT) : OCCUPIED;
+    }
+}
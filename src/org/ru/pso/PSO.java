@@ -11,7 +11,7 @@ import java.util.function.Supplier;
 
 public class PSO<V extends FixedVector> {
     private final List<Particle<V>> swarm;
-    private final Function<V, Double> cost;
+    private final BoundedObjective<V> cost;
     private final PSOConfig<V> config;
     // A Supplier<T> is just a parameterless function which can give you a T
     // It's a surrogate for being able to instantiate generic types
@@ -21,6 +21,14 @@ public class PSO<V extends FixedVector> {
     private int lastSolutionIterations = 0;
 
     public PSO(PSOConfig<V> config, Function<V, Double> objectiveFunction, Supplier<V> vectorFactory) {
+        this(config, (v, ceiling) -> objectiveFunction.apply(v), vectorFactory);
+    }
+
+    /**
+     * Like {@link PSO#PSO(PSOConfig, Function, Supplier)}, but every evaluation is given the personal best of its
+     * particle as a ceiling, so that the objective can give up on positions that are not going to improve on it.
+     */
+    public PSO(PSOConfig<V> config, BoundedObjective<V> objectiveFunction, Supplier<V> vectorFactory) {
         this.swarm = new ArrayList<>(config.swarmSize());
         this.config = config;
         this.cost = objectiveFunction;
@@ -85,7 +93,8 @@ public class PSO<V extends FixedVector> {
             * */
             for(Particle<V> p : this.swarm) {
                 p.move();
-                double particleFitness = cost.apply(p.getPos());
+                // Nothing above the personal best can become a new personal or global best.
+                double particleFitness = cost.compute(p.getPos(), p.getPersonalBestFitness());
 
                 if (particleFitness < bestSoFar) {
                     double oldBest = bestSoFar;
@@ -1,12 +1,9 @@
 package org.ru.pso;
 
-import org.ru.img.AbstractPixel;
+import org.ru.img.PixelCloud;
 import org.ru.vec.Vec2D;
 import org.ru.vec.Vec5D;
 
-import java.util.List;
-import java.util.stream.Collectors;
-
 public class RandomTransformer {
     // Ew this is gross
     public static double[] lastShift = null;
@@ -19,10 +16,10 @@ public class RandomTransformer {
      *               The one exception is scaling. A number (call it Z) in the range [-b, b] is generated, but the scaling
      *               factor is actually 1+Z. So passing in a bound of say: 0.2, means that the candidate is going
      *               to be either scaled up or shrunk by 20% in the worst case.
-     * @param untransformedImage the unmodified image
-     * @return The image after applying random translation, rotation, and scaling
+     * @param untransformedImage the unmodified image, which is left alone
+     * @return A new image: the given one after applying random translation, rotation, and scaling
      */
-    public static List<AbstractPixel> randomTRS(Vec5D bounds, List<AbstractPixel> untransformedImage) {
+    public static PixelCloud randomTRS(Vec5D bounds, PixelCloud untransformedImage) {
         double[] b = bounds.components();
         double xShift = generateInRange(-b[0], b[0]);
         double yShift = generateInRange(-b[1], b[1]);
@@ -44,10 +41,11 @@ public class RandomTransformer {
                 yShift
         });
 
-        List<AbstractPixel> shiftedPixels = translateAllPixels(shift, untransformedImage);
+        // Every step moves each pixel on its own, so after the first one they all work in place.
+        PixelCloud shiftedPixels = translateAllPixels(shift, untransformedImage, new PixelCloud(untransformedImage.size()));
 
         Vec2D centerOfMass = findCenterOfMass(shiftedPixels);
-        List<AbstractPixel> shiftedAndScaledCandidate = scaleAllPixels(xScale, yScale, centerOfMass, shiftedPixels);
+        PixelCloud shiftedAndScaledCandidate = scaleAllPixels(xScale, yScale, centerOfMass, shiftedPixels);
 
         Vec2D centerOfRotation = findCenterOfMass(shiftedAndScaledCandidate);
         return rotateAllPixelsAround(centerOfRotation, theta, shiftedAndScaledCandidate);
@@ -67,50 +65,34 @@ public class RandomTransformer {
         return min*(1.0-interpolationFactor) + max*interpolationFactor;
     }
 
-    private static List<AbstractPixel> scaleAllPixels(double xScaleFactor, double yScaleFactor, Vec2D centerOfMass, List<AbstractPixel> img) {
-        return img.stream().map(oldPixel ->
-                translatePixelBy(centerOfMass.scale(-1), oldPixel)
-        ).map(nonScaledPixel ->
-                scalePixel(xScaleFactor, yScaleFactor, nonScaledPixel)
-        ).map(scaledPixel ->
-                translatePixelBy(centerOfMass, scaledPixel)
-        ).toList();
-    }
-
-    private static AbstractPixel scalePixel(double xScaleFactor, double yScaleFactor, AbstractPixel p) {
-        /* Multiplying the x or y values of a dud pixel can result in NaN through the following process:
-        1. MAX_VALUE * basically_anything = Infinity
-        2. Infinity * 0.0 = NaN
-
-        NaN causes all kinds of issues.
-        So, if a pixel is dud, just return it directly. Don't transform it.
-        TODO: Probably should avoid ALL computation with dud pixels, just to be safe?
-        */
-        if (p.isDud()) {
-            return p;
+    // Scales img around centerOfMass, in place.
+    private static PixelCloud scaleAllPixels(double xScaleFactor, double yScaleFactor, Vec2D centerOfMass, PixelCloud img) {
+        double centerX = centerOfMass.components()[0];
+        double centerY = centerOfMass.components()[1];
+        double[] x = img.xs();
+        double[] y = img.ys();
+        for (int i = 0; i < img.size(); i++) {
+            x[i] = ((x[i] - centerX) * Math.abs(xScaleFactor)) + centerX;
+            y[i] = ((y[i] - centerY) * Math.abs(yScaleFactor)) + centerY;
         }
-
-        return new AbstractPixel(
-                p.x() * Math.abs(xScaleFactor),
-                p.y() * Math.abs(yScaleFactor),
-                p.grayscaleValue(),
-                p.isDud()
-        );
+        return img;
     }
 
-    private static List<AbstractPixel> translateAllPixels(Vec2D v, List<AbstractPixel> img) {
+    // Writes img shifted by v to out.
+    private static PixelCloud translateAllPixels(Vec2D v, PixelCloud img, PixelCloud out) {
         double xShift = v.components()[0];
         double yShift = v.components()[1];
 
-        return img.stream().map(oldPixel -> new AbstractPixel(
-                oldPixel.x() + xShift,
-                oldPixel.y() + yShift,
-                oldPixel.grayscaleValue(),
-                oldPixel.isDud()
-        )).collect(Collectors.toList());
+        for (int i = 0; i < img.size(); i++) {
+            out.xs()[i] = img.xs()[i] + xShift;
+            out.ys()[i] = img.ys()[i] + yShift;
+            out.weights()[i] = img.weights()[i];
+        }
+        return out;
     }
 
-    private static List<AbstractPixel> rotateAllPixelsAround(Vec2D centerOfRotation, double theta, List<AbstractPixel> img) {
+    // Rotates img counterclockwise by theta radians around centerOfRotation, in place.
+    private static PixelCloud rotateAllPixelsAround(Vec2D centerOfRotation, double theta, PixelCloud img) {
         /*
          * Notes about rotation:
          *
@@ -131,45 +113,23 @@ public class RandomTransformer {
          *
          * see: https://www.youtube.com/watch?v=nu2MR1RoFsA
          * */
-
-        return img.stream().map(oldPixel ->
-                translatePixelBy(centerOfRotation.scale(-1), oldPixel)
-        ).map(unrotatedPixel ->
-                rotatePixelBy(theta, unrotatedPixel)
-        ).map(rotatedPixel ->
-                translatePixelBy(centerOfRotation, rotatedPixel)
-        ).toList();
-    }
-
-    private static AbstractPixel translatePixelBy(Vec2D v, AbstractPixel pixel) {
-        double xShift = v.components()[0];
-        double yShift = v.components()[1];
-
-        return new AbstractPixel(
-                pixel.x() + xShift,
-                pixel.y() + yShift,
-                pixel.grayscaleValue(),
-                pixel.isDud()
-        );
-    }
-
-    /**
-     * Rotates a pixel counterclockwise by theta radians
-     * @param theta angle of rotation in radians
-     * @param pixel the pixel/point to rotate
-     * @return a new point which is the original, rotated counterclockwise by theta radians
-     */
-    private static AbstractPixel rotatePixelBy(double theta, AbstractPixel pixel) {
-        double x = pixel.x();
-        double y = pixel.y();
-
-        double newX = (x * Math.cos(theta)) - (y * Math.sin(theta));
-        double newY = (x * Math.sin(theta)) + (y * Math.cos(theta));
-
-        return new AbstractPixel(newX, newY, pixel.grayscaleValue(), pixel.isDud());
+        double centerX = centerOfRotation.components()[0];
+        double centerY = centerOfRotation.components()[1];
+        double cos = Math.cos(theta);
+        double sin = Math.sin(theta);
+
+        double[] x = img.xs();
+        double[] y = img.ys();
+        for (int i = 0; i < img.size(); i++) {
+            double unrotatedX = x[i] - centerX;
+            double unrotatedY = y[i] - centerY;
+            x[i] = ((unrotatedX * cos) - (unrotatedY * sin)) + centerX;
+            y[i] = ((unrotatedX * sin) + (unrotatedY * cos)) + centerY;
+        }
+        return img;
     }
 
-    private static Vec2D findCenterOfMass(List<AbstractPixel> img) {
+    private static Vec2D findCenterOfMass(PixelCloud img) {
         // Wikipedia says: https://en.wikipedia.org/wiki/Center_of_mass#A_system_of_particles
         // Scale each vector by its mass, sum all of those vectors
         // Divide the sum of all vectors, by the sum of all masses
@@ -178,16 +138,12 @@ public class RandomTransformer {
         double sumOfInk = 0;
         double[] accumulator = new double[]{0.0, 0.0};
 
-        // This very well could be premature optimization,
-        // but I wanted to make this as fast as possible, so I avoided
-        // extra indirection/method calls by avoiding Vec2D. Which
-        // otherwise would be a logical choice here.
-        for(AbstractPixel p : img) {
-            double thisPixelsInk = p.grayscaleValue();
+        for (int i = 0; i < img.size(); i++) {
+            double thisPixelsInk = img.weights()[i];
             sumOfInk += thisPixelsInk;
 
-            double scaledX = p.x() * thisPixelsInk;
-            double scaledY = p.y() * thisPixelsInk;
+            double scaledX = img.xs()[i] * thisPixelsInk;
+            double scaledY = img.ys()[i] * thisPixelsInk;
             accumulator[0] += scaledX;
             accumulator[1] += scaledY;
         }
@@ -0,0 +1,45 @@
+package org.ru.pso.objectives;
+
+/**
+ * The inner loop of {@link ImageComparisonBase#computeCostMatrix}: the costs from one candidate pixel to every
+ * reference pixel, which make up one row of the cost matrix. The metric is picked once per matrix by calling one
+ * method or the other, so neither loop branches on it.
+ *
+ * {@link CostKernel#create()} picks a SIMD implementation built on the incubating Vector API when the JVM was started
+ * with `--add-modules jdk.incubator.vector` and the class was compiled (it lives in the separate src-incubator root,
+ * like the kernel of {@link org.ru.ot.GTTransport}). Otherwise, or if anything about loading it fails, the scalar
+ * implementation is used. Both compute exactly the same costs.
+ */
+interface CostKernel {
+    /**
+     * Sets row[i] to the distance between (x, y) and (refX[i], refY[i]), for i < n.
+     */
+    void euclideanRow(double x, double y, double[] refX, double[] refY, int n, double[] row);
+
+    /**
+     * Sets row[i] to the squared distance between (x, y) and (refX[i], refY[i]), for i < n.
+     */
+    void squaredEuclideanRow(double x, double y, double[] refX, double[] refY, int n, double[] row);
+
+    /**
+     * @return the Vector API kernel if it can be loaded, the scalar kernel otherwise
+     */
+    static CostKernel create() {
+        CostKernel vector = loadVector();
+        return vector != null ? vector : new ScalarCostKernel();
+    }
+
+    /**
+     * @return the Vector API kernel, or null if it cannot be loaded
+     */
+    static CostKernel loadVector() {
+        if (ModuleLayer.boot().findModule("jdk.incubator.vector").isPresent()) {
+            try {
+                return (CostKernel) Class.forName("org.ru.pso.objectives.VectorCostKernel").getDeclaredConstructor().newInstance();
+            } catch (ReflectiveOperationException | LinkageError e) {
+                // Not compiled in, or compiled against an incompatible version of the module.
+            }
+        }
+        return null;
+    }
+}
@@ -2,57 +2,86 @@ package org.ru.pso.objectives;
 
 import org.ru.img.AbstractPixel;
 import org.ru.img.ImgReader;
+import org.ru.img.PixelCloud;
+import org.ru.img.ReferenceModel;
+import org.ru.ot.DoubleMatrix;
+import org.ru.ot.Mapping;
+import org.ru.ot.MatrixMemory;
+import org.ru.ot.SparseMapping;
+import org.ru.ot.TransportBackend;
+import org.ru.ot.TransportSolver;
 import org.ru.vec.FixedVector;
 import org.ru.vec.Vec2D;
 
 import java.awt.image.BufferedImage;
 import java.util.List;
-import java.util.stream.Collectors;
 
-abstract public class ImageComparisonBase<V extends FixedVector> {
-    protected final List<AbstractPixel> refImg;
-    protected final List<AbstractPixel> candidateImg;
+abstract public class ImageComparisonBase<V extends FixedVector> implements AutoCloseable {
+    protected final PixelCloud refImg;
+    protected final PixelCloud candidateImg;
+    // Where subclasses transform the candidate into on every call to compute, so that evaluating a transformation
+    // allocates nothing per pixel. Overwritten by the next call. It starts out as a copy of the candidate, so its
+    // weights are already right for transformations that only write coordinates.
+    protected final PixelCloud transformedImg;
+    // The candidate never changes, so neither does its center of mass.
+    protected final Vec2D candidateCenterOfMass;
     protected boolean useSquaredEuclidean = false;
+    // OT solver reused across every call to compute. This makes objectives NOT thread safe, which matches how they
+    // are used: each classification thread builds its own objective.
+    protected final TransportSolver transport;
+    // When set, OT is solved on a sparse graph built straight from the pixel coordinates instead of on the dense
+    // cost matrix. See setSparseTransport.
+    private SparseMapping sparseTransport = null;
+    // When set, the same solver as transport, which then computes the edge costs from the pixel coordinates as it
+    // reads them instead of being handed a cost matrix. See setLazyCosts.
+    private Mapping lazyTransport = null;
+    // The cost matrix of the last call to computeCostMatrix, overwritten by the next call of the same shape. Every
+    // solver copies what it needs out of the matrix, so one per objective is enough.
+    private DoubleMatrix costMatrix = DoubleMatrix.of(new double[0][0]);
+    // Where costMatrix, and the matrices of the solver, are allocated. See setOffHeapMatrices.
+    private MatrixMemory matrixMemory = MatrixMemory.heap();
+    // A row of costMatrix, filled here before it is copied into a matrix off the heap.
+    private double[] costRow = new double[0];
+    // Fills the rows of costMatrix, with SIMD when the Vector API is available. Stateless, so shared by every objective.
+    private static final CostKernel COST_KERNEL = CostKernel.create();
+    // Solves whose solver reported that it could not keep to delta, see getInexactSolves.
+    private long inexactSolves = 0;
 
     // We add this version of ImageComparisonBase so that we can pre-transform the candidate for a whole set of classifications
     public ImageComparisonBase(BufferedImage referenceImage, List<AbstractPixel> candidateImg, double threshold, boolean useSquaredEuclidean) {
-        this.refImg = this.normalizeAbstractPixels(
-                ImgReader.convertToAbstractPixelsViaKernel(referenceImage, threshold)
-        );
-        this.candidateImg = this.normalizeAbstractPixels(
-            candidateImg
-        );
+        this(referenceImage, PixelCloud.of(candidateImg), threshold, useSquaredEuclidean, TransportBackend.GABOW_TARJAN);
+    }
 
-        this.useSquaredEuclidean = useSquaredEuclidean;
+    public ImageComparisonBase(BufferedImage referenceImage, List<AbstractPixel> candidateImg, double threshold, boolean useSquaredEuclidean, TransportBackend backend) {
+        this(referenceImage, PixelCloud.of(candidateImg), threshold, useSquaredEuclidean, backend);
+    }
 
-        int largestImage = Integer.max(this.refImg.size(), this.candidateImg.size());
-        this.balanceNumberOfPixels(this.refImg, largestImage);
-        this.balanceNumberOfPixels(this.candidateImg, largestImage);
+    public ImageComparisonBase(BufferedImage referenceImage, PixelCloud candidateImg, double threshold, boolean useSquaredEuclidean) {
+        this(referenceImage, candidateImg, threshold, useSquaredEuclidean, TransportBackend.GABOW_TARJAN);
+    }
 
-        if (this.refImg.size() != this.candidateImg.size()) {
-            System.err.printf("Ref Img: %d, Candidate Img: %d", this.refImg.size(), this.candidateImg.size());
-            throw new RuntimeException("Reference image and candidate image must have the same number of abstract pixels in them!");
-        }
+    public ImageComparisonBase(BufferedImage referenceImage, PixelCloud candidateImg, double threshold, boolean useSquaredEuclidean, TransportBackend backend) {
+        this(new ReferenceModel(referenceImage, threshold), candidateImg, useSquaredEuclidean, backend);
     }
 
-    public ImageComparisonBase(BufferedImage referenceImage, BufferedImage candidateImage, double threshold, boolean useSquaredEuclidean) {
-        this.refImg = this.normalizeAbstractPixels(
-                ImgReader.convertToAbstractPixelsViaKernel(referenceImage, threshold)
-        );
-        this.candidateImg = this.normalizeAbstractPixels(
-                ImgReader.convertToAbstractPixelsViaKernel(candidateImage, threshold)
-        );
+    // Neither the reference nor the candidate cloud is written to, so both can be shared by the objectives of every
+    // thread. Only the candidate is normalized here, the reference model already is.
+    public ImageComparisonBase(ReferenceModel reference, PixelCloud candidateImg, boolean useSquaredEuclidean, TransportBackend backend) {
+        this.transport = backend.create();
+        this.refImg = reference.cloud();
+        this.candidateImg = candidateImg.normalized();
+        this.transformedImg = this.candidateImg.copy();
+        this.candidateCenterOfMass = this.findCenterOfMass(this.candidateImg);
 
         this.useSquaredEuclidean = useSquaredEuclidean;
+    }
 
-        int largestImage = Integer.max(this.refImg.size(), this.candidateImg.size());
-        this.balanceNumberOfPixels(this.refImg, largestImage);
-        this.balanceNumberOfPixels(this.candidateImg, largestImage);
+    public ImageComparisonBase(BufferedImage referenceImage, BufferedImage candidateImage, double threshold, boolean useSquaredEuclidean) {
+        this(referenceImage, candidateImage, threshold, useSquaredEuclidean, TransportBackend.GABOW_TARJAN);
+    }
 
-        if (this.refImg.size() != this.candidateImg.size()) {
-            System.err.printf("Ref Img: %d, Candidate Img: %d", this.refImg.size(), this.candidateImg.size());
-            throw new RuntimeException("Reference image and candidate image must have the same number of abstract pixels in them!");
-        }
+    public ImageComparisonBase(BufferedImage referenceImage, BufferedImage candidateImage, double threshold, boolean useSquaredEuclidean, TransportBackend backend) {
+        this(referenceImage, ImgReader.convertToPixelCloudViaKernel(candidateImage, threshold), threshold, useSquaredEuclidean, backend);
     }
 
     public ImageComparisonBase(BufferedImage referenceImage, BufferedImage candidateImage, boolean useSquaredEuclidean) {
@@ -60,125 +89,243 @@ abstract public class ImageComparisonBase<V extends FixedVector> {
     }
 
 
-    abstract double compute(V v);
+    /**
+     * Lets the OT solver start each call to compute from where the previous call left off. Successive calls from an
+     * optimizer tend to probe nearby transformations, which makes the previous solution a good starting point.
+     * @see TransportSolver#setWarmStart(boolean)
+     */
+    public void setWarmStart(boolean warmStart) {
+        this.transport.setWarmStart(warmStart);
+    }
 
-    protected double[][] computeCostMatrix(List<AbstractPixel> refImg, List<AbstractPixel> candidateImg) {
-        double[][] costMatrix = new double[refImg.size()][refImg.size()];
+    /**
+     * Makes the delta each objective passes to the OT solver relative to the largest edge cost of the instance, so
+     * that it means the same, and takes about the same time, for every candidate.
+     * @see TransportSolver#setNormalizeCosts(boolean)
+     */
+    public void setNormalizeCosts(boolean normalizeCosts) {
+        this.transport.setNormalizeCosts(normalizeCosts);
+    }
 
-        for (int i = 0; i < refImg.size(); i++) {
-            AbstractPixel refPixel = refImg.get(i);
-            for (int j = 0; j < candidateImg.size(); j++) {
-                AbstractPixel candidatePixel = candidateImg.get(j);
-                double cost;
-                if (this.useSquaredEuclidean) {
-                    cost = this.squaredEuclideanDistance(
-                            refPixel.x(),
-                            refPixel.y(),
-                            candidatePixel.x(),
-                            candidatePixel.y()
-                    );
-                } else {
-                    cost = this.euclideanDistance(
-                            refPixel.x(),
-                            refPixel.y(),
-                            candidatePixel.x(),
-                            candidatePixel.y()
-                    );
-                }
-                // Ref image is ALWAYS the supply
-                // Cand image is ALWAYS the demand
-                // Mapping.java expects C (the costs) to be defined, such that
-                // C[p][q] == cost from demand vertex P to supply vertex Q
-                // i is a ref pixel
-                // j is a cand pixel
-                // Therefore, C[j][i] == jth demand to ith supply, exactly what we want
-                if (candidatePixel.isDud() || refPixel.isDud()) {
-                    // costMatrix[i][j] = 0;
-                    costMatrix[j][i] = 0;
-                } else {
-                    // costMatrix[i][j] = cost;
-                    costMatrix[j][i] = cost;
-                }
+    /**
+     * Solves OT on a sparse graph that connects each pixel to its nearest pixels in the other image, instead of on the
+     * dense cost matrix. The result is as accurate, but memory grows linearly with the number of pixels, which
+     * makes high resolution images feasible.
+     * @param neighbors how many nearest pixels each pixel starts out connected to, or 0 to use the dense matrix
+     * @see SparseMapping
+     */
+    public void setSparseTransport(int neighbors) {
+        this.sparseTransport = neighbors > 0 ? new SparseMapping(neighbors, 0, this.useSquaredEuclidean) : null;
+    }
+
+    /**
+     * Has the sparse OT solver start from a solve of both images pooled into square cells of cellSize pixels, instead
+     * of from each pixel's nearest neighbors. The result is as accurate, and on large images it takes fewer rounds.
+     * @param cellSize the side of a cell in pixels, or 0 to start from nearest neighbors
+     * @throws IllegalStateException if a cell size is given but sparse transport is off
+     * @see SparseMapping#setCoarseCellSize(double)
+     */
+    public void setMultiscaleTransport(double cellSize) {
+        if (this.sparseTransport == null) {
+            if (cellSize > 0) {
+                throw new IllegalStateException("Multi-scale transport needs sparse transport, see setSparseTransport");
             }
+            return;
         }
+        this.sparseTransport.setCoarseCellSize(cellSize);
+    }
 
-        return costMatrix;
+    /**
+     * Has the OT solver compute the cost of each edge from the pixel coordinates when it needs it, instead of building
+     * the dense cost matrix for every call to compute. The result is the same, but the cost matrix and the copies the
+     * solver makes of it are never allocated, which leaves a fraction of the memory per thread.
+     * @throws IllegalStateException if the objective does not use the Gabow-Tarjan backend
+     * @see Mapping#solveCost(double[], double[], double[], double[], double[], double[], boolean, double, double)
+     */
+    public void setLazyCosts(boolean lazyCosts) {
+        if (lazyCosts && !(this.transport instanceof Mapping)) {
+            throw new IllegalStateException("Lazy costs need the Gabow-Tarjan backend");
+        }
+        this.lazyTransport = lazyCosts ? (Mapping) this.transport : null;
     }
 
     /**
-     * Convert a List of AbstractPixels to an array of greyscale values.
-     *
-     * @param img the image to convert
-     * @return the greyscale values of `img` in an array
+     * Keeps the cost matrix of every call to compute, and the matrices the OT solver scales it into, off the heap,
+     * where the garbage collector never has to copy them. The result is the same, but solves are somewhat slower. Needs
+     * the Foreign Memory API; without it the matrices stay on the heap, see {@link MatrixMemory#offHeap()}. Call
+     * close once the objective is no longer used to free them.
+     * @throws IllegalStateException if the objective does not use the Gabow-Tarjan backend
+     * @see Mapping#setMatrixMemory(MatrixMemory)
      */
-    protected double[] getGrayscaleArray(List<AbstractPixel> img) {
-        double[] contents = new double[img.size()];
-        for (int i = 0; i < contents.length; i++) {
-            contents[i] = img.get(i).grayscaleValue();
+    public void setOffHeapMatrices(boolean offHeap) {
+        if (offHeap && !(this.transport instanceof Mapping)) {
+            throw new IllegalStateException("Off-heap matrices need the Gabow-Tarjan backend");
+        }
+        MatrixMemory memory = offHeap ? MatrixMemory.offHeap() : MatrixMemory.heap();
+        if (this.transport instanceof Mapping) {
+            ((Mapping) this.transport).setMatrixMemory(memory);
         }
-        return contents;
+        this.costMatrix.free();
+        this.costMatrix = DoubleMatrix.of(new double[0][0]);
+        this.matrixMemory.close();
+        this.matrixMemory = memory;
     }
 
-    private double euclideanDistance(double x1, double y1, double x2, double y2) {
-        return Math.sqrt(
-                Math.pow(x2 - x1, 2) + Math.pow(y2 - y1, 2)
-        );
+    /**
+     * Frees the matrices kept off the heap, if any, and puts them back on the heap for any further call to compute.
+     */
+    @Override
+    public void close() {
+        this.setOffHeapMatrices(false);
     }
 
-    private double squaredEuclideanDistance(double x1, double y1, double x2, double y2) {
-        // Something about this causes the program to hang badly, no clue why...
-        // return Math.pow(x2 - x1, 2) + Math.pow(y2 - y1, 2);
+    abstract double compute(V v);
 
-        // Sometimes, the program will still get stuck even doing this.
-        return ((x2-x1) * (x2-x1)) + ((y2-y1) * (y2-y1));
+    /**
+     * Computes the cost like compute, for an optimizer that only cares about costs below `ceiling`, like a particle
+     * that only moves its personal best for a lower cost. Once the cost is known to be above `ceiling` the rest of the
+     * work is skipped and a value above `ceiling` is returned instead. Objectives that cannot tell early compute the
+     * full cost.
+     */
+    public double computeWithCeiling(V v, double ceiling) {
+        return this.compute(v);
     }
 
-    private List<AbstractPixel> normalizeAbstractPixels(List<AbstractPixel> img) {
-        double totalInk = img.stream().map(AbstractPixel::grayscaleValue).reduce(0.0, Double::sum);
-        return img.stream().map(oldPixel -> {
-            double newGreyscaleValue = oldPixel.grayscaleValue() / totalInk;
-            return new AbstractPixel(oldPixel.x(), oldPixel.y(), newGreyscaleValue);
-        }).collect(Collectors.toList());
+    /**
+     * Computes the cost of optimally transporting the reference image onto the candidate image, up to an additive
+     * error of delta. The reference image is the supply and the candidate image is the demand.
+     */
+    protected double computeTransportCost(PixelCloud refImg, PixelCloud candidateImg, double delta) {
+        return this.computeTransportCost(refImg, candidateImg, delta, Double.POSITIVE_INFINITY);
     }
 
     /**
-     * Adds dud pixels to the provided image until it contains `largestImage` number
-     * of AbstractPixels.
-     *
-     * If the size of the provided image is greater than or equal to `largestImage`, this
-     * method does nothing.
-     * @param img the image to balance
-     * @param largestImage the number of AbstractPixels in the largest image
+     * Like {@link ImageComparisonBase#computeTransportCost(PixelCloud, PixelCloud, double)}, but the solver may stop early, and
+     * return a lower bound above `ceiling` instead of the cost, once it knows the cost is above `ceiling`.
+     * @see TransportSolver#solveCost(int, int, double[], double[], double[][], double, double)
      */
-    private void balanceNumberOfPixels(List<AbstractPixel> img, int largestImage) {
-        if (img.size() < largestImage) {
-            int numPixelsToAdd = largestImage - img.size();
-            for (int i = 0; i < numPixelsToAdd; i++) {
-                // The grayscale value is the supply or demand of the pixel from the perspective
-                // of OT. So pixels with 0 weight are effectively ignored. This lets us run OT
-                // on images where the number of dark pixels is not equal. We also set the 'isDud'
-                // field to true, which means their cost will also be 0 when computing the cost matrix.
-
-                img.add(new AbstractPixel(Double.MAX_VALUE, Double.MAX_VALUE, 0, true));
+    protected double computeTransportCost(PixelCloud refImg, PixelCloud candidateImg, double delta, double ceiling) {
+        // The solvers read the arrays of the clouds in place, none of them writes to its inputs.
+        double[] supplies = refImg.weights();
+        double[] demands = candidateImg.weights();
+
+        if (this.sparseTransport != null) {
+            double cost = this.sparseTransport.solve(
+                    refImg.xs(), refImg.ys(), supplies,
+                    candidateImg.xs(), candidateImg.ys(), demands,
+                    delta, ceiling
+            );
+            this.countSolve(this.sparseTransport.withinDelta());
+            return cost;
+        }
+        double cost;
+        if (this.lazyTransport != null) {
+            cost = this.lazyTransport.solveCost(
+                    refImg.xs(), refImg.ys(), supplies,
+                    candidateImg.xs(), candidateImg.ys(), demands,
+                    this.useSquaredEuclidean, delta, ceiling
+            );
+        } else {
+            // The images rarely have the same number of pixels, and they do not need to: the solver takes an
+            // n x m instance, so neither image is padded.
+            DoubleMatrix costs = this.computeCostMatrix(refImg, candidateImg);
+            // Objectives only need the cost, so the solver is free to skip building the dense plan.
+            cost = this.transport.solveCost(refImg.size(), candidateImg.size(), supplies, demands, costs, delta, ceiling);
+        }
+        this.countSolve(this.transport.withinDelta());
+        return cost;
+    }
+
+    private void countSolve(boolean withinDelta) {
+        if (!withinDelta) {
+            this.inexactSolves++;
+        }
+    }
+
+    /**
+     * @return how many of the transport problems solved so far came back with a cost that may be further than delta
+     * from the optimum, because the solver could not keep to delta on them
+     * @see TransportSolver#withinDelta()
+     */
+    public long getInexactSolves() {
+        return this.inexactSolves;
+    }
+
+    /**
+     * Fills the matrix of costs between every candidate pixel (row) and every reference pixel (column). The matrix is
+     * reused: it stays valid until the next call, and is only reallocated when the number of pixels changes. An
+     * optimizer evaluates the same pair of images over and over, so most calls allocate nothing.
+     */
+    protected DoubleMatrix computeCostMatrix(PixelCloud refImg, PixelCloud candidateImg) {
+        if (this.costMatrix.rows() != candidateImg.size()
+                || (this.costMatrix.rows() > 0 && this.costMatrix.columns() != refImg.size())) {
+            this.costMatrix.free();
+            this.costMatrix = this.matrixMemory.allocateDoubles(candidateImg.size(), refImg.size());
+            this.costRow = new double[refImg.size()];
+        }
+        // Off the heap, each row is filled in costRow and copied in.
+        double[][] costMatrix = this.costMatrix.array();
+
+        // Ref image is ALWAYS the supply
+        // Cand image is ALWAYS the demand
+        // Mapping.java expects C (the costs) to be defined, such that
+        // C[p][q] == cost from demand vertex P to supply vertex Q
+        // Therefore, C[j][i] == jth demand (cand pixel) to ith supply (ref pixel), and each candidate pixel fills
+        // one row of the matrix, front to back.
+        double[] refX = refImg.xs();
+        double[] refY = refImg.ys();
+        double[] candidateX = candidateImg.xs();
+        double[] candidateY = candidateImg.ys();
+        if (this.useSquaredEuclidean) {
+            // Squared costs between far apart pixels used to hang the program: scaled by Mapping they overflowed
+            // int, and the Gabow-Tarjan routine never finished. Mapping now takes scaled costs past the range of an
+            // int as longs, and reports the rare instance it cannot scale finely enough, see getInexactSolves.
+            for (int j = 0; j < candidateImg.size(); j++) {
+                double[] row = costMatrix != null ? costMatrix[j] : this.costRow;
+                COST_KERNEL.squaredEuclideanRow(candidateX[j], candidateY[j], refX, refY, refImg.size(), row);
+                if (costMatrix == null) {
+                    this.costMatrix.setRow(j, row);
+                }
+            }
+        } else {
+            for (int j = 0; j < candidateImg.size(); j++) {
+                double[] row = costMatrix != null ? costMatrix[j] : this.costRow;
+                COST_KERNEL.euclideanRow(candidateX[j], candidateY[j], refX, refY, refImg.size(), row);
+                if (costMatrix == null) {
+                    this.costMatrix.setRow(j, row);
+                }
             }
         }
-        // If this IS the largest image, do nothing.
-        // If the image is larger than the "largestImage", then "largestImage" is wrong.
+
+        return this.costMatrix;
     }
 
-    protected List<AbstractPixel> translateAllPixels(Vec2D v, List<AbstractPixel> img) {
+    /**
+     * Writes `img` shifted by v to `out`, which must have as many pixels and may be `img` itself.
+     * @return out
+     */
+    protected PixelCloud translateAllPixels(Vec2D v, PixelCloud img, PixelCloud out) {
         double xShift = v.components()[0];
         double yShift = v.components()[1];
 
-        return img.stream().map(oldPixel -> new AbstractPixel(
-                oldPixel.x() + xShift,
-                oldPixel.y() + yShift,
-                oldPixel.grayscaleValue(),
-                oldPixel.isDud()
-        )).collect(Collectors.toList());
+        double[] x = img.xs();
+        double[] y = img.ys();
+        double[] newX = out.xs();
+        double[] newY = out.ys();
+        for (int i = 0; i < img.size(); i++) {
+            newX[i] = x[i] + xShift;
+            newY[i] = y[i] + yShift;
+        }
+        copyWeights(img, out);
+        return out;
     }
 
-    protected List<AbstractPixel> rotateAllPixelsAround(Vec2D centerOfRotation, double theta, List<AbstractPixel> img) {
+    /**
+     * Writes `img` rotated counterclockwise by theta radians around centerOfRotation to `out`, which must have as many
+     * pixels and may be `img` itself.
+     * @return out
+     */
+    protected PixelCloud rotateAllPixelsAround(Vec2D centerOfRotation, double theta, PixelCloud img, PixelCloud out) {
         /*
          * Notes about rotation:
          *
@@ -199,45 +346,33 @@ abstract public class ImageComparisonBase<V extends FixedVector> {
          *
          * see: https://www.youtube.com/watch?v=nu2MR1RoFsA
          * */
-
-        return img.stream().map(oldPixel ->
-                this.translatePixelBy(centerOfRotation.scale(-1), oldPixel)
-        ).map(unrotatedPixel ->
-                this.rotatePixelBy(theta, unrotatedPixel)
-        ).map(rotatedPixel ->
-                this.translatePixelBy(centerOfRotation, rotatedPixel)
-        ).toList();
-    }
-
-    protected AbstractPixel translatePixelBy(Vec2D v, AbstractPixel pixel) {
-        double xShift = v.components()[0];
-        double yShift = v.components()[1];
-
-        return new AbstractPixel(
-                pixel.x() + xShift,
-                pixel.y() + yShift,
-                pixel.grayscaleValue(),
-                pixel.isDud()
-        );
+        double centerX = centerOfRotation.components()[0];
+        double centerY = centerOfRotation.components()[1];
+        double cos = Math.cos(theta);
+        double sin = Math.sin(theta);
+
+        double[] x = img.xs();
+        double[] y = img.ys();
+        double[] newX = out.xs();
+        double[] newY = out.ys();
+        for (int i = 0; i < img.size(); i++) {
+            double unrotatedX = x[i] - centerX;
+            double unrotatedY = y[i] - centerY;
+            newX[i] = ((unrotatedX * cos) - (unrotatedY * sin)) + centerX;
+            newY[i] = ((unrotatedX * sin) + (unrotatedY * cos)) + centerY;
+        }
+        copyWeights(img, out);
+        return out;
     }
 
-    /**
-     * Rotates a pixel counterclockwise by theta radians
-     * @param theta angle of rotation in radians
-     * @param pixel the pixel/point to rotate
-     * @return a new point which is the original, rotated counterclockwise by theta radians
-     */
-    protected AbstractPixel rotatePixelBy(double theta, AbstractPixel pixel) {
-        double x = pixel.x();
-        double y = pixel.y();
-
-        double newX = (x * Math.cos(theta)) - (y * Math.sin(theta));
-        double newY = (x * Math.sin(theta)) + (y * Math.cos(theta));
-
-        return new AbstractPixel(newX, newY, pixel.grayscaleValue(), pixel.isDud());
+    // Transformations only move pixels, so the weights are carried over as they are.
+    protected static void copyWeights(PixelCloud img, PixelCloud out) {
+        if (img != out) {
+            System.arraycopy(img.weights(), 0, out.weights(), 0, img.size());
+        }
     }
 
-    protected Vec2D findCenterOfMass(List<AbstractPixel> img) {
+    protected Vec2D findCenterOfMass(PixelCloud img) {
         // Wikipedia says: https://en.wikipedia.org/wiki/Center_of_mass#A_system_of_particles
         // Scale each vector by its mass, sum all of those vectors
         // Divide the sum of all vectors, by the sum of all masses
@@ -246,16 +381,15 @@ abstract public class ImageComparisonBase<V extends FixedVector> {
         double sumOfInk = 0;
         double[] accumulator = new double[]{0.0, 0.0};
 
-        // This very well could be premature optimization,
-        // but I wanted to make this as fast as possible, so I avoided
-        // extra indirection/method calls by avoiding Vec2D. Which
-        // otherwise would be a logical choice here.
-        for(AbstractPixel p : img) {
-            double thisPixelsInk = p.grayscaleValue();
+        double[] x = img.xs();
+        double[] y = img.ys();
+        double[] ink = img.weights();
+        for (int i = 0; i < img.size(); i++) {
+            double thisPixelsInk = ink[i];
             sumOfInk += thisPixelsInk;
 
-            double scaledX = p.x() * thisPixelsInk;
-            double scaledY = p.y() * thisPixelsInk;
+            double scaledX = x[i] * thisPixelsInk;
+            double scaledY = y[i] * thisPixelsInk;
             accumulator[0] += scaledX;
             accumulator[1] += scaledY;
         }
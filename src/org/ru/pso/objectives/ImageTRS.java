@@ -1,8 +1,9 @@
 package org.ru.pso.objectives;
 
 import org.ru.img.AbstractPixel;
-import org.ru.ot.Mapping;
-import org.ru.vec.Vec2D;
+import org.ru.img.PixelCloud;
+import org.ru.img.ReferenceModel;
+import org.ru.ot.TransportBackend;
 import org.ru.vec.Vec5D;
 
 import java.awt.image.BufferedImage;
@@ -12,14 +13,30 @@ import java.util.List;
  * Image Translation, Scaling, and Rotation
  */
 public class ImageTRS extends ImageComparisonBase<Vec5D> {
-    private List<AbstractPixel> lastSetOfCandidatePoints = null;
-    private List<AbstractPixel> lastSetOfReferencePoints = null;
+    private PixelCloud lastSetOfCandidatePoints = null;
+    private PixelCloud lastSetOfReferencePoints = null;
 
     // We add this version of ImageTRS so that we can pre-transform the candidate for a whole set of classifications
     public ImageTRS(BufferedImage referenceImage, List<AbstractPixel> candidateImage, double threshold, boolean useSquaredEuclidean) {
         super(referenceImage, candidateImage, threshold, useSquaredEuclidean);
     }
 
+    public ImageTRS(BufferedImage referenceImage, List<AbstractPixel> candidateImage, double threshold, boolean useSquaredEuclidean, TransportBackend backend) {
+        super(referenceImage, candidateImage, threshold, useSquaredEuclidean, backend);
+    }
+
+    public ImageTRS(BufferedImage referenceImage, PixelCloud candidateImage, double threshold, boolean useSquaredEuclidean) {
+        super(referenceImage, candidateImage, threshold, useSquaredEuclidean);
+    }
+
+    public ImageTRS(BufferedImage referenceImage, PixelCloud candidateImage, double threshold, boolean useSquaredEuclidean, TransportBackend backend) {
+        super(referenceImage, candidateImage, threshold, useSquaredEuclidean, backend);
+    }
+
+    public ImageTRS(ReferenceModel reference, PixelCloud candidateImage, boolean useSquaredEuclidean, TransportBackend backend) {
+        super(reference, candidateImage, useSquaredEuclidean, backend);
+    }
+
     public ImageTRS(BufferedImage referenceImage, BufferedImage candidateImage, double threshold, boolean useSquaredEuclidean) {
         super(referenceImage, candidateImage, threshold, useSquaredEuclidean);
     }
@@ -29,80 +46,91 @@ public class ImageTRS extends ImageComparisonBase<Vec5D> {
     }
 
     public double compute(Vec5D v) {
-        double [] transformationComponents = v.components();
-        Vec2D shift = new Vec2D(new double[]{
-                transformationComponents[0],
-                transformationComponents[1],
-        });
-        double theta = transformationComponents[2];
-        double xScaleFactor = transformationComponents[3];
-        double yScaleFactor = transformationComponents[4];
+        return this.computeWithCeiling(v, Double.POSITIVE_INFINITY);
+    }
 
-        List<AbstractPixel> shiftedPixels = this.translateAllPixels(shift, this.candidateImg);
+    @Override
+    public double computeWithCeiling(Vec5D v, double ceiling) {
+        PixelCloud fullyTransformedPixels = this.transformCandidate(v);
+        // The penalty is known up front, so only the rest of the ceiling is left for the transport cost.
+        double penalty = this.transformationPenalty(v);
+        return this.transportCostOf(fullyTransformedPixels, ceiling - penalty) + penalty;
+    }
 
-        Vec2D centerOfMass = this.findCenterOfMass(shiftedPixels);
-        List<AbstractPixel> shiftedAndScaledCandidate = this.scaleAllPixels(xScaleFactor, yScaleFactor, centerOfMass, shiftedPixels);
+    /**
+     * The cost of transporting the reference image onto the transformed candidate. May return any value above
+     * `ceiling` once the cost is known to be above it.
+     */
+    protected double transportCostOf(PixelCloud fullyTransformedPixels, double ceiling) {
+        return this.computeTransportCost(this.refImg, fullyTransformedPixels, 0.10, ceiling);
+    }
 
-        Vec2D centerOfRotation = this.findCenterOfMass(shiftedAndScaledCandidate);
-        List<AbstractPixel> fullyTransformedPixels = this.rotateAllPixelsAround(centerOfRotation, theta, shiftedAndScaledCandidate);
+    /**
+     * Applies the transformation `v` to the candidate image: shift, then scale around the center of mass, then rotate
+     * around the new center of mass. The result is written to transformedImg.
+     *
+     * The three steps are done as a single affine map. Shifting moves the center of mass c along with the pixels, and
+     * scaling or rotating around the center of mass leaves it where it is, so both happen around c + shift. Every
+     * pixel p ends up at R S (p - c) + c + shift, where S scales and R rotates, and c is that of the untransformed
+     * candidate, which never changes.
+     */
+    protected PixelCloud transformCandidate(Vec5D v) {
+        double [] transformationComponents = v.components();
+        double xShift = transformationComponents[0];
+        double yShift = transformationComponents[1];
+        double theta = transformationComponents[2];
+        double xScaleFactor = Math.abs(transformationComponents[3]);
+        double yScaleFactor = Math.abs(transformationComponents[4]);
+
+        double cos = Math.cos(theta);
+        double sin = Math.sin(theta);
+        // [m00 m01 tx]
+        // [m10 m11 ty] = R S, followed by the translation that puts c at c + shift.
+        double m00 = cos * xScaleFactor;
+        double m01 = -sin * yScaleFactor;
+        double m10 = sin * xScaleFactor;
+        double m11 = cos * yScaleFactor;
+        double centerX = this.candidateCenterOfMass.components()[0];
+        double centerY = this.candidateCenterOfMass.components()[1];
+        double tx = centerX + xShift - (m00 * centerX + m01 * centerY);
+        double ty = centerY + yShift - (m10 * centerX + m11 * centerY);
+
+        // transformedImg already has the weights of the candidate, only the coordinates move.
+        double[] x = this.candidateImg.xs();
+        double[] y = this.candidateImg.ys();
+        double[] newX = this.transformedImg.xs();
+        double[] newY = this.transformedImg.ys();
+        for (int i = 0; i < newX.length; i++) {
+            newX[i] = m00 * x[i] + m01 * y[i] + tx;
+            newY[i] = m10 * x[i] + m11 * y[i] + ty;
+        }
 
         // These are exposed PURELY for drawing code -- we need the coordinates of the points to draw diagrams
         // of the results.
-        this.lastSetOfCandidatePoints = fullyTransformedPixels;
+        this.lastSetOfCandidatePoints = this.transformedImg;
         this.lastSetOfReferencePoints = this.refImg;
 
-        int n = this.refImg.size();
-        double[] supplies = this.getGrayscaleArray(this.refImg);
-        double[] demands = this.getGrayscaleArray(fullyTransformedPixels);
-
-        double[][] costs = this.computeCostMatrix(this.refImg, fullyTransformedPixels);
+        return this.transformedImg;
+    }
 
-        Mapping mapping = new Mapping(n, supplies, demands, costs, 0.10);
+    protected double transformationPenalty(Vec5D v) {
+        double theta = v.components()[2];
+        double xScaleFactor = v.components()[3];
+        double yScaleFactor = v.components()[4];
 
         // Keep penalizing rotation, maybe penalize scaling?
         double rotationPenalty = Math.abs(theta);
         double xScalingPenalty = Math.abs(1.0 - Math.abs(xScaleFactor));
         double yScalingPenalty = Math.abs(1.0 - Math.abs(yScaleFactor));
 
-        return mapping.getTotalCost() + (rotationPenalty*rotationPenalty) + xScalingPenalty + yScalingPenalty;
-    }
-
-    private List<AbstractPixel> scaleAllPixels(double xScaleFactor, double yScaleFactor, Vec2D centerOfMass, List<AbstractPixel> img) {
-        return img.stream().map(oldPixel ->
-            this.translatePixelBy(centerOfMass.scale(-1), oldPixel)
-        ).map(nonScaledPixel ->
-            this.scalePixel(xScaleFactor, yScaleFactor, nonScaledPixel)
-        ).map(scaledPixel ->
-            this.translatePixelBy(centerOfMass, scaledPixel)
-        ).toList();
-    }
-
-    private AbstractPixel scalePixel(double xScaleFactor, double yScaleFactor, AbstractPixel p) {
-        /* Multiplying the x or y values of a dud pixel can result in NaN through the following process:
-        1. MAX_VALUE * basically_anything = Infinity
-        2. Infinity * 0.0 = NaN
-
-        NaN causes all kinds of issues.
-        So, if a pixel is dud, just return it directly. Don't transform it.
-        TODO: Probably should avoid ALL computation with dud pixels, just to be safe?
-        */
-        if (p.isDud()) {
-            return p;
-        }
-
-        return new AbstractPixel(
-                p.x() * Math.abs(xScaleFactor),
-                p.y() * Math.abs(yScaleFactor),
-                p.grayscaleValue(),
-                p.isDud()
-        );
+        return (rotationPenalty*rotationPenalty) + xScalingPenalty + yScalingPenalty;
     }
 
     public List<AbstractPixel> getLastSetOfCandidatePoints() {
-        return lastSetOfCandidatePoints;
+        return lastSetOfCandidatePoints == null ? null : lastSetOfCandidatePoints.toPixels();
     }
 
     public List<AbstractPixel> getLastSetOfReferencePoints() {
-        return lastSetOfReferencePoints;
+        return lastSetOfReferencePoints == null ? null : lastSetOfReferencePoints.toPixels();
     }
 }
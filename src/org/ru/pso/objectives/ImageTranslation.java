@@ -1,11 +1,9 @@
 package org.ru.pso.objectives;
 
-import org.ru.img.AbstractPixel;
-import org.ru.ot.Mapping;
+import org.ru.img.PixelCloud;
 import org.ru.vec.Vec2D;
 
 import java.awt.image.BufferedImage;
-import java.util.List;
 
 public class ImageTranslation extends ImageComparisonBase<Vec2D> {
     public ImageTranslation(BufferedImage referenceImage, BufferedImage candidateImage, boolean useSquaredEuclidean) {
@@ -13,13 +11,8 @@ public class ImageTranslation extends ImageComparisonBase<Vec2D> {
     }
 
     public double compute(Vec2D v) {
-        List<AbstractPixel> adjustedCandidate = this.translateAllPixels(v, this.candidateImg);
+        PixelCloud adjustedCandidate = this.translateAllPixels(v, this.candidateImg, this.transformedImg);
 
-        int n = this.refImg.size();
-        double[] supplies = this.getGrayscaleArray(this.refImg);
-        double[] demands = this.getGrayscaleArray(adjustedCandidate);
-        double[][] costs = this.computeCostMatrix(this.refImg, adjustedCandidate);
-        Mapping mapping = new Mapping(n, supplies, demands, costs, 0.01);
-        return mapping.getTotalCost();
+        return this.computeTransportCost(this.refImg, adjustedCandidate, 0.01);
     }
 }
@@ -0,0 +1,24 @@
+package org.ru.pso.objectives;
+
+/**
+ * The plain loops of {@link CostKernel}, for JVMs without the Vector API.
+ */
+class ScalarCostKernel implements CostKernel {
+    @Override
+    public void euclideanRow(double x, double y, double[] refX, double[] refY, int n, double[] row) {
+        for (int i = 0; i < n; i++) {
+            double dx = x - refX[i];
+            double dy = y - refY[i];
+            row[i] = Math.sqrt(dx*dx + dy*dy);
+        }
+    }
+
+    @Override
+    public void squaredEuclideanRow(double x, double y, double[] refX, double[] refY, int n, double[] row) {
+        for (int i = 0; i < n; i++) {
+            double dx = x - refX[i];
+            double dy = y - refY[i];
+            row[i] = dx*dx + dy*dy;
+        }
+    }
+}
@@ -0,0 +1,120 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import org.junit.jupiter.api.Test;
+
+import org.ru.pso.BoundedObjective;
+import org.ru.pso.EvaluationCache;
+import org.ru.vec.Vec2D;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+public class EvaluationCacheTest {
+    public static final double DELTA = 0.0000001d;
+
+    private static Vec2D at(double x, double y) {
+        return new Vec2D(new double[]{x, y});
+    }
+
+    @Test
+    void positionsInOneCellShareAnEvaluation() {
+        AtomicInteger evaluations = new AtomicInteger();
+        EvaluationCache<Vec2D> cache = new EvaluationCache<>(64, 2, 0.1);
+        Function<Vec2D, Double> cost = cache.wrap(v -> {
+            evaluations.incrementAndGet();
+            return v.components()[0] + v.components()[1];
+        });
+
+        assertEquals(0.53, cost.apply(at(0.51, 0.02)), DELTA);
+        // Same cell, so the first cost comes back.
+        assertEquals(0.53, cost.apply(at(0.55, 0.07)), DELTA);
+        assertEquals(0.61, cost.apply(at(0.51, 0.10)), DELTA);
+        assertEquals(-0.53, cost.apply(at(-0.51, -0.02)), DELTA);
+
+        assertEquals(3, evaluations.get());
+        assertEquals(1, cache.getHits());
+        assertEquals(3, cache.getMisses());
+        assertEquals(0.25, cache.getHitRate(), DELTA);
+    }
+
+    @Test
+    void lowerBoundsAreOnlyReusedBelowThem() {
+        AtomicInteger evaluations = new AtomicInteger();
+        EvaluationCache<Vec2D> cache = new EvaluationCache<>(64, 2, 0.1);
+        // The cost is 10, but above the ceiling only ceiling + 1 is reported.
+        BoundedObjective<Vec2D> cost = cache.wrap((v, ceiling) -> {
+            evaluations.incrementAndGet();
+            return ceiling < 10 ? ceiling + 1 : 10;
+        });
+
+        assertEquals(3, cost.compute(at(1, 1), 2), DELTA);
+        // 3 is above a ceiling of 2.5 too.
+        assertEquals(3, cost.compute(at(1, 1), 2.5), DELTA);
+        assertEquals(1, evaluations.get());
+        // But not above 5.
+        assertEquals(6, cost.compute(at(1, 1), 5), DELTA);
+        assertEquals(10, cost.compute(at(1, 1), 20), DELTA);
+        assertEquals(3, evaluations.get());
+        // The exact cost answers any ceiling.
+        assertEquals(10, cost.compute(at(1, 1), 1), DELTA);
+        assertEquals(3, evaluations.get());
+    }
+
+    @Test
+    void cacheStaysBoundedAndKeepsWhatIsRead() {
+        AtomicInteger evaluations = new AtomicInteger();
+        EvaluationCache<Vec2D> cache = new EvaluationCache<>(16, 2, 1.0);
+        Function<Vec2D, Double> cost = cache.wrap(v -> {
+            evaluations.incrementAndGet();
+            return v.components()[0];
+        });
+
+        cost.apply(at(0.5, 0.5));
+        for (int i = 1; i < 1000; i++) {
+            cost.apply(at(i + 0.5, 0.5));
+            // Read on every step, so it is never the one evicted.
+            assertEquals(0.5, cost.apply(at(0.5, 0.5)), DELTA);
+        }
+        assertEquals(1000, evaluations.get());
+        assertEquals(999, cache.getHits());
+    }
+
+    @Test
+    void threadsCanShareACache() throws InterruptedException {
+        AtomicInteger evaluations = new AtomicInteger();
+        EvaluationCache<Vec2D> cache = new EvaluationCache<>(1024, 2, 1.0);
+        List<Thread> threads = new ArrayList<>();
+        List<Double> wrongCosts = new ArrayList<>();
+        for (int t = 0; t < 4; t++) {
+            // Each thread wraps its own objective, like each classification thread does.
+            Function<Vec2D, Double> cost = cache.wrap(v -> {
+                evaluations.incrementAndGet();
+                return Math.floor(v.components()[0]) * 100 + Math.floor(v.components()[1]);
+            });
+            threads.add(new Thread(() -> {
+                for (int i = 0; i < 10_000; i++) {
+                    double x = i % 20 + 0.5;
+                    double y = i % 7 + 0.5;
+                    double c = cost.apply(at(x, y));
+                    if (c != Math.floor(x) * 100 + Math.floor(y)) {
+                        synchronized (wrongCosts) {
+                            wrongCosts.add(c);
+                        }
+                    }
+                }
+            }));
+        }
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        assertEquals(0, wrongCosts.size());
+        assertEquals(40_000, cache.getHits() + cache.getMisses());
+        assertEquals(evaluations.get(), cache.getMisses());
+    }
+}
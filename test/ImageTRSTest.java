@@ -0,0 +1,112 @@
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import org.junit.jupiter.api.Test;
+
+import org.ru.img.AbstractPixel;
+import org.ru.img.ImgReader;
+import org.ru.img.PixelCloud;
+import org.ru.img.ReferenceModel;
+import org.ru.ot.TransportBackend;
+import org.ru.pso.objectives.ImageTRS;
+import org.ru.vec.Vec5D;
+
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+public class ImageTRSTest {
+    public static final double DELTA = 0.0000001d;
+
+    private static BufferedImage blobImage(long seed) {
+        Random rng = new Random(seed);
+        BufferedImage img = new BufferedImage(28, 28, BufferedImage.TYPE_BYTE_GRAY);
+        for (int x = 0; x < 28; x++) {
+            for (int y = 0; y < 28; y++) {
+                boolean ink = Math.hypot(x - 12, y - 15) < 9 && rng.nextDouble() < 0.8;
+                img.getRaster().setSample(x, y, 0, ink ? rng.nextInt(150) : 255);
+            }
+        }
+        return img;
+    }
+
+    private static double[] centerOfMass(List<AbstractPixel> pixels) {
+        double ink = 0, x = 0, y = 0;
+        for (AbstractPixel p : pixels) {
+            ink += p.grayscaleValue();
+            x += p.x() * p.grayscaleValue();
+            y += p.y() * p.grayscaleValue();
+        }
+        return new double[]{x / ink, y / ink};
+    }
+
+    // The transformation done one step at a time: shift, scale around the center of mass, rotate around the new one.
+    private static List<AbstractPixel> transformStepwise(List<AbstractPixel> pixels, double[] v) {
+        List<AbstractPixel> shifted = new ArrayList<>();
+        for (AbstractPixel p : pixels) {
+            shifted.add(new AbstractPixel(p.x() + v[0], p.y() + v[1], p.grayscaleValue()));
+        }
+        double[] c = centerOfMass(shifted);
+        List<AbstractPixel> scaled = new ArrayList<>();
+        for (AbstractPixel p : shifted) {
+            scaled.add(new AbstractPixel((p.x() - c[0]) * Math.abs(v[3]) + c[0],
+                    (p.y() - c[1]) * Math.abs(v[4]) + c[1], p.grayscaleValue()));
+        }
+        c = centerOfMass(scaled);
+        List<AbstractPixel> rotated = new ArrayList<>();
+        for (AbstractPixel p : scaled) {
+            double x = p.x() - c[0];
+            double y = p.y() - c[1];
+            rotated.add(new AbstractPixel(x * Math.cos(v[2]) - y * Math.sin(v[2]) + c[0],
+                    x * Math.sin(v[2]) + y * Math.cos(v[2]) + c[1], p.grayscaleValue()));
+        }
+        return rotated;
+    }
+
+    @Test
+    void fusedTransformMatchesStepwiseTransform() {
+        BufferedImage reference = blobImage(3);
+        List<AbstractPixel> candidate = ImgReader.convertToAbstractPixelsViaKernel(blobImage(4), 0.10);
+        ImageTRS objective = new ImageTRS(reference, candidate, 0.10, false);
+
+        Random rng = new Random(11);
+        for (int t = 0; t < 20; t++) {
+            double[] v = {
+                    10 * rng.nextDouble() - 5,
+                    10 * rng.nextDouble() - 5,
+                    6 * rng.nextDouble() - 3,
+                    2 * rng.nextDouble() - 1,
+                    2 * rng.nextDouble() - 1
+            };
+            objective.compute(new Vec5D(v));
+            List<AbstractPixel> fused = objective.getLastSetOfCandidatePoints();
+            List<AbstractPixel> stepwise = transformStepwise(candidate, v);
+
+            assertEquals(stepwise.size(), fused.size());
+            for (int i = 0; i < fused.size(); i++) {
+                assertEquals(stepwise.get(i).x(), fused.get(i).x(), DELTA);
+                assertEquals(stepwise.get(i).y(), fused.get(i).y(), DELTA);
+            }
+        }
+    }
+
+    @Test
+    void sharedReferenceModelMatchesReferenceImage() {
+        BufferedImage reference = blobImage(5);
+        PixelCloud candidate = ImgReader.convertToPixelCloudViaKernel(blobImage(6), 0.10);
+        ReferenceModel model = new ReferenceModel(reference, 0.10);
+        double[] weightsBefore = model.supplies().clone();
+        double[] xsBefore = model.cloud().xs().clone();
+        assertEquals(1.0, model.cloud().totalWeight(), DELTA);
+
+        Vec5D v = new Vec5D(new double[]{1.5, -2, 0.3, 0.9, 1.2});
+        double fromImage = new ImageTRS(reference, candidate, 0.10, false).compute(v);
+        // Two objectives on the same model, like two threads comparing different candidates to one reference.
+        assertEquals(fromImage, new ImageTRS(model, candidate, false, TransportBackend.GABOW_TARJAN).compute(v), DELTA);
+        assertEquals(fromImage, new ImageTRS(model, candidate, false, TransportBackend.GABOW_TARJAN).compute(v), DELTA);
+
+        assertArrayEquals(weightsBefore, model.supplies());
+        assertArrayEquals(xsBefore, model.cloud().xs());
+    }
+}
@@ -0,0 +1,75 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+
+import org.ru.img.AbstractPixel;
+import org.ru.img.ImgReader;
+import org.ru.img.PixelCloud;
+import org.ru.pso.objectives.ImageTRS;
+import org.ru.pso.objectives.SlicedImageTRS;
+import org.ru.vec.Vec5D;
+
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.List;
+
+public class SlicedImageTRSTest {
+    public static final double DELTA = 0.0000001d;
+
+    private static BufferedImage blockImage() {
+        BufferedImage img = new BufferedImage(28, 28, BufferedImage.TYPE_BYTE_GRAY);
+        for (int x = 0; x < 28; x++) {
+            for (int y = 0; y < 28; y++) {
+                boolean ink = x >= 8 && x < 16 && y >= 6 && y < 22;
+                img.getRaster().setSample(x, y, 0, ink ? 0 : 255);
+            }
+        }
+        return img;
+    }
+
+    private static List<AbstractPixel> shiftedPixels(BufferedImage img, double xShift) {
+        List<AbstractPixel> shifted = new ArrayList<>();
+        for (AbstractPixel p : ImgReader.convertToAbstractPixelsViaKernel(img, 0.10)) {
+            shifted.add(new AbstractPixel(p.x() + xShift, p.y(), p.grayscaleValue()));
+        }
+        return shifted;
+    }
+
+    @Test
+    void undoingTheShiftCostsNothing() {
+        BufferedImage img = blockImage();
+        SlicedImageTRS objective = new SlicedImageTRS(img, shiftedPixels(img, 3), 0.10, false);
+        assertEquals(0.0, objective.compute(new Vec5D(new double[]{-3, 0, 0, 1, 1})), DELTA);
+    }
+
+    @Test
+    void slicedCostIsCloseToTransportCost() {
+        BufferedImage img = blockImage();
+        List<AbstractPixel> candidate = shiftedPixels(img, 3);
+        Vec5D identity = new Vec5D(new double[]{0, 0, 0, 1, 1});
+
+        double transport = new ImageTRS(img, candidate, 0.10, false).compute(identity);
+        double sliced = new SlicedImageTRS(img, candidate, 0.10, false).compute(identity);
+        assertEquals(transport, sliced, 0.1);
+
+        // Even a single direction gives a usable (if rougher) estimate.
+        double oneDirection = new SlicedImageTRS(img, candidate, 0.10, false, 1).compute(identity);
+        assertTrue(oneDirection > 0.0);
+    }
+
+    @Test
+    void pixelCloudCandidateMatchesPixelList() {
+        BufferedImage img = blockImage();
+        List<AbstractPixel> candidate = shiftedPixels(img, 3);
+        PixelCloud cloud = PixelCloud.of(candidate);
+        Vec5D v = new Vec5D(new double[]{-1, 0.5, 0.2, 1.1, 0.9});
+
+        assertEquals(new ImageTRS(img, candidate, 0.10, false).compute(v),
+                new ImageTRS(img, cloud, 0.10, false).compute(v), DELTA);
+        assertEquals(new SlicedImageTRS(img, candidate, 0.10, true).compute(v),
+                new SlicedImageTRS(img, cloud, 0.10, true).compute(v), DELTA);
+        // Objectives only read the candidate they are given.
+        assertEquals(candidate, cloud.toPixels());
+    }
+}
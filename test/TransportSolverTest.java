@@ -0,0 +1,674 @@
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+
+import org.ru.ot.AuctionTransport;
+import org.ru.ot.DoubleMatrix;
+import org.ru.ot.GTTransport;
+import org.ru.ot.Mapping;
+import org.ru.ot.MatrixMemory;
+import org.ru.ot.SparseMapping;
+import org.ru.ot.TransportBackend;
+import org.ru.ot.TransportSolver;
+
+import java.util.Random;
+
+public class TransportSolverTest {
+    public static final double DELTA = 0.0000001d;
+
+    private static double[][] randomCosts(Random rng, int n) {
+        return randomCosts(rng, n, n);
+    }
+
+    private static double[][] randomCosts(Random rng, int rows, int columns) {
+        double[][] C = new double[rows][columns];
+        for (int i = 0; i < rows; i++) {
+            for (int j = 0; j < columns; j++) {
+                C[i][j] = rng.nextDouble();
+            }
+        }
+        return C;
+    }
+
+    // The x and y coordinates of n points spread over a 28 x 28 image, moved by the given shift.
+    private static double[][] randomCloud(Random rng, int n, double shiftX, double shiftY) {
+        double[][] cloud = new double[2][n];
+        for (int i = 0; i < n; i++) {
+            cloud[0][i] = 28 * rng.nextDouble() + shiftX;
+            cloud[1][i] = 28 * rng.nextDouble() + shiftY;
+        }
+        return cloud;
+    }
+
+    // The cost matrix between the points, the way Mapping computes it from them: a row per demand point.
+    private static double[][] pointCosts(double[][] demandCloud, double[][] supplyCloud, boolean squared) {
+        double[][] C = new double[demandCloud[0].length][supplyCloud[0].length];
+        for (int i = 0; i < C.length; i++) {
+            for (int j = 0; j < C[i].length; j++) {
+                double dx = demandCloud[0][i] - supplyCloud[0][j];
+                double dy = demandCloud[1][i] - supplyCloud[1][j];
+                C[i][j] = squared ? dx*dx + dy*dy : Math.sqrt(dx*dx + dy*dy);
+            }
+        }
+        return C;
+    }
+
+    private static double[] randomDistribution(Random rng, int n) {
+        double[] masses = new double[n];
+        double total = 0.0;
+        for (int i = 0; i < n; i++) {
+            masses[i] = rng.nextDouble();
+            total += masses[i];
+        }
+        for (int i = 0; i < n; i++) {
+            masses[i] /= total;
+        }
+        return masses;
+    }
+
+    @Test
+    void identicalDistributionsCostNothing() {
+        int n = 4;
+        double[] masses = {0.1, 0.2, 0.3, 0.4};
+        double[][] C = new double[n][n];
+        for (int i = 0; i < n; i++) {
+            for (int j = 0; j < n; j++) {
+                C[i][j] = i == j ? 0.0 : 1.0;
+            }
+        }
+
+        for (TransportBackend backend : TransportBackend.values()) {
+            TransportSolver solver = backend.create();
+            assertEquals(0.0, solver.solve(n, masses, masses, C, 0.01), 0.01);
+        }
+    }
+
+    @Test
+    void flowRespectsMarginals() {
+        Random rng = new Random(7);
+        int n = 20;
+        double[] supplies = randomDistribution(rng, n);
+        double[] demands = randomDistribution(rng, n);
+        double[][] C = randomCosts(rng, n);
+
+        for (TransportBackend backend : TransportBackend.values()) {
+            TransportSolver solver = backend.create();
+            solver.solve(n, supplies, demands, C, 0.05);
+            double[][] flow = solver.getFlow();
+            for (int i = 0; i < n; i++) {
+                double demandSent = 0.0;
+                double supplySent = 0.0;
+                for (int j = 0; j < n; j++) {
+                    demandSent += flow[i][j];
+                    supplySent += flow[j][i];
+                }
+                assertEquals(demands[i], demandSent, 0.000001);
+                assertEquals(supplies[i], supplySent, 0.000001);
+            }
+        }
+    }
+
+    @Test
+    void unbalancedInstanceMatchesZeroMassPadding() {
+        Random rng = new Random(5);
+        int numSupplies = 12;
+        int numDemands = 20;
+        double[] supplies = randomDistribution(rng, numSupplies);
+        double[] demands = randomDistribution(rng, numDemands);
+        double[][] C = randomCosts(rng, numDemands, numSupplies);
+
+        // The square instance the objectives used to build: the supply side padded with zero mass vertices.
+        double[] paddedSupplies = new double[numDemands];
+        double[][] paddedC = new double[numDemands][numDemands];
+        for (int i = 0; i < numDemands; i++) {
+            for (int j = 0; j < numSupplies; j++) {
+                paddedSupplies[j] = supplies[j];
+                paddedC[i][j] = C[i][j];
+            }
+        }
+
+        for (TransportBackend backend : TransportBackend.values()) {
+            TransportSolver solver = backend.create();
+            double padded = backend.create().solve(numDemands, paddedSupplies, demands, paddedC, 0.01);
+            assertEquals(padded, solver.solve(numSupplies, numDemands, supplies, demands, C, 0.01), 0.02);
+
+            double[][] flow = solver.getFlow();
+            for (int i = 0; i < numDemands; i++) {
+                double demandSent = 0.0;
+                for (int j = 0; j < numSupplies; j++) {
+                    demandSent += flow[i][j];
+                }
+                assertEquals(demands[i], demandSent, 0.000001);
+            }
+            for (int j = 0; j < numSupplies; j++) {
+                double supplySent = 0.0;
+                for (int i = 0; i < numDemands; i++) {
+                    supplySent += flow[i][j];
+                }
+                assertEquals(supplies[j], supplySent, 0.000001);
+            }
+        }
+    }
+
+    @Test
+    void costOnlySolveMatchesDenseSolve() {
+        Random rng = new Random(29);
+        int numSupplies = 30;
+        int numDemands = 40;
+        double[] supplies = randomDistribution(rng, numSupplies);
+        double[] demands = randomDistribution(rng, numDemands);
+        double[][] C = randomCosts(rng, numDemands, numSupplies);
+
+        Mapping mapping = new Mapping();
+        double dense = mapping.solve(numSupplies, numDemands, supplies, demands, C, 0.01);
+        assertEquals(dense, mapping.solveCost(numSupplies, numDemands, supplies, demands, C, 0.01), DELTA);
+        assertTrue(mapping.getPlanSize() <= 2 * (numSupplies + numDemands));
+
+        double[] supplySent = new double[numSupplies];
+        double[] demandReceived = new double[numDemands];
+        for (int t = 0; t < mapping.getPlanSize(); t++) {
+            supplySent[mapping.getPlanSupplies()[t]] += mapping.getPlanMasses()[t];
+            demandReceived[mapping.getPlanDemands()[t]] += mapping.getPlanMasses()[t];
+        }
+        for (int j = 0; j < numSupplies; j++) {
+            assertEquals(supplies[j], supplySent[j], 0.000001);
+        }
+        for (int i = 0; i < numDemands; i++) {
+            assertEquals(demands[i], demandReceived[i], 0.000001);
+        }
+    }
+
+    @Test
+    void costCeilingStopsWithLowerBound() {
+        Random rng = new Random(31);
+        int n = 60;
+        double[] supplies = randomDistribution(rng, n);
+        double[] demands = randomDistribution(rng, n);
+        double[][] C = randomCosts(rng, n);
+
+        Mapping mapping = new Mapping();
+        double cost = mapping.solveCost(n, n, supplies, demands, C, 0.01);
+        int fullIterations = mapping.getIterations();
+
+        // A ceiling above the cost changes nothing.
+        assertEquals(cost, mapping.solveCost(n, n, supplies, demands, C, 0.01, 2 * cost), DELTA);
+        assertTrue(!mapping.exceededCeiling());
+
+        // Below it, the solve stops early with a lower bound that is above the ceiling.
+        double bound = mapping.solveCost(n, n, supplies, demands, C, 0.01, cost / 2);
+        assertTrue(mapping.exceededCeiling());
+        assertTrue(bound > cost / 2);
+        assertTrue(bound <= cost);
+        assertTrue(mapping.getIterations() < fullIterations);
+    }
+
+    @Test
+    void certifiedBoundsBracketOptimalCost() {
+        Random rng = new Random(37);
+        int numSupplies = 40;
+        int numDemands = 50;
+        double[] supplies = randomDistribution(rng, numSupplies);
+        double[] demands = randomDistribution(rng, numDemands);
+        double[][] C = randomCosts(rng, numDemands, numSupplies);
+
+        Mapping coarse = new Mapping();
+        double cost = coarse.solveCost(numSupplies, numDemands, supplies, demands, C, 0.1);
+        assertEquals(cost, coarse.getUpperBound(), DELTA);
+        assertTrue(coarse.getLowerBound() <= cost);
+        assertEquals(cost - coarse.getLowerBound(), coarse.getCertifiedError(), DELTA);
+
+        // Both intervals contain the optimal cost, so they have to overlap.
+        Mapping fine = new Mapping();
+        fine.solve(numSupplies, numDemands, supplies, demands, C, 0.001);
+        assertTrue(fine.getCertifiedError() < coarse.getCertifiedError());
+        assertTrue(coarse.getLowerBound() <= fine.getUpperBound());
+        assertTrue(fine.getLowerBound() <= coarse.getUpperBound());
+    }
+
+    @Test
+    void hugeCostsDoNotOverflowScaling() {
+        Random rng = new Random(41);
+        int n = 40;
+        double[] supplies = randomDistribution(rng, n);
+        double[] demands = randomDistribution(rng, n);
+        double[][] C = randomCosts(rng, n);
+        double[][] hugeC = new double[n][n];
+        for (int i = 0; i < n; i++) {
+            for (int j = 0; j < n; j++) {
+                hugeC[i][j] = 1_000_000 * C[i][j];
+            }
+        }
+
+        // Scaling the costs scales the optimal cost, so the two certified intervals have to overlap once rescaled.
+        Mapping small = new Mapping();
+        small.solve(n, supplies, demands, C, 0.01);
+        Mapping huge = new Mapping();
+        huge.solve(n, supplies, demands, hugeC, 0.01);
+        // Delta is far below what the scale of the solver can resolve for costs this large, and it says so.
+        assertTrue(huge.reachedScaleLimit());
+        assertTrue(!huge.withinDelta());
+        assertTrue(!huge.reachedPhaseLimit());
+        assertTrue(huge.getLowerBound() <= 1_000_000 * small.getUpperBound() + 1);
+        assertTrue(1_000_000 * small.getLowerBound() <= huge.getUpperBound() + 1);
+    }
+
+    @Test
+    void costsPastIntRangeKeepDelta() {
+        Random rng = new Random(53);
+        int n = 40;
+        double[] supplies = randomDistribution(rng, n);
+        double[] demands = randomDistribution(rng, n);
+        double[][] C = randomCosts(rng, n);
+        double[][] largeC = new double[n][n];
+        for (int i = 0; i < n; i++) {
+            for (int j = 0; j < n; j++) {
+                largeC[i][j] = 10_000 * C[i][j];
+            }
+        }
+
+        // Scaled for delta, the largest cost is about 4e9, past the range of an int.
+        Mapping large = new Mapping();
+        large.solve(n, supplies, demands, largeC, 0.1);
+        assertTrue(!large.reachedScaleLimit());
+        assertTrue(large.withinDelta());
+        assertTrue(large.getCertifiedError() <= 0.1);
+
+        // The same instance with the costs 10000 times smaller and delta with them is scaled exactly alike, in ints.
+        Mapping small = new Mapping();
+        small.solve(n, supplies, demands, C, 0.00001);
+        assertTrue(small.withinDelta());
+        assertEquals(10_000 * small.getTotalCost(), large.getTotalCost(), 0.2);
+    }
+
+    @Test
+    void phaseLimitStillGivesFeasiblePlan() {
+        Random rng = new Random(43);
+        int n = 30;
+        double[] supplies = randomDistribution(rng, n);
+        double[] demands = randomDistribution(rng, n);
+        double[][] C = randomCosts(rng, n);
+
+        Mapping exact = new Mapping();
+        exact.solve(n, supplies, demands, C, 0.001);
+
+        Mapping mapping = new Mapping();
+        mapping.setMaxPhases(3);
+        mapping.solve(n, supplies, demands, C, 0.001);
+        assertTrue(mapping.reachedPhaseLimit());
+        assertTrue(!mapping.withinDelta());
+        assertEquals(3, mapping.getIterations());
+        for (int i = 0; i < n; i++) {
+            double received = 0;
+            for (int j = 0; j < n; j++) {
+                received += mapping.getFlow()[i][j];
+            }
+            assertEquals(demands[i], received, 0.000001);
+        }
+        // The plan is worse, but its certified interval still contains the optimal cost.
+        assertTrue(mapping.getLowerBound() <= exact.getUpperBound());
+        assertTrue(exact.getLowerBound() <= mapping.getUpperBound());
+    }
+
+    @Test
+    void normalizedCostsMakeDeltaRelative() {
+        Random rng = new Random(47);
+        int n = 40;
+        double[] supplies = randomDistribution(rng, n);
+        double[] demands = randomDistribution(rng, n);
+        double[][] C = randomCosts(rng, n);
+        double[][] largeC = new double[n][n];
+        double maxCost = 0;
+        for (int i = 0; i < n; i++) {
+            for (int j = 0; j < n; j++) {
+                largeC[i][j] = 1000 * C[i][j];
+                maxCost = Double.max(maxCost, C[i][j]);
+            }
+        }
+
+        Mapping exact = new Mapping();
+        double optimal = exact.solve(n, supplies, demands, C, 0.0001);
+
+        Mapping normalized = new Mapping();
+        normalized.setNormalizeCosts(true);
+        double cost = normalized.solve(n, supplies, demands, C, 0.01);
+        int iterations = normalized.getIterations();
+        assertEquals(optimal, cost, 0.01 * maxCost);
+
+        // Multiplying every cost by 1000 multiplies the error by 1000 too, and leaves the scaled instance as it was.
+        double largeCost = normalized.solve(n, supplies, demands, largeC, 0.01);
+        assertEquals(1000 * optimal, largeCost, 1000 * 0.01 * maxCost);
+        assertEquals(iterations, normalized.getIterations(), 2);
+    }
+
+    @Test
+    void backendsAgreeWithinDelta() {
+        Random rng = new Random(11);
+        int n = 30;
+        double delta = 0.05;
+        TransportSolver gabowTarjan = TransportBackend.GABOW_TARJAN.create();
+        TransportSolver sinkhorn = TransportBackend.SINKHORN.create();
+
+        for (int trial = 0; trial < 5; trial++) {
+            double[] supplies = randomDistribution(rng, n);
+            double[] demands = randomDistribution(rng, n);
+            double[][] C = randomCosts(rng, n);
+
+            double exact = gabowTarjan.solve(n, supplies, demands, C, DELTA * 1000);
+            double approximate = sinkhorn.solve(n, supplies, demands, C, delta);
+            assertEquals(exact, approximate, 2 * delta);
+        }
+    }
+
+    @Test
+    void parallelAuctionMatchesGabowTarjan() {
+        Random rng = new Random(31);
+        // Large enough that the bidding and assignment phases are forked onto the pool.
+        int n = 150;
+        double delta = 0.05;
+        double[] supplies = randomDistribution(rng, n);
+        double[] demands = randomDistribution(rng, n);
+        double[][] C = randomCosts(rng, n);
+
+        double exact = TransportBackend.GABOW_TARJAN.create().solve(n, supplies, demands, C, DELTA * 1000);
+        try (AuctionTransport auction = new AuctionTransport(4)) {
+            assertEquals(exact, auction.solve(n, supplies, demands, C, delta), delta);
+            assertTrue(!auction.reachedRoundLimit());
+            assertTrue(auction.withinDelta());
+
+            double[][] flow = auction.getFlow();
+            for (int j = 0; j < n; j++) {
+                double supplySent = 0.0;
+                for (int i = 0; i < n; i++) {
+                    supplySent += flow[i][j];
+                }
+                assertEquals(supplies[j], supplySent, 0.000001);
+            }
+        }
+    }
+
+    @Test
+    void reusedSolverMatchesFreshSolver() {
+        Random rng = new Random(3);
+        TransportSolver reused = TransportBackend.GABOW_TARJAN.create();
+
+        for (int n : new int[]{10, 25, 5}) {
+            double[] supplies = randomDistribution(rng, n);
+            double[] demands = randomDistribution(rng, n);
+            double[][] C = randomCosts(rng, n);
+
+            double fresh = TransportBackend.GABOW_TARJAN.create().solve(n, supplies, demands, C, 0.01);
+            assertEquals(fresh, reused.solve(n, supplies, demands, C, 0.01), DELTA);
+        }
+    }
+
+    @Test
+    void warmStartStaysWithinDelta() {
+        Random rng = new Random(19);
+        int n = 25;
+        double delta = 0.05;
+        double[] supplies = randomDistribution(rng, n);
+        double[] demands = randomDistribution(rng, n);
+        double[][] C = randomCosts(rng, n);
+        TransportSolver cold = TransportBackend.GABOW_TARJAN.create();
+        TransportSolver warm = TransportBackend.GABOW_TARJAN.create();
+        warm.setWarmStart(true);
+
+        for (int trial = 0; trial < 10; trial++) {
+            // Nudge the costs a little, like an optimizer probing a nearby transformation.
+            for (int i = 0; i < n; i++) {
+                for (int j = 0; j < n; j++) {
+                    C[i][j] = Math.max(0.0, C[i][j] + 0.02 * rng.nextGaussian());
+                }
+            }
+
+            double exact = cold.solve(n, supplies, demands, C, DELTA * 1000);
+            assertEquals(exact, warm.solve(n, supplies, demands, C, delta), delta);
+
+            double[][] flow = warm.getFlow();
+            for (int j = 0; j < n; j++) {
+                double supplySent = 0.0;
+                for (int i = 0; i < n; i++) {
+                    supplySent += flow[i][j];
+                }
+                assertEquals(supplies[j], supplySent, 0.000001);
+            }
+        }
+    }
+
+    @Test
+    void sparseMappingMatchesDenseMapping() {
+        Random rng = new Random(23);
+        int n = 60;
+        double[][] cloud = randomCloud(rng, n, 0, 0);
+        double[][] shifted = randomCloud(rng, n, 3, -2);
+        double[] x = cloud[0];
+        double[] y = cloud[1];
+        double[] shiftedX = shifted[0];
+        double[] shiftedY = shifted[1];
+        double[] supplies = randomDistribution(rng, n);
+        double[] demands = randomDistribution(rng, n);
+        double[][] C = pointCosts(shifted, cloud, false);
+
+        double dense = TransportBackend.GABOW_TARJAN.create().solve(n, supplies, demands, C, 0.1);
+        SparseMapping sparse = new SparseMapping(4, 0, false);
+        assertEquals(dense, sparse.solve(x, y, supplies, shiftedX, shiftedY, demands, 0.1), 0.1);
+
+        double[] supplySent = new double[n];
+        double planCost = 0.0;
+        for (int t = 0; t < sparse.getPlanSize(); t++) {
+            int j = sparse.getPlanSupplies()[t];
+            int i = sparse.getPlanDemands()[t];
+            supplySent[j] += sparse.getPlanMasses()[t];
+            planCost += sparse.getPlanMasses()[t] * C[i][j];
+        }
+        assertEquals(sparse.getTotalCost(), planCost, DELTA);
+        for (int j = 0; j < n; j++) {
+            assertEquals(supplies[j], supplySent[j], 0.000001);
+        }
+    }
+
+    @Test
+    void multiscaleSparseMappingMatchesDenseMapping() {
+        Random rng = new Random(31);
+        int n = 80;
+        double[][] cloud = randomCloud(rng, n, 0, 0);
+        double[][] shifted = randomCloud(rng, n, 3, -2);
+        double[] x = cloud[0];
+        double[] y = cloud[1];
+        double[] shiftedX = shifted[0];
+        double[] shiftedY = shifted[1];
+        double[] supplies = randomDistribution(rng, n);
+        double[] demands = randomDistribution(rng, n);
+        double[][] C = pointCosts(shifted, cloud, false);
+
+        double dense = TransportBackend.GABOW_TARJAN.create().solve(n, supplies, demands, C, 0.1);
+        SparseMapping sparse = new SparseMapping(4, 0, false);
+        sparse.setCoarseCellSize(7);
+        assertEquals(dense, sparse.solve(x, y, supplies, shiftedX, shiftedY, demands, 0.1), 0.1);
+
+        double[] supplySent = new double[n];
+        double[] demandReceived = new double[n];
+        double planCost = 0.0;
+        for (int t = 0; t < sparse.getPlanSize(); t++) {
+            int j = sparse.getPlanSupplies()[t];
+            int i = sparse.getPlanDemands()[t];
+            supplySent[j] += sparse.getPlanMasses()[t];
+            demandReceived[i] += sparse.getPlanMasses()[t];
+            planCost += sparse.getPlanMasses()[t] * C[i][j];
+        }
+        assertEquals(sparse.getTotalCost(), planCost, DELTA);
+        for (int j = 0; j < n; j++) {
+            assertEquals(supplies[j], supplySent[j], 0.000001);
+            assertTrue(demandReceived[j] <= demands[j] + 0.000001);
+        }
+    }
+
+    @Test
+    void sparseMappingStopsAtCeilingAndPhaseLimit() {
+        Random rng = new Random(37);
+        int n = 80;
+        double[][] cloud = randomCloud(rng, n, 0, 0);
+        double[][] shifted = randomCloud(rng, n, 3, -2);
+        double[] x = cloud[0];
+        double[] y = cloud[1];
+        double[] shiftedX = shifted[0];
+        double[] shiftedY = shifted[1];
+        double[] supplies = randomDistribution(rng, n);
+        double[] demands = randomDistribution(rng, n);
+
+        SparseMapping sparse = new SparseMapping(4, 0, false);
+        double cost = sparse.solve(x, y, supplies, shiftedX, shiftedY, demands, 0.01);
+        int fullIterations = sparse.getIterations();
+        assertTrue(sparse.withinDelta());
+
+        // A ceiling above the cost changes nothing.
+        assertEquals(cost, sparse.solve(x, y, supplies, shiftedX, shiftedY, demands, 0.01, 2 * cost), DELTA);
+        assertTrue(!sparse.exceededCeiling());
+
+        // Below it, the solve stops early with a lower bound on the cost of the complete graph above the ceiling.
+        double bound = sparse.solve(x, y, supplies, shiftedX, shiftedY, demands, 0.01, cost / 2);
+        assertTrue(sparse.exceededCeiling());
+        assertTrue(bound > cost / 2);
+        assertTrue(bound <= cost);
+        assertTrue(sparse.getIterations() < fullIterations);
+
+        // Out of phases, the plan is still feasible, but not within delta.
+        sparse.setMaxPhases(3);
+        sparse.solve(x, y, supplies, shiftedX, shiftedY, demands, 0.01);
+        assertTrue(sparse.reachedPhaseLimit());
+        assertTrue(!sparse.withinDelta());
+        assertEquals(3, sparse.getIterations());
+        double[] supplySent = new double[n];
+        for (int t = 0; t < sparse.getPlanSize(); t++) {
+            supplySent[sparse.getPlanSupplies()[t]] += sparse.getPlanMasses()[t];
+        }
+        for (int j = 0; j < n; j++) {
+            assertEquals(supplies[j], supplySent[j], 0.000001);
+        }
+    }
+
+    @Test
+    void pointCostsMatchCostMatrix() {
+        Random rng = new Random(29);
+        int numSupplies = 50;
+        int numDemands = 40;
+        double[][] cloud = randomCloud(rng, numSupplies, 0, 0);
+        double[][] other = randomCloud(rng, numDemands, 3, 0);
+        double[] x = cloud[0];
+        double[] y = cloud[1];
+        double[] otherX = other[0];
+        double[] otherY = other[1];
+        double[] supplies = randomDistribution(rng, numSupplies);
+        double[] demands = randomDistribution(rng, numDemands);
+
+        for (boolean squared : new boolean[]{false, true}) {
+            double[][] C = pointCosts(other, cloud, squared);
+            double dense = new Mapping().solveCost(numSupplies, numDemands, supplies, demands, C, 0.01);
+
+            // The costs computed from the points are the ones in C, so the solve takes exactly the same steps.
+            for (int cachedRows : new int[]{0, 8, numSupplies}) {
+                Mapping points = new Mapping();
+                points.setCachedCostRows(cachedRows);
+                assertEquals(dense, points.solveCost(x, y, supplies, otherX, otherY, demands, squared, 0.01,
+                        Double.POSITIVE_INFINITY), DELTA);
+                assertTrue(points.getLowerBound() <= dense + DELTA);
+            }
+        }
+    }
+
+    @Test
+    void offHeapMatricesMatchHeapMatrices() {
+        Random rng = new Random(41);
+        // Without the Foreign Memory API the memory falls back to the heap, and the solves must agree all the same.
+        try (MatrixMemory memory = MatrixMemory.offHeap()) {
+            Mapping offHeap = new Mapping();
+            offHeap.setMatrixMemory(memory);
+            Mapping heap = new Mapping();
+            // The second shape frees the matrices of the first, and the large costs are solved as longs.
+            int[][] shapes = {{30, 40}, {45, 35}};
+            for (int[] shape : shapes) {
+                int numSupplies = shape[0];
+                int numDemands = shape[1];
+                for (double scale : new double[]{1, 10000}) {
+                    double[] supplies = randomDistribution(rng, numSupplies);
+                    double[] demands = randomDistribution(rng, numDemands);
+                    double[][] C = randomCosts(rng, numDemands, numSupplies);
+                    DoubleMatrix matrix = memory.allocateDoubles(numDemands, numSupplies);
+                    for (int i = 0; i < numDemands; i++) {
+                        for (int j = 0; j < numSupplies; j++) {
+                            C[i][j] *= scale;
+                        }
+                        matrix.setRow(i, C[i]);
+                    }
+                    // Scaled finely enough that the large costs pass the range of an int.
+                    double delta = scale == 1 ? 0.01 : 0.1;
+
+                    double expected = heap.solveCost(numSupplies, numDemands, supplies, demands, C, delta);
+                    assertEquals(expected, offHeap.solveCost(numSupplies, numDemands, supplies, demands, matrix, delta,
+                            Double.POSITIVE_INFINITY), DELTA * scale);
+                    assertEquals(heap.getLowerBound(), offHeap.getLowerBound(), DELTA * scale);
+                    assertEquals(heap.solve(numSupplies, numDemands, supplies, demands, C, delta),
+                            offHeap.solve(numSupplies, numDemands, supplies, demands, C, delta), DELTA * scale);
+                    matrix.free();
+                }
+            }
+        }
+    }
+
+    @Test
+    void squareCostMatrixMatchesFlatCostMatrix() {
+        Random rng = new Random(47);
+        int n = 12;
+        int[][] C = new int[n][n];
+        int[] flat = new int[n * n];
+        for (int a = 0; a < n; a++) {
+            for (int b = 0; b < n; b++) {
+                C[a][b] = rng.nextInt(100);
+                // The flat matrix has a row per vertex of B.
+                flat[b * n + a] = C[a][b];
+            }
+        }
+        int[] supplies = new int[n];
+        int[] demands = new int[n];
+        for (int v = 0; v < n; v++) {
+            supplies[v] = 1 + rng.nextInt(5);
+            demands[v] = 5;
+        }
+
+        GTTransport square = new GTTransport(C, supplies.clone(), demands.clone(), n);
+        GTTransport flatSolver = new GTTransport(flat, supplies.clone(), demands.clone(), n);
+        assertArrayEquals(flatSolver.getFlowAB(), square.getFlowAB());
+    }
+
+    @Test
+    void parallelSearchStaysWithinDelta() {
+        Random rng = new Random(37);
+        // Enough free vertices that the first phases search in parallel.
+        int n = 200;
+        double delta = 0.01;
+        Mapping sequential = new Mapping();
+        try (Mapping parallel = new Mapping()) {
+            parallel.setSearchParallelism(4);
+
+            for (int trial = 0; trial < 3; trial++) {
+                double[] supplies = randomDistribution(rng, n);
+                double[] demands = randomDistribution(rng, n);
+                double[][] C = randomCosts(rng, n);
+
+                double exact = sequential.solve(n, supplies, demands, C, DELTA * 1000);
+                assertEquals(exact, parallel.solve(n, supplies, demands, C, delta), delta);
+
+                double[][] flow = parallel.getFlow();
+                for (int j = 0; j < n; j++) {
+                    double supplySent = 0.0;
+                    for (int i = 0; i < n; i++) {
+                        supplySent += flow[i][j];
+                    }
+                    assertEquals(supplies[j], supplySent, 0.000001);
+                }
+            }
+        }
+    }
+}
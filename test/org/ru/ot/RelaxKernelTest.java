@@ -0,0 +1,111 @@
+package org.ru.ot;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+// In the package of the kernels, which are package-private.
+public class RelaxKernelTest {
+    @Test
+    void vectorKernelMatchesScalarKernel() {
+        RelaxKernel vector = RelaxKernel.loadVector();
+        assumeTrue(vector != null, "The Vector API kernel needs --add-modules jdk.incubator.vector");
+        RelaxKernel scalar = new ScalarRelaxKernel();
+        Random rng = new Random(43);
+        // Sizes around and between the lane counts, so that both the vector loops and their tails are covered.
+        for (int trial = 0; trial < 200; trial++) {
+            int numB = 1 + rng.nextInt(70);
+            int numA = 1 + rng.nextInt(70);
+            int[] capacityBA = randomCapacities(rng, numB * numA);
+            int[] capacityAB = randomCapacities(rng, numA * numB);
+            int[] costs = new int[numB * numA];
+            long[] wideCosts = new long[numB * numA];
+            for (int e = 0; e < costs.length; e++) {
+                costs[e] = rng.nextInt(1 << 20);
+                wideCosts[e] = costs[e] + ((long) rng.nextInt(1 << 20) << 31);
+            }
+            int[] columnOffsets = new int[numB];
+            for (int b = 0; b < numB; b++) {
+                columnOffsets[b] = b * numA;
+            }
+            long[] y = new long[numB + numA];
+            long[] lv = new long[numB + numA];
+            for (int v = 0; v < numB + numA; v++) {
+                y[v] = v < numB ? rng.nextInt(1 << 20) : -rng.nextInt(1 << 20);
+                // Unreached vertices, which every edge with capacity improves, next to reached ones.
+                lv[v] = rng.nextBoolean() ? Long.MAX_VALUE : rng.nextInt(1 << 21);
+            }
+            int b = rng.nextInt(numB);
+            int a = rng.nextInt(numA);
+            long base = rng.nextInt(1 << 20);
+
+            Scan expected = new Scan(numB, numA);
+            Scan actual = new Scan(numB, numA);
+            expected.count = scalar.relaxFromB(base, b * numA, capacityBA, costs, b * numA, y, lv, numB, numA,
+                    expected.improved, expected.improvedDist);
+            actual.count = vector.relaxFromB(base, b * numA, capacityBA, costs, b * numA, y, lv, numB, numA,
+                    actual.improved, actual.improvedDist);
+            actual.assertMatches(expected);
+
+            expected.count = scalar.relaxFromB(base, b * numA, capacityBA, wideCosts, b * numA, y, lv, numB, numA,
+                    expected.improved, expected.improvedDist);
+            actual.count = vector.relaxFromB(base, b * numA, capacityBA, wideCosts, b * numA, y, lv, numB, numA,
+                    actual.improved, actual.improvedDist);
+            actual.assertMatches(expected);
+
+            // Down a column of the cost matrix, and along a row computed on the fly.
+            for (int[] offsets : new int[][]{columnOffsets, null}) {
+                int costRow = offsets != null ? a : 0;
+                expected.count = scalar.relaxFromA(base, a * numB, capacityAB, costs, costRow, offsets, y, lv, numB,
+                        expected.improved, expected.improvedDist);
+                actual.count = vector.relaxFromA(base, a * numB, capacityAB, costs, costRow, offsets, y, lv, numB,
+                        actual.improved, actual.improvedDist);
+                actual.assertMatches(expected);
+
+                expected.count = scalar.relaxFromA(base, a * numB, capacityAB, wideCosts, costRow, offsets, y, lv,
+                        numB, expected.improved, expected.improvedDist);
+                actual.count = vector.relaxFromA(base, a * numB, capacityAB, wideCosts, costRow, offsets, y, lv, numB,
+                        actual.improved, actual.improvedDist);
+                actual.assertMatches(expected);
+            }
+        }
+    }
+
+    @Test
+    void createPicksScalarKernelByDefault() {
+        assumeTrue(!Boolean.getBoolean(RelaxKernel.VECTOR_PROPERTY), "The Vector API kernel was asked for");
+        assertEquals(ScalarRelaxKernel.class, RelaxKernel.create().getClass());
+    }
+
+    // Mostly edges without capacity, as in a solve, where the edges of matched vertices have none left.
+    private static int[] randomCapacities(Random rng, int size) {
+        int[] capacities = new int[size];
+        for (int e = 0; e < size; e++) {
+            capacities[e] = rng.nextInt(4) == 0 ? 1 + rng.nextInt(10) : 0;
+        }
+        return capacities;
+    }
+
+    // The output of one scan.
+    private static final class Scan {
+        final int[] improved;
+        final long[] improvedDist;
+        int count;
+
+        Scan(int numB, int numA) {
+            improved = new int[Integer.max(numB, numA)];
+            improvedDist = new long[Integer.max(numB, numA)];
+        }
+
+        void assertMatches(Scan expected) {
+            assertEquals(expected.count, count);
+            assertArrayEquals(Arrays.copyOf(expected.improved, expected.count), Arrays.copyOf(improved, count));
+            assertArrayEquals(Arrays.copyOf(expected.improvedDist, expected.count), Arrays.copyOf(improvedDist, count));
+        }
+    }
+}
@@ -0,0 +1,40 @@
+package org.ru.pso.objectives;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+
+// In the package of the kernels, which are package-private.
+public class CostKernelTest {
+    @Test
+    void vectorKernelMatchesScalarKernel() {
+        CostKernel vector = CostKernel.loadVector();
+        assumeTrue(vector != null, "The Vector API kernel needs --add-modules jdk.incubator.vector");
+        CostKernel scalar = new ScalarCostKernel();
+        Random rng = new Random(53);
+        // Cloud sizes around the lane counts, so that both the vector loop and its tail are covered.
+        for (int n = 1; n <= 40; n++) {
+            double[] refX = new double[n];
+            double[] refY = new double[n];
+            for (int i = 0; i < n; i++) {
+                refX[i] = 28 * rng.nextDouble();
+                refY[i] = 28 * rng.nextDouble();
+            }
+            double x = 28 * rng.nextDouble();
+            double y = 28 * rng.nextDouble();
+
+            double[] expected = new double[n];
+            double[] actual = new double[n];
+            scalar.euclideanRow(x, y, refX, refY, n, expected);
+            vector.euclideanRow(x, y, refX, refY, n, actual);
+            // The same bits, not just close: the objectives must not depend on which kernel ran.
+            assertArrayEquals(expected, actual, 0);
+            scalar.squaredEuclideanRow(x, y, refX, refY, n, expected);
+            vector.squaredEuclideanRow(x, y, refX, refY, n, actual);
+            assertArrayEquals(expected, actual, 0);
+        }
+    }
+}